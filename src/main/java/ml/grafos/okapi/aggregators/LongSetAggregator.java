@@ -0,0 +1,38 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.aggregators;
+
+import ml.grafos.okapi.common.data.SortedLongArrayWritable;
+
+import org.apache.giraph.aggregators.BasicAggregator;
+
+/**
+ * Aggregates the union of sets of longs, such as a set of vertex IDs. The
+ * aggregated set is sorted, so the position of an ID in it can serve as a
+ * dense index that every worker agrees on.
+ */
+public class LongSetAggregator extends BasicAggregator<SortedLongArrayWritable> {
+
+  @Override
+  public void aggregate(SortedLongArrayWritable value) {
+    getAggregatedValue().addAll(value);
+  }
+
+  @Override
+  public SortedLongArrayWritable createInitialValue() {
+    return new SortedLongArrayWritable();
+  }
+}
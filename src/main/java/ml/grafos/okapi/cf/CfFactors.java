@@ -0,0 +1,73 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import java.util.Random;
+
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.FloatWritable;
+
+/**
+ * Initialization of the latent vectors shared by the CF algorithms.
+ *
+ * New vectors start from small random values. Vertices whose factors were
+ * loaded from a previous model, e.g. with
+ * {@link ml.grafos.okapi.cf.eval.CfModelInputFormat}, keep them, which
+ * warm-starts the computation so that only new users and items start from
+ * scratch.
+ *
+ * @author dl
+ *
+ */
+public class CfFactors {
+
+  private CfFactors() {
+  }
+
+  /**
+   * Fills a vector with small random values.
+   *
+   * @param factors The vector to fill
+   * @param randGen Random number generator
+   * @return The same vector
+   */
+  public static FloatMatrixWritable randomize(FloatMatrixWritable factors,
+      Random randGen) {
+    for (int i=0; i<factors.length; i++) {
+      factors.put(i, 0.01f*randGen.nextFloat());
+    }
+    return factors;
+  }
+
+  /**
+   * Assigns random factors to a vertex, unless it already holds a vector of
+   * the right size.
+   *
+   * @param vertex The vertex to initialize
+   * @param vectorSize Size of the latent vector
+   */
+  public static void initFactorsIfNeeded(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      int vectorSize) {
+    if (vertex.getValue() != null && vertex.getValue().length == vectorSize) {
+      return;
+    }
+    vertex.setValue(randomize(new FloatMatrixWritable(vectorSize),
+        new Random()));
+  }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.io.EdgeInputFormat;
+import org.apache.giraph.io.EdgeReader;
+import org.apache.giraph.io.formats.GiraphFileInputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Binary {@link org.apache.giraph.io.EdgeInputFormat} to read user-item
+ * ratings as the input for the CF algorithms. It is the binary counterpart
+ * of {@link CfLongIdFloatTextInputFormat}; files in this format can be
+ * produced with {@link CfRatingsTextToBinary}.
+ *
+ * A file consists of a header followed by fixed-width records, all encoded
+ * in little-endian byte order:
+ *
+ * header: <magic (int)> <version (int)> <record size (int)> <reserved (int)>
+ * record: <user id (long)> <item id (long)> <rating (float)>
+ *
+ * The input is split into the blocks of the files under the edge input
+ * paths. Because records have a fixed width, splits are aligned to record
+ * boundaries arithmetically and the reader decodes records straight from a
+ * reusable NIO buffer, so no text parsing takes place while loading.
+ */
+public class CfLongIdFloatBinaryInputFormat extends
+    EdgeInputFormat<CfLongId, FloatWritable> {
+  /** Magic number identifying a binary ratings file ("OKCF"). */
+  public static final int MAGIC = 0x46434b4f;
+  /** Version of the binary layout. */
+  public static final int VERSION = 1;
+  /** Size of the file header in bytes. */
+  public static final int HEADER_SIZE = 16;
+  /** Size of a single rating record in bytes. */
+  public static final int RECORD_SIZE = 8 + 8 + 4;
+  /** Byte order of the header and the records. */
+  public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+  /** Keyword for the number of records fetched with each read. */
+  public static final String BLOCK_RECORDS = "cf.binary.block.records";
+  /** Default number of records fetched with each read. */
+  public static final int BLOCK_RECORDS_DEFAULT = 64 * 1024;
+
+  /** Skips the hidden files, such as the markers of finished jobs. */
+  private static final PathFilter VISIBLE_FILES = new PathFilter() {
+    @Override
+    public boolean accept(Path path) {
+      String name = path.getName();
+      return !name.startsWith("_") && !name.startsWith(".");
+    }
+  };
+
+  @Override
+  public void checkInputSpecs(Configuration conf) { }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext context, int minSplitCountHint)
+      throws IOException, InterruptedException {
+    Configuration conf = context.getConfiguration();
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    for (Path path : GiraphFileInputFormat.getEdgeInputPaths(context)) {
+      FileSystem fs = path.getFileSystem(conf);
+      FileStatus[] matches = fs.globStatus(path, VISIBLE_FILES);
+      if (matches == null) {
+        throw new IOException("Input path does not exist: " + path);
+      }
+      for (FileStatus match : matches) {
+        if (match.isDir()) {
+          for (FileStatus file : fs.listStatus(match.getPath(),
+              VISIBLE_FILES)) {
+            addBlockSplits(fs, file, splits);
+          }
+        } else {
+          addBlockSplits(fs, match, splits);
+        }
+      }
+    }
+    return splits;
+  }
+
+  /**
+   * Adds one split per block of a file. Splits are byte ranges, the reader
+   * aligns them to record boundaries.
+   *
+   * @param fs File system of the file
+   * @param file The file to split
+   * @param splits The list the splits are added to
+   * @throws IOException
+   */
+  private static void addBlockSplits(FileSystem fs, FileStatus file,
+      List<InputSplit> splits) throws IOException {
+    if (file.isDir()) {
+      return;
+    }
+    for (BlockLocation block :
+        fs.getFileBlockLocations(file, 0, file.getLen())) {
+      splits.add(new FileSplit(file.getPath(), block.getOffset(),
+          block.getLength(), block.getHosts()));
+    }
+  }
+
+  @Override
+  public EdgeReader<CfLongId, FloatWritable> createEdgeReader(
+      InputSplit split, TaskAttemptContext context) throws IOException {
+    return new CfLongIdFloatBinaryEdgeReader();
+  }
+
+  /**
+   * Writes the header of a binary ratings file into the provided buffer.
+   *
+   * @param buffer Buffer with at least {@link #HEADER_SIZE} bytes remaining
+   */
+  public static void writeHeader(ByteBuffer buffer) {
+    buffer.order(BYTE_ORDER);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(RECORD_SIZE);
+    buffer.putInt(0);
+  }
+
+  /**
+   * Returns the index of the first record that starts at or after the given
+   * byte offset of the file.
+   *
+   * @param offset Byte offset in the file
+   * @return Record index
+   */
+  static long firstRecordAtOrAfter(long offset) {
+    if (offset <= HEADER_SIZE) {
+      return 0;
+    }
+    return (offset - HEADER_SIZE + RECORD_SIZE - 1) / RECORD_SIZE;
+  }
+
+  /**
+   * {@link org.apache.giraph.io.EdgeReader} associated with
+   * {@link CfLongIdFloatBinaryInputFormat}.
+   *
+   * A reader owns all records that start inside its split, so every record
+   * is read by exactly one reader.
+   */
+  public class CfLongIdFloatBinaryEdgeReader extends
+      EdgeReader<CfLongId, FloatWritable> {
+    /** Stream of the file the split belongs to. */
+    private FSDataInputStream in;
+    /** Buffer holding a block of decoded records. */
+    private ByteBuffer buffer;
+    /** Index of the first record of this split. */
+    private long firstRecord;
+    /** Index of the record after the last record of this split. */
+    private long endRecord;
+    /** Index of the next record to be fetched from the stream. */
+    private long nextRecordToFetch;
+    /** Number of records consumed so far. */
+    private long recordsRead;
+    /** Source of the current edge. */
+    private CfLongId currentSource;
+    /** Current edge. */
+    private Edge<CfLongId, FloatWritable> currentEdge;
+
+    @Override
+    public void initialize(InputSplit inputSplit, TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      FileSplit split = (FileSplit) inputSplit;
+      Path path = split.getPath();
+      FileSystem fs = path.getFileSystem(context.getConfiguration());
+      long fileLength = fs.getFileStatus(path).getLen();
+      in = fs.open(path);
+
+      byte[] header = new byte[HEADER_SIZE];
+      in.readFully(0, header);
+      ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(BYTE_ORDER);
+      if (headerBuffer.getInt() != MAGIC) {
+        throw new IOException("Not a binary ratings file: " + path);
+      }
+      int version = headerBuffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported binary ratings version " +
+            version + " in " + path);
+      }
+      if (headerBuffer.getInt() != RECORD_SIZE) {
+        throw new IOException("Unexpected record size in " + path);
+      }
+
+      long totalRecords = (fileLength - HEADER_SIZE) / RECORD_SIZE;
+      firstRecord = Math.min(totalRecords,
+          firstRecordAtOrAfter(split.getStart()));
+      endRecord = Math.min(totalRecords,
+          firstRecordAtOrAfter(split.getStart() + split.getLength()));
+      nextRecordToFetch = firstRecord;
+      recordsRead = 0;
+
+      int blockRecords = context.getConfiguration().getInt(BLOCK_RECORDS,
+          BLOCK_RECORDS_DEFAULT);
+      buffer = ByteBuffer.allocate(blockRecords * RECORD_SIZE)
+          .order(BYTE_ORDER);
+      buffer.limit(0);
+      in.seek(HEADER_SIZE + firstRecord * RECORD_SIZE);
+    }
+
+    /**
+     * Reads the next block of records of this split into the buffer.
+     *
+     * @return False if the split has no more records
+     * @throws IOException
+     */
+    private boolean fillBuffer() throws IOException {
+      long remaining = endRecord - nextRecordToFetch;
+      if (remaining <= 0) {
+        return false;
+      }
+      int records = (int) Math.min(remaining,
+          buffer.capacity() / RECORD_SIZE);
+      int bytes = records * RECORD_SIZE;
+      in.readFully(buffer.array(), 0, bytes);
+      buffer.clear();
+      buffer.limit(bytes);
+      nextRecordToFetch += records;
+      return true;
+    }
+
+    @Override
+    public boolean nextEdge() throws IOException, InterruptedException {
+      if (!buffer.hasRemaining() && !fillBuffer()) {
+        return false;
+      }
+      // type 0 is user, type 1 is item
+      currentSource = new CfLongId((byte)0, buffer.getLong());
+      CfLongId target = new CfLongId((byte)1, buffer.getLong());
+      currentEdge = EdgeFactory.create(target,
+          new FloatWritable(buffer.getFloat()));
+      recordsRead++;
+      return true;
+    }
+
+    @Override
+    public CfLongId getCurrentSourceId()
+        throws IOException, InterruptedException {
+      return currentSource;
+    }
+
+    @Override
+    public Edge<CfLongId, FloatWritable> getCurrentEdge()
+        throws IOException, InterruptedException {
+      return currentEdge;
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+      long total = endRecord - firstRecord;
+      if (total <= 0) {
+        return 1f;
+      }
+      return Math.min(1f, recordsRead / (float) total);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+}
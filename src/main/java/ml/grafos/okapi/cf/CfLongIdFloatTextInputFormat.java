@@ -59,14 +59,14 @@ public class CfLongIdFloatTextInputFormat extends
     protected CfLongId getSourceVertexId(String[] tokens)
       throws IOException {
       // type 0 is user
-      return new CfLongId((byte)0, Integer.parseInt(tokens[0]));
+      return new CfLongId((byte)0, Long.parseLong(tokens[0]));
     }
 
     @Override
     protected CfLongId getTargetVertexId(String[] tokens)
       throws IOException {
       // type 1 is item
-      return new CfLongId((byte)1, Integer.parseInt(tokens[1]));
+      return new CfLongId((byte)1, Long.parseLong(tokens[1]));
     }
 
     @Override
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import java.io.File;
+import java.io.IOException;
+
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.VertexOutputFormat;
+import org.apache.giraph.io.VertexWriter;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Writes the user and item factors computed by the CF algorithms in a
+ * compact binary format, so that the model can be handed to a serving layer
+ * without re-parsing text. Each worker writes one model part; the parts can
+ * be served with {@link CfModelBinaryReader}.
+ *
+ * The parts are written to the output directory of the job, through a
+ * {@link FileOutputCommitter}, like the files of a Hadoop
+ * {@link FileOutputFormat}.
+ *
+ * Nodes that are neither users nor items are not written.
+ *
+ * @author dl
+ *
+ */
+public class CfModelBinaryOutputFormat extends
+    VertexOutputFormat<CfLongId, FloatMatrixWritable, FloatWritable> {
+  /** Extension of the model part files. */
+  public static final String EXTENSION = ".okm";
+
+  /** Committer of the output directory, created on first use. */
+  private FileOutputCommitter committer;
+
+  @Override
+  public VertexWriter<CfLongId, FloatMatrixWritable, FloatWritable>
+  createVertexWriter(TaskAttemptContext context)
+      throws IOException, InterruptedException {
+    return new CfModelBinaryVertexWriter();
+  }
+
+  @Override
+  public void checkOutputSpecs(JobContext context)
+      throws IOException, InterruptedException {
+    Path outputPath = FileOutputFormat.getOutputPath(context);
+    if (outputPath == null) {
+      throw new InvalidJobConfException("Output directory not set.");
+    }
+    if (outputPath.getFileSystem(context.getConfiguration())
+        .exists(outputPath)) {
+      throw new FileAlreadyExistsException("Output directory " + outputPath +
+          " already exists");
+    }
+  }
+
+  @Override
+  public OutputCommitter getOutputCommitter(TaskAttemptContext context)
+      throws IOException, InterruptedException {
+    if (committer == null) {
+      committer = new FileOutputCommitter(
+          FileOutputFormat.getOutputPath(context), context);
+    }
+    return committer;
+  }
+
+  /**
+   * {@link VertexWriter} associated with {@link CfModelBinaryOutputFormat}.
+   */
+  protected class CfModelBinaryVertexWriter extends
+      VertexWriter<CfLongId, FloatMatrixWritable, FloatWritable> {
+    /** Writer of the model part of this worker. */
+    private CfModelBinaryWriter writer;
+
+    @Override
+    public void initialize(TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      FileOutputCommitter fileCommitter =
+          (FileOutputCommitter) getOutputCommitter(context);
+      Path path = new Path(fileCommitter.getWorkPath(),
+          FileOutputFormat.getUniqueFile(context, "part", EXTENSION));
+      File itemSpill = File.createTempFile("okapi-model-items", ".spill");
+      itemSpill.deleteOnExit();
+      writer = new CfModelBinaryWriter(
+          path.getFileSystem(context.getConfiguration()).create(path, false),
+          itemSpill);
+    }
+
+    @Override
+    public void writeVertex(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex)
+        throws IOException, InterruptedException {
+      if (vertex.getValue() == null || vertex.getValue().length == 0) {
+        return;
+      }
+      writer.write(vertex.getId(), vertex.getValue());
+    }
+
+    @Override
+    public void close(TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,443 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Serves a CF model written by {@link CfModelBinaryOutputFormat} directly
+ * from memory-mapped files. Factor vectors are never deserialized into
+ * objects; lookups binary-search the id index and dot products are computed
+ * on the mapped data, so the model stays off-heap.
+ *
+ * Every Giraph worker writes one part of the model, so a reader is usually
+ * opened over all the parts of an output directory. A part has the following
+ * layout, all in little-endian byte order:
+ *
+ * header:  <magic (int)> <version (int)>
+ * factors: <user factors (numUsers x dim floats)>
+ *          <item factors (numItems x dim floats)>
+ * index:   <user id of each user row (numUsers longs)>
+ *          <user rows sorted by id (numUsers ints)>
+ *          <item id of each item row (numItems longs)>
+ *          <item rows sorted by id (numItems ints)>
+ * trailer: <dim (int)> <magic (int)> <numUsers (long)> <numItems (long)>
+ *
+ * This class depends only on the JDK so that it can be shipped to the
+ * serving layer on its own.
+ *
+ * @author dl
+ *
+ */
+public class CfModelBinaryReader implements Closeable {
+  /** Magic number identifying a binary model part ("OKCM"). */
+  public static final int MAGIC = 0x4d434b4f;
+  /** Version of the binary layout. */
+  public static final int VERSION = 1;
+  /** Size of the header in bytes. */
+  public static final int HEADER_SIZE = 8;
+  /** Size of the trailer in bytes. */
+  public static final int TRAILER_SIZE = 24;
+  /** Byte order of all the values in a model part. */
+  public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  /** Parts of the model. */
+  private final Part[] parts;
+  /** Dimension of the latent vectors. */
+  private final int dim;
+
+  /**
+   * Opens and maps the given model parts.
+   *
+   * @param files The parts of the model
+   * @throws IOException
+   */
+  public CfModelBinaryReader(File... files) throws IOException {
+    parts = new Part[files.length];
+    int dimension = 0;
+    try {
+      for (int i = 0; i < files.length; i++) {
+        parts[i] = new Part(files[i]);
+        if (parts[i].numUsers + parts[i].numItems == 0) {
+          continue;
+        }
+        if (dimension == 0) {
+          dimension = parts[i].dim;
+        } else if (dimension != parts[i].dim) {
+          throw new IOException("Latent vector size of " + files[i] +
+              " does not match the other parts");
+        }
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    dim = dimension;
+  }
+
+  /**
+   * Returns the dimension of the latent vectors.
+   *
+   * @return The dimension
+   */
+  public int getDimension() {
+    return dim;
+  }
+
+  /**
+   * Returns the number of users in the model.
+   *
+   * @return Number of users
+   */
+  public long getNumUsers() {
+    long num = 0;
+    for (Part part : parts) {
+      num += part.numUsers;
+    }
+    return num;
+  }
+
+  /**
+   * Returns the number of items in the model.
+   *
+   * @return Number of items
+   */
+  public long getNumItems() {
+    long num = 0;
+    for (Part part : parts) {
+      num += part.numItems;
+    }
+    return num;
+  }
+
+  /**
+   * Copies the latent vector of a user into the provided array.
+   *
+   * @param userId Id of the user
+   * @param dest Array of at least {@link #getDimension()} elements
+   * @return False if the user is not part of the model
+   */
+  public boolean getUserFactors(long userId, float[] dest) {
+    for (Part part : parts) {
+      long row = part.users.find(userId);
+      if (row >= 0) {
+        part.users.copyRow(row, dest);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Copies the latent vector of an item into the provided array.
+   *
+   * @param itemId Id of the item
+   * @param dest Array of at least {@link #getDimension()} elements
+   * @return False if the item is not part of the model
+   */
+  public boolean getItemFactors(long itemId, float[] dest) {
+    for (Part part : parts) {
+      long row = part.items.find(itemId);
+      if (row >= 0) {
+        part.items.copyRow(row, dest);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Computes the predicted score of an item for a user, that is, the dot
+   * product of their latent vectors.
+   *
+   * @param userId Id of the user
+   * @param itemId Id of the item
+   * @return The score, or NaN if the user or the item are not in the model
+   */
+  public float score(long userId, long itemId) {
+    float[] user = new float[dim];
+    if (!getUserFactors(userId, user)) {
+      return Float.NaN;
+    }
+    for (Part part : parts) {
+      long row = part.items.find(itemId);
+      if (row >= 0) {
+        return part.items.dot(row, user);
+      }
+    }
+    return Float.NaN;
+  }
+
+  /**
+   * Finds the items with the highest score for a user. The results are
+   * written in the provided arrays in descending order of score.
+   *
+   * @param userId Id of the user
+   * @param k Maximum number of items to return
+   * @param itemIds Array of at least k elements receiving the item ids
+   * @param scores Array of at least k elements receiving the scores
+   * @return Number of items returned, -1 if the user is not in the model
+   */
+  public int topItems(long userId, int k, long[] itemIds, float[] scores) {
+    float[] user = new float[dim];
+    if (!getUserFactors(userId, user)) {
+      return -1;
+    }
+    // Min-heap on the scores, so that the root is the worst of the top-k
+    int size = 0;
+    for (Part part : parts) {
+      for (long row = 0; row < part.numItems; row++) {
+        float score = part.items.dot(row, user);
+        if (size < k) {
+          itemIds[size] = part.items.idOfRow(row);
+          scores[size] = score;
+          siftUp(itemIds, scores, size);
+          size++;
+        } else if (k > 0 && score > scores[0]) {
+          itemIds[0] = part.items.idOfRow(row);
+          scores[0] = score;
+          siftDown(itemIds, scores, 0, size);
+        }
+      }
+    }
+    // Heap-sort in place; popping the minimum to the end leaves the arrays
+    // in descending order
+    for (int end = size - 1; end > 0; end--) {
+      swap(itemIds, scores, 0, end);
+      siftDown(itemIds, scores, 0, end);
+    }
+    return size;
+  }
+
+  private static void siftUp(long[] ids, float[] scores, int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (scores[parent] <= scores[i]) {
+        return;
+      }
+      swap(ids, scores, i, parent);
+      i = parent;
+    }
+  }
+
+  private static void siftDown(long[] ids, float[] scores, int i, int size) {
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && scores[left] < scores[smallest]) {
+        smallest = left;
+      }
+      if (right < size && scores[right] < scores[smallest]) {
+        smallest = right;
+      }
+      if (smallest == i) {
+        return;
+      }
+      swap(ids, scores, i, smallest);
+      i = smallest;
+    }
+  }
+
+  private static void swap(long[] ids, float[] scores, int i, int j) {
+    long id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+    float score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Part part : parts) {
+      if (part != null) {
+        part.file.close();
+      }
+    }
+  }
+
+  /**
+   * A single mapped model part.
+   */
+  private static class Part {
+    private final RandomAccessFile file;
+    private final int dim;
+    private final long numUsers;
+    private final long numItems;
+    private final Table users;
+    private final Table items;
+
+    Part(File path) throws IOException {
+      file = new RandomAccessFile(path, "r");
+      try {
+        FileChannel channel = file.getChannel();
+        long length = channel.size();
+        if (length < HEADER_SIZE + TRAILER_SIZE) {
+          throw new IOException("Not a binary model file: " + path);
+        }
+        ByteBuffer header = map(channel, 0, HEADER_SIZE);
+        ByteBuffer trailer = map(channel, length - TRAILER_SIZE,
+            TRAILER_SIZE);
+        if (header.getInt(0) != MAGIC || trailer.getInt(4) != MAGIC) {
+          throw new IOException("Not a binary model file: " + path);
+        }
+        if (header.getInt(4) != VERSION) {
+          throw new IOException("Unsupported binary model version " +
+              header.getInt(4) + " in " + path);
+        }
+        dim = trailer.getInt(0);
+        numUsers = trailer.getLong(8);
+        numItems = trailer.getLong(16);
+
+        long rowSize = 4L * dim;
+        long offset = HEADER_SIZE;
+        Region userFactors = new Region(channel, offset, numUsers, rowSize);
+        offset += numUsers * rowSize;
+        Region itemFactors = new Region(channel, offset, numItems, rowSize);
+        offset += numItems * rowSize;
+        Region userIds = new Region(channel, offset, numUsers, 8);
+        offset += numUsers * 8;
+        Region userRows = new Region(channel, offset, numUsers, 4);
+        offset += numUsers * 4;
+        Region itemIds = new Region(channel, offset, numItems, 8);
+        offset += numItems * 8;
+        Region itemRows = new Region(channel, offset, numItems, 4);
+        offset += numItems * 4;
+        if (offset + TRAILER_SIZE != length) {
+          throw new IOException("Corrupted binary model file: " + path);
+        }
+        users = new Table(dim, numUsers, userFactors, userIds, userRows);
+        items = new Table(dim, numItems, itemFactors, itemIds, itemRows);
+      } catch (IOException e) {
+        file.close();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * The factors of one node type in a part, along with their id index.
+   */
+  private static class Table {
+    private final int dim;
+    private final long size;
+    private final Region factors;
+    private final Region ids;
+    private final Region sortedRows;
+
+    Table(int dim, long size, Region factors, Region ids, Region sortedRows) {
+      this.dim = dim;
+      this.size = size;
+      this.factors = factors;
+      this.ids = ids;
+      this.sortedRows = sortedRows;
+    }
+
+    long idOfRow(long row) {
+      return ids.buffer(row).getLong(ids.position(row));
+    }
+
+    /**
+     * Binary search over the rows sorted by id.
+     *
+     * @return The row of the id, or -1 if not found
+     */
+    long find(long id) {
+      long low = 0;
+      long high = size - 1;
+      while (low <= high) {
+        long mid = (low + high) >>> 1;
+        long row = sortedRows.buffer(mid).getInt(sortedRows.position(mid));
+        long midId = idOfRow(row);
+        if (midId < id) {
+          low = mid + 1;
+        } else if (midId > id) {
+          high = mid - 1;
+        } else {
+          return row;
+        }
+      }
+      return -1;
+    }
+
+    void copyRow(long row, float[] dest) {
+      ByteBuffer buffer = factors.buffer(row);
+      int position = factors.position(row);
+      for (int i = 0; i < dim; i++) {
+        dest[i] = buffer.getFloat(position + 4 * i);
+      }
+    }
+
+    float dot(long row, float[] vector) {
+      ByteBuffer buffer = factors.buffer(row);
+      int position = factors.position(row);
+      float sum = 0f;
+      for (int i = 0; i < dim; i++) {
+        sum += buffer.getFloat(position + 4 * i) * vector[i];
+      }
+      return sum;
+    }
+  }
+
+  /**
+   * A region of fixed-size elements mapped in chunks, since a single
+   * mapping cannot exceed 2GB. Elements never straddle two chunks.
+   */
+  private static class Region {
+    private final MappedByteBuffer[] chunks;
+    private final long elementsPerChunk;
+    private final long elementSize;
+
+    Region(FileChannel channel, long offset, long count, long elementSize)
+        throws IOException {
+      this.elementSize = Math.max(1, elementSize);
+      elementsPerChunk = Math.max(1, Integer.MAX_VALUE / this.elementSize);
+      int numChunks = (int) ((count + elementsPerChunk - 1) /
+          elementsPerChunk);
+      chunks = new MappedByteBuffer[numChunks];
+      for (int i = 0; i < numChunks; i++) {
+        long first = i * elementsPerChunk;
+        long elements = Math.min(elementsPerChunk, count - first);
+        chunks[i] = map(channel, offset + first * this.elementSize,
+            elements * this.elementSize);
+      }
+    }
+
+    ByteBuffer buffer(long element) {
+      return chunks[(int) (element / elementsPerChunk)];
+    }
+
+    int position(long element) {
+      return (int) ((element % elementsPerChunk) * elementSize);
+    }
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long offset,
+      long size) throws IOException {
+    MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    buffer.order(BYTE_ORDER);
+    return buffer;
+  }
+}
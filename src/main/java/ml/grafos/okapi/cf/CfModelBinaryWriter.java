@@ -0,0 +1,188 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.jblas.FloatMatrix;
+
+/**
+ * Writes one part of a CF model in the binary layout described in
+ * {@link CfModelBinaryReader}.
+ *
+ * User factors are streamed straight to the output, while item factors are
+ * spilled to a local file and appended when the writer is closed, so that
+ * each factor table ends up contiguous. Only the ids are kept in memory to
+ * build the index.
+ *
+ * @author dl
+ *
+ */
+public class CfModelBinaryWriter {
+  /** Size of the buffer used for encoding and copying. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Output of the model part. */
+  private final OutputStream out;
+  /** Local file holding the item factors until the writer is closed. */
+  private final File itemSpill;
+  /** Output to the item spill file. */
+  private final OutputStream itemOut;
+  /** Ids of the user rows, in row order. */
+  private final LongArrayList userIds = new LongArrayList();
+  /** Ids of the item rows, in row order. */
+  private final LongArrayList itemIds = new LongArrayList();
+  /** Buffer used to encode values in little-endian order. */
+  private final ByteBuffer buffer;
+  /** Dimension of the latent vectors, -1 until the first row is written. */
+  private int dim = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param out Output of the model part, closed along with the writer
+   * @param itemSpill Local file used to hold the item factors temporarily
+   * @throws IOException
+   */
+  public CfModelBinaryWriter(OutputStream out, File itemSpill)
+      throws IOException {
+    this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+    this.itemSpill = itemSpill;
+    this.itemOut = new BufferedOutputStream(
+        new FileOutputStream(itemSpill), BUFFER_SIZE);
+    buffer = ByteBuffer.allocate(BUFFER_SIZE)
+        .order(CfModelBinaryReader.BYTE_ORDER);
+    buffer.putInt(CfModelBinaryReader.MAGIC);
+    buffer.putInt(CfModelBinaryReader.VERSION);
+    flush(this.out);
+  }
+
+  /**
+   * Appends the latent vector of a user or item. Nodes of other types are
+   * ignored.
+   *
+   * @param id Id of the node
+   * @param factors Latent vector of the node
+   * @throws IOException
+   */
+  public void write(CfLongId id, FloatMatrix factors) throws IOException {
+    if (!id.isUser() && !id.isItem()) {
+      return;
+    }
+    if (dim < 0) {
+      dim = factors.length;
+    } else if (factors.length != dim) {
+      throw new RuntimeException("Latent vector size is incorrect");
+    }
+    if (4 * dim > buffer.capacity()) {
+      throw new RuntimeException("Latent vector too large: " + dim);
+    }
+    for (int i = 0; i < dim; i++) {
+      buffer.putFloat(factors.data[i]);
+    }
+    if (id.isUser()) {
+      userIds.add(id.getId());
+      flush(out);
+    } else {
+      itemIds.add(id.getId());
+      flush(itemOut);
+    }
+  }
+
+  /**
+   * Appends the item factors, the index and the trailer, and closes the
+   * output.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    try {
+      itemOut.close();
+      InputStream in = new BufferedInputStream(new FileInputStream(itemSpill),
+          BUFFER_SIZE);
+      try {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(bytes)) > 0) {
+          out.write(bytes, 0, read);
+        }
+      } finally {
+        in.close();
+      }
+
+      writeIndex(userIds);
+      writeIndex(itemIds);
+
+      buffer.putInt(Math.max(dim, 0));
+      buffer.putInt(CfModelBinaryReader.MAGIC);
+      buffer.putLong(userIds.size());
+      buffer.putLong(itemIds.size());
+      flush(out);
+    } finally {
+      out.close();
+      itemSpill.delete();
+    }
+  }
+
+  /**
+   * Writes the ids of the rows in row order, followed by the rows sorted
+   * by id.
+   */
+  private void writeIndex(LongArrayList ids) throws IOException {
+    final long[] rowIds = ids.elements();
+    int size = ids.size();
+    for (int i = 0; i < size; i++) {
+      if (buffer.remaining() < 8) {
+        flush(out);
+      }
+      buffer.putLong(rowIds[i]);
+    }
+    int[] sortedRows = new int[size];
+    for (int i = 0; i < size; i++) {
+      sortedRows[i] = i;
+    }
+    IntArrays.quickSort(sortedRows, 0, size, new AbstractIntComparator() {
+      @Override
+      public int compare(int a, int b) {
+        return rowIds[a] < rowIds[b] ? -1 : (rowIds[a] > rowIds[b] ? 1 : 0);
+      }
+    });
+    for (int i = 0; i < size; i++) {
+      if (buffer.remaining() < 4) {
+        flush(out);
+      }
+      buffer.putInt(sortedRows[i]);
+    }
+    flush(out);
+  }
+
+  private void flush(OutputStream stream) throws IOException {
+    stream.write(buffer.array(), 0, buffer.position());
+    buffer.clear();
+  }
+}
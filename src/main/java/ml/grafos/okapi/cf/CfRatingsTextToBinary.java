@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Converts ratings from the text format read by
+ * {@link CfLongIdFloatTextInputFormat} into the binary format read by
+ * {@link CfLongIdFloatBinaryInputFormat}.
+ *
+ * Usage: CfRatingsTextToBinary <text input path> <binary output path>
+ *
+ * Both paths are resolved through the Hadoop file system, so they can point
+ * to HDFS as well as to the local file system.
+ *
+ * @author dl
+ *
+ */
+public class CfRatingsTextToBinary {
+  /** Splitter for endpoints */
+  private static final Pattern SEPARATOR = Pattern.compile("[\t ]");
+  /** Number of records buffered before writing them out. */
+  private static final int BLOCK_RECORDS = 64 * 1024;
+
+  /**
+   * Converts a text ratings file into a binary ratings file.
+   *
+   * @param conf Hadoop configuration used to resolve the file systems
+   * @param input Path of the text input
+   * @param output Path of the binary output
+   * @return Number of ratings written
+   * @throws IOException
+   */
+  public static long convert(Configuration conf, Path input, Path output)
+      throws IOException {
+    FileSystem inFs = input.getFileSystem(conf);
+    FileSystem outFs = output.getFileSystem(conf);
+
+    ByteBuffer buffer = ByteBuffer.allocate(Math.max(
+        CfLongIdFloatBinaryInputFormat.HEADER_SIZE,
+        BLOCK_RECORDS * CfLongIdFloatBinaryInputFormat.RECORD_SIZE));
+    buffer.order(CfLongIdFloatBinaryInputFormat.BYTE_ORDER);
+
+    long records = 0;
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(inFs.open(input), "UTF-8"));
+    OutputStream out = outFs.create(output, true);
+    try {
+      CfLongIdFloatBinaryInputFormat.writeHeader(buffer);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] tokens = SEPARATOR.split(line);
+        if (buffer.remaining() < CfLongIdFloatBinaryInputFormat.RECORD_SIZE) {
+          out.write(buffer.array(), 0, buffer.position());
+          buffer.clear();
+        }
+        buffer.putLong(Long.parseLong(tokens[0]));
+        buffer.putLong(Long.parseLong(tokens[1]));
+        buffer.putFloat(Float.parseFloat(tokens[2]));
+        records++;
+      }
+      out.write(buffer.array(), 0, buffer.position());
+    } finally {
+      reader.close();
+      out.close();
+    }
+    return records;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: " + CfRatingsTextToBinary.class.getName() +
+          " <text input path> <binary output path>");
+      System.exit(1);
+    }
+    long records = convert(new Configuration(), new Path(args[0]),
+        new Path(args[1]));
+    System.out.println("Converted " + records + " ratings");
+  }
+}
@@ -16,8 +16,8 @@
 package ml.grafos.okapi.cf.als;
 
 import java.io.IOException;
-import java.util.Random;
 
+import ml.grafos.okapi.cf.CfFactors;
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
 import ml.grafos.okapi.common.Parameters;
@@ -137,7 +137,7 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
     vertex.voteToHalt();
   } 
 
-  protected void updateValue(FloatMatrix value, FloatMatrix mat_M, 
+  public static void updateValue(FloatMatrix value, FloatMatrix mat_M, 
       FloatMatrix mat_R, final float lambda) {
     
     FloatMatrix mat_V = mat_M.mmul(mat_R);
@@ -163,14 +163,8 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
     public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
-      FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
-      for (int i=0; i<vector.length; i++) {
-        vector.put(i, 0.01f*randGen.nextFloat());
-      }
-      vertex.setValue(vector);
+      CfFactors.initFactorsIfNeeded(vertex, getContext().getConfiguration()
+          .getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
       
       for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
         FloatMatrixMessage msg = new FloatMatrixMessage(
@@ -196,14 +190,8 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
     public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
-      FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
-      for (int i=0; i<vector.length; i++) {
-        vector.put(i, 0.01f*randGen.nextFloat());
-      }
-      vertex.setValue(vector);
+      CfFactors.initFactorsIfNeeded(vertex, getContext().getConfiguration()
+          .getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
       
       for (FloatMatrixMessage msg : messages) {
         DefaultEdge<CfLongId, FloatWritable> edge = 
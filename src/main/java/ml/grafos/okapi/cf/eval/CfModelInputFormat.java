@@ -40,6 +40,10 @@ import org.jblas.FloatMatrix;
  *
  * This can be obtained by running runOkapi.py.
  * 
+ * The same format is used to warm-start the CF algorithms from the model of
+ * a previous run, by using this class as the vertex input format along with
+ * the ratings as the edge input.
+ * 
  * @author linas
  *
  */
@@ -62,35 +66,54 @@ public class CfModelInputFormat extends TextVertexValueInputFormat<CfLongId, Flo
 
 		@Override
 		protected CfLongId getId(String[] line) throws IOException {
-			 String id = line[0];
-            String[] id_type = id.split(" ");
-			return new CfLongId((byte)Integer.parseInt(id_type[1]), Long.parseLong(id_type[0]));
+			return parseId(line[0]);
 		}
 
 		@Override
 		protected FloatMatrixWritable getValue(String[] line)
 				throws IOException {
 			if (line.length > 1){//for users and items
-				String[] factors = line[1].split("\\[|\\]|,|;");
-				ArrayList<Float> factorsFloat = new ArrayList<Float>();
-				for(int i=0; i<factors.length; i++){
-					if (!factors[i].trim().isEmpty())
-						factorsFloat.add(Float.parseFloat(factors[i]));
-				}
-				FloatMatrix array = new FloatMatrix(factorsFloat);
-				
-				// If you specify the dimension of the latent vector, we will
-				// do a check to ensure the computed model has the right dimension
-				if ((getConf().getInt(DIMENSION, -1))!=-1) {
-				  if (array.length!=getConf().getInt(DIMENSION, -1)) {
-				    throw new RuntimeException("Latent vector size is incorrect");
-				  }
-				}
-
-				return new FloatMatrixWritable(array);
+				return parseFactors(line[1], getConf().getInt(DIMENSION, -1));
 			}else{//for null node
 				return new FloatMatrixWritable(0);
 			}
 		}
 	}
+
+	/**
+	 * Parses a node id of the form "<id> <type>".
+	 * 
+	 * @param id The id as written in the model
+	 * @return The parsed id
+	 */
+	public static CfLongId parseId(String id) {
+		String[] id_type = id.split(" ");
+		return new CfLongId((byte)Integer.parseInt(id_type[1]), Long.parseLong(id_type[0]));
+	}
+
+	/**
+	 * Parses a latent vector of the form "[0.883140; 0.126675]".
+	 * 
+	 * @param vector The vector as written in the model
+	 * @param dimension The expected dimension of the vector, or -1 to skip
+	 *        the check
+	 * @return The parsed vector as a column vector
+	 */
+	public static FloatMatrixWritable parseFactors(String vector, int dimension) {
+		String[] factors = vector.split("\\[|\\]|,|;");
+		ArrayList<Float> factorsFloat = new ArrayList<Float>();
+		for(int i=0; i<factors.length; i++){
+			if (!factors[i].trim().isEmpty())
+				factorsFloat.add(Float.parseFloat(factors[i]));
+		}
+		FloatMatrix array = new FloatMatrix(factorsFloat);
+		
+		// If you specify the dimension of the latent vector, we will
+		// do a check to ensure the computed model has the right dimension
+		if (dimension!=-1 && array.length!=dimension) {
+			throw new RuntimeException("Latent vector size is incorrect");
+		}
+
+		return new FloatMatrixWritable(array);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,355 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf.foldin;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+import ml.grafos.okapi.cf.CfFactors;
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.cf.als.Als;
+import ml.grafos.okapi.cf.sgd.Sgd;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.Algorithm;
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.edge.DefaultEdge;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.TextVertexOutputFormat;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.jblas.FloatMatrix;
+
+/**
+ * Folds new ratings into an existing model without retraining it. The
+ * factors of one side of the model (by default the items) are kept frozen,
+ * and only the users (or items) that appear in the new ratings are solved
+ * for, either with one ALS least-squares step or with a few SGD steps.
+ *
+ * The existing model is loaded as vertex values with
+ * {@link ml.grafos.okapi.cf.eval.CfModelInputFormat} and the new ratings are
+ * the edge input, e.g. with
+ * {@link ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat}. The ALS step solves
+ * the least-squares problem over the ratings of the input only, so for an
+ * existing vertex the input should hold its full rating history. The SGD
+ * steps start from the current factors of the vertex, if it has any, and
+ * only visit the new ratings.
+ *
+ * Use {@link FoldInOutputFormat} to write only the updated factors, in the
+ * same format as the model.
+ *
+ * @author dl
+ *
+ */
+@Algorithm(
+    name = "CF fold-in",
+    description = "Updates the factors of users or items with new ratings "
+        + "against a frozen model")
+public class FoldIn {
+  /** Keyword for the side of the model that is updated, user or item. */
+  public static final String SIDE = "foldin.side";
+  /** Default side of the model that is updated. */
+  public static final String SIDE_DEFAULT = "user";
+  /** Keyword for the method used to solve for the factors, als or sgd. */
+  public static final String METHOD = "foldin.method";
+  /** Default method used to solve for the factors. */
+  public static final String METHOD_DEFAULT = "als";
+  /** Keyword for the number of passes over the ratings with SGD. */
+  public static final String SGD_STEPS = "foldin.sgd.steps";
+  /** Default number of passes over the ratings with SGD. */
+  public static final int SGD_STEPS_DEFAULT = 5;
+
+  /** Aggregator for the squared error of the updated factors. */
+  public static final String SQUARED_ERROR_AGGREGATOR =
+      "foldin.squared.error.aggregator";
+  /** Aggregator for the number of ratings folded in. */
+  public static final String RATINGS_AGGREGATOR = "foldin.ratings.aggregator";
+  /** Aggregator for the number of vertices updated. */
+  public static final String UPDATED_AGGREGATOR = "foldin.updated.aggregator";
+
+  private static final String COUNTER_GROUP = "Fold-in Counters";
+  private static final String RMSE_COUNTER = "RMSE (x1000)";
+  private static final String NUM_RATINGS_COUNTER = "# ratings";
+  private static final String UPDATED_COUNTER = "# updated vertices";
+
+  private static final FloatMatrixWritable emptyList =
+      new FloatMatrixWritable(0);
+
+  /**
+   * Returns true if the users are updated against frozen items, false if the
+   * items are updated against frozen users.
+   */
+  private static boolean foldInUsers(Configuration conf) {
+    String side = conf.get(SIDE, SIDE_DEFAULT).trim().toLowerCase();
+    if (side.equals("user")) {
+      return true;
+    } else if (side.equals("item")) {
+      return false;
+    }
+    throw new IllegalArgumentException("Unknown fold-in side: " + side);
+  }
+
+  /**
+   * Users with new ratings start the computation. When users are updated,
+   * they ask the rated items for their frozen factors; the rating travels
+   * in the score of the message and is sent back with the factors. When
+   * items are updated, users send their frozen factors along with the
+   * rating right away.
+   *
+   * The users drop their new ratings once they are sent. Every vertex that is
+   * solved for gets back as edges the ratings it was solved with, so only the
+   * updated vertices have edges at the end of the computation.
+   */
+  public static class SendRatingsComputation extends BasicComputation<CfLongId,
+  FloatMatrixWritable, FloatWritable, FloatMatrixMessage> {
+
+    @Override
+    public void compute(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+        Iterable<FloatMatrixMessage> messages) throws IOException {
+      if (vertex.getId().isUser() && vertex.getNumEdges() > 0) {
+        boolean users = foldInUsers(getConf());
+        if (users || vertex.getValue().length > 0) {
+          FloatMatrixWritable factors = users ? emptyList : vertex.getValue();
+          for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+            sendMessage(edge.getTargetVertexId(), new FloatMatrixMessage(
+                vertex.getId(), factors, edge.getValue().get()));
+          }
+        }
+        vertex.setEdges(
+            Collections.<Edge<CfLongId, FloatWritable>>emptyList());
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Items answer the requests of the users with their frozen factors. Items
+   * that are not part of the model do not answer, so their ratings are not
+   * folded in.
+   */
+  public static class SendFactorsComputation extends BasicComputation<CfLongId,
+  FloatMatrixWritable, FloatWritable, FloatMatrixMessage> {
+
+    @Override
+    public void compute(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+        Iterable<FloatMatrixMessage> messages) throws IOException {
+      if (vertex.getValue().length > 0) {
+        for (FloatMatrixMessage msg : messages) {
+          sendMessage(msg.getSenderId(), new FloatMatrixMessage(
+              vertex.getId(), vertex.getValue(), msg.getScore()));
+        }
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Solves for the factors of every vertex that received frozen factors,
+   * using the ratings carried in the scores of the messages.
+   */
+  public static class SolveComputation extends BasicComputation<CfLongId,
+  FloatMatrixWritable, FloatWritable, FloatMatrixMessage> {
+    private boolean als;
+    private int vectorSize;
+    private float lambda;
+    private float gamma;
+    private float minRating;
+    private float maxRating;
+    private int sgdSteps;
+
+    @Override
+    public void preSuperstep() {
+      String method = getConf().get(METHOD, METHOD_DEFAULT).trim()
+          .toLowerCase();
+      if (method.equals("als")) {
+        als = true;
+      } else if (method.equals("sgd")) {
+        als = false;
+      } else {
+        throw new IllegalArgumentException("Unknown fold-in method: " + method);
+      }
+      vectorSize = getConf().getInt(Als.VECTOR_SIZE, Als.VECTOR_SIZE_DEFAULT);
+      lambda = getConf().getFloat(Als.LAMBDA, Als.LAMBDA_DEFAULT);
+      gamma = getConf().getFloat(Sgd.GAMMA, Sgd.GAMMA_DEFAULT);
+      minRating = getConf().getFloat(Sgd.MIN_RATING, Sgd.MIN_RATING_DEFAULT);
+      maxRating = getConf().getFloat(Sgd.MAX_RATING, Sgd.MAX_RATING_DEFAULT);
+      sgdSteps = getConf().getInt(SGD_STEPS, SGD_STEPS_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+        Iterable<FloatMatrixMessage> messages) throws IOException {
+
+      int numRatings = 0;
+      for (FloatMatrixMessage msg : messages) {
+        if (msg.getFactors().length != vectorSize) {
+          throw new RuntimeException("Latent vector size is incorrect");
+        }
+        numRatings++;
+      }
+      if (numRatings == 0) {
+        vertex.voteToHalt();
+        return;
+      }
+
+      // Build the matrices of the frozen factors and the ratings
+      FloatMatrix mat_M = new FloatMatrix(vectorSize, numRatings);
+      FloatMatrix mat_R = new FloatMatrix(numRatings, 1);
+      int i = 0;
+      for (FloatMatrixMessage msg : messages) {
+        mat_M.putColumn(i, msg.getFactors());
+        mat_R.put(i, 0, msg.getScore());
+        // Keep the rating so that the vertex is marked as updated
+        DefaultEdge<CfLongId, FloatWritable> edge =
+            new DefaultEdge<CfLongId, FloatWritable>();
+        edge.setTargetVertexId(msg.getSenderId());
+        edge.setValue(new FloatWritable(msg.getScore()));
+        vertex.addEdge(edge);
+        i++;
+      }
+
+      FloatMatrixWritable value = vertex.getValue();
+      if (als || value.length != vectorSize) {
+        value = new FloatMatrixWritable(vectorSize);
+        if (!als) {
+          CfFactors.randomize(value, new Random());
+        }
+      }
+
+      if (als) {
+        Als.updateValue(value, mat_M, mat_R, lambda);
+      } else {
+        for (int step=0; step<sgdSteps; step++) {
+          for (int j=0; j<numRatings; j++) {
+            Sgd.updateValue(value, mat_M.getColumn(j), mat_R.get(j, 0),
+                minRating, maxRating, lambda, gamma);
+          }
+        }
+      }
+      vertex.setValue(value);
+
+      double squaredError = 0d;
+      for (int j=0; j<numRatings; j++) {
+        float predicted = value.dot(mat_M.getColumn(j));
+        predicted = Math.min(predicted, maxRating);
+        predicted = Math.max(predicted, minRating);
+        float error = predicted - mat_R.get(j, 0);
+        squaredError += error*error;
+      }
+      aggregate(SQUARED_ERROR_AGGREGATOR, new DoubleWritable(squaredError));
+      aggregate(RATINGS_AGGREGATOR, new LongWritable(numRatings));
+      aggregate(UPDATED_AGGREGATOR, new LongWritable(1));
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Writes the factors of the updated vertices only, in the format read by
+   * {@link ml.grafos.okapi.cf.eval.CfModelInputFormat}. A vertex is updated
+   * if it belongs to the side that is folded in and kept some of its ratings,
+   * which it only does once it is solved for. Vertices of the model whose new
+   * ratings all point at vertices outside the model are not written.
+   */
+  public static class FoldInOutputFormat extends
+  TextVertexOutputFormat<CfLongId, FloatMatrixWritable, FloatWritable> {
+
+    @Override
+    public TextVertexWriter createVertexWriter(TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      return new FoldInVertexWriter();
+    }
+
+    protected class FoldInVertexWriter extends TextVertexWriterToEachLine {
+      private boolean users;
+
+      @Override
+      public void initialize(TaskAttemptContext context) throws IOException,
+          InterruptedException {
+        super.initialize(context);
+        users = foldInUsers(getConf());
+      }
+
+      @Override
+      protected Text convertVertexToLine(
+          Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex)
+          throws IOException {
+        boolean folded = users ? vertex.getId().isUser() :
+          vertex.getId().isItem();
+        if (!folded || vertex.getNumEdges() == 0 ||
+            vertex.getValue().length == 0) {
+          return null;
+        }
+        return new Text(vertex.getId().toString() + "\t" +
+            vertex.getValue().toString());
+      }
+    }
+  }
+
+  /**
+   * Coordinates the execution of the algorithm.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+    private long solveSuperstep;
+
+    @Override
+    public final void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregator(SQUARED_ERROR_AGGREGATOR, DoubleSumAggregator.class);
+      registerAggregator(RATINGS_AGGREGATOR, LongSumAggregator.class);
+      registerAggregator(UPDATED_AGGREGATOR, LongSumAggregator.class);
+      solveSuperstep = foldInUsers(getContext().getConfiguration()) ? 2 : 1;
+    }
+
+    @Override
+    public final void compute() {
+      long superstep = getSuperstep();
+      if (superstep == 0) {
+        setComputation(SendRatingsComputation.class);
+      } else if (superstep < solveSuperstep) {
+        setComputation(SendFactorsComputation.class);
+      } else if (superstep == solveSuperstep) {
+        setComputation(SolveComputation.class);
+      } else {
+        long numRatings =
+            ((LongWritable)getAggregatedValue(RATINGS_AGGREGATOR)).get();
+        double squaredError =
+            ((DoubleWritable)getAggregatedValue(SQUARED_ERROR_AGGREGATOR)).get();
+        double rmse = numRatings > 0 ? Math.sqrt(squaredError/numRatings) : 0;
+        Counters.updateCounter(getContext(),
+            COUNTER_GROUP, RMSE_COUNTER, (long)(1000*rmse));
+        Counters.updateCounter(getContext(),
+            COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
+        Counters.updateCounter(getContext(), COUNTER_GROUP, UPDATED_COUNTER,
+            ((LongWritable)getAggregatedValue(UPDATED_AGGREGATOR)).get());
+        haltComputation();
+      }
+    }
+  }
+}
@@ -75,6 +75,13 @@ public abstract class AbstractCFRankingComputation
     float reg;
 	
     private boolean parametersParsed = false;
+
+    /** Per-instance scratch space for the methods that work on the whole buffer. */
+    private final BufferedItemFactors bufferedItems = new BufferedItemFactors();
+
+    /** Reused for the item updates, messages are serialized when sent. */
+    private final FloatMatrixMessage updateMsg = new FloatMatrixMessage(nullId, emptyList, 0);
+    private final FloatMatrixWritable updateFactors = new FloatMatrixWritable(0);
     
 	/**
 	 * A default constructor that does not do a thing.
@@ -230,6 +237,38 @@ public abstract class AbstractCFRankingComputation
 			    sendMessage(itemId, new FloatMatrixMessage(sendFrom, new FloatMatrixWritable(factors), NOT_IMPORTANT ));
 	}
 
+	/**
+	 * Same as {@link #sendItemFactorsUpdate(CfLongId, CfLongId, FloatMatrix)}, but
+	 * wraps the update into a reused message instead of copying it.
+	 * The update can be overwritten as soon as this returns.
+	 */
+	void sendItemFactorsUpdateReusing(CfLongId itemId, CfLongId sendFrom, FloatMatrix factors) {
+	    updateFactors.data = factors.data;
+	    updateFactors.length = factors.length;
+	    updateFactors.rows = factors.rows;
+	    updateFactors.columns = factors.columns;
+	    updateMsg.setSenderId(sendFrom);
+	    updateMsg.setFactors(updateFactors);
+	    updateMsg.setScore(NOT_IMPORTANT);
+	    sendMessage(itemId, updateMsg);
+	}
+
+	/**
+	 * Packs the factors of all the received items into the scratch space of
+	 * this computation and scores them against the user factors.
+	 * @param u the user factors
+	 * @param messages the buffer of relevant and irrelevant items
+	 * @return the scratch space, valid until the next call
+	 */
+	BufferedItemFactors loadBuffer(FloatMatrix u, Iterable<FloatMatrixMessage> messages) {
+	    bufferedItems.reset(u);
+	    for (FloatMatrixMessage msg : messages) {
+	        bufferedItems.add(msg.getFactors(), isRelevant(msg));
+	    }
+	    bufferedItems.computeScores();
+	    return bufferedItems;
+	}
+
 	protected boolean isRelevant(FloatMatrixMessage next) {
 	    return next.getScore() > 0;
 	}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf.ranking;
+
+import org.jblas.FloatMatrix;
+
+/**
+ * Scratch space for the ranking methods that score a whole buffer of sampled
+ * items against one user (TFMAP, CLiMF).
+ *
+ * The factors of the buffered items are packed row by row into one contiguous
+ * array, so the scores of all the items are computed with a single
+ * matrix-vector product. A method then turns the scores into one weight per
+ * item for the user gradient and one weight per item for the item gradient,
+ * and the updates are built from the packed rows. The pairwise terms are
+ * plain scalars, so no matrix is allocated per pair of items.
+ *
+ * All the arrays only grow and are reused from user to user. Computation
+ * instances are never shared between threads, so every instance keeps its
+ * own scratch space.
+ *
+ * @author dl
+ *
+ */
+final class BufferedItemFactors {
+
+    private int dim;
+    private int size;
+    private int numRelevant;
+
+    private float[] user = new float[0];
+    /** size x dim, the factors of item i start at i*dim. */
+    private float[] factors = new float[0];
+    private float[] scores = new float[0];
+    private boolean[] relevant = new boolean[0];
+    private float[] userWeights = new float[0];
+    private float[] itemWeights = new float[0];
+
+    /** Scratch for the update of a single vertex. */
+    private FloatMatrix update = new FloatMatrix(0);
+
+    /**
+     * Starts a new buffer for the given user.
+     * @param u the user factors
+     */
+    void reset(FloatMatrix u) {
+        dim = u.length;
+        size = 0;
+        numRelevant = 0;
+        if (user.length < dim) {
+            user = new float[dim];
+        }
+        System.arraycopy(u.data, 0, user, 0, dim);
+        if (update.length != dim) {
+            update = new FloatMatrix(u.rows, u.columns);
+        }
+    }
+
+    /**
+     * Appends the factors of one buffered item.
+     * @param v the item factors
+     * @param isRelevant whether the item is relevant to the user
+     */
+    void add(FloatMatrix v, boolean isRelevant) {
+        if (v.length != dim) {
+            throw new RuntimeException("Latent vector size is incorrect");
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(v.data, 0, factors, size * dim, dim);
+        relevant[size] = isRelevant;
+        if (isRelevant) {
+            numRelevant++;
+        }
+        size++;
+    }
+
+    /**
+     * Computes the scores of all the buffered items with one pass over the
+     * packed factors, and clears the weights.
+     */
+    void computeScores() {
+        for (int i = 0, row = 0; i < size; i++, row += dim) {
+            float dot = 0;
+            for (int k = 0; k < dim; k++) {
+                dot += factors[row + k] * user[k];
+            }
+            scores[i] = dot;
+            userWeights[i] = 0;
+            itemWeights[i] = 0;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int numRelevant() {
+        return numRelevant;
+    }
+
+    boolean isRelevant(int i) {
+        return relevant[i];
+    }
+
+    float score(int i) {
+        return scores[i];
+    }
+
+    /** Weight of each buffered item in the user gradient. */
+    float[] userWeights() {
+        return userWeights;
+    }
+
+    /** Weight of the user factors in the gradient of each buffered item. */
+    float[] itemWeights() {
+        return itemWeights;
+    }
+
+    /**
+     * Computes rate * (scale * (sum_i w_i * V_i + shift) - reg * U), where
+     * w are the user weights.
+     *
+     * @return the update, valid until the next call on this buffer
+     */
+    FloatMatrix userUpdate(float scale, float shift, float reg, float rate) {
+        float[] out = update.data;
+        for (int k = 0; k < dim; k++) {
+            out[k] = shift;
+        }
+        for (int i = 0, row = 0; i < size; i++, row += dim) {
+            float w = userWeights[i];
+            if (w != 0) {
+                for (int k = 0; k < dim; k++) {
+                    out[k] += w * factors[row + k];
+                }
+            }
+        }
+        for (int k = 0; k < dim; k++) {
+            out[k] = rate * (scale * out[k] - reg * user[k]);
+        }
+        return update;
+    }
+
+    /**
+     * Computes rate * (w_i * U - reg * V_i) for the i-th buffered item, where
+     * w are the item weights.
+     *
+     * @return the update, valid until the next call on this buffer
+     */
+    FloatMatrix itemUpdate(int i, float reg, float rate) {
+        float[] out = update.data;
+        float w = itemWeights[i];
+        int row = i * dim;
+        for (int k = 0; k < dim; k++) {
+            out[k] = rate * (w * user[k] - reg * factors[row + k]);
+        }
+        return update;
+    }
+
+    private void ensureCapacity(int n) {
+        if (factors.length < n * dim) {
+            float[] grown = new float[Math.max(n, 2 * factors.length / Math.max(dim, 1)) * dim];
+            System.arraycopy(factors, 0, grown, 0, size * dim);
+            factors = grown;
+        }
+        if (scores.length < n) {
+            int capacity = Math.max(n, 2 * scores.length);
+            float[] grownScores = new float[capacity];
+            boolean[] grownRelevant = new boolean[capacity];
+            System.arraycopy(relevant, 0, grownRelevant, 0, size);
+            scores = grownScores;
+            relevant = grownRelevant;
+            userWeights = new float[capacity];
+            itemWeights = new float[capacity];
+        }
+    }
+}
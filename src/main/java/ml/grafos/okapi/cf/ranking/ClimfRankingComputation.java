@@ -72,6 +72,12 @@ public class
 
     /**
      * Updates the model based on the factors received.
+     *
+     * The user gradient is \sum_j g(-f_j) V_j + \sum_j \sum_k w_{jk} (V_j - V_k) - reg u,
+     * with w_{jk} = g'(f_j-f_k) / (1-g(f_j-f_k)), so the weight of V_j is
+     * g(-f_j) + \sum_k w_{jk} - \sum_k w_{kj}. The gradient of item j is
+     * (g(-f_j) + \sum_k g'(f_j-f_k) [1/(1-g(f_k-f_j)) - 1/(1-g(f_j-f_k))]) u - reg V_j.
+     *
      * @param u   Model parameters for user u
      * @param messages
      * @param vertex  Current user vertex
@@ -79,51 +85,37 @@ public class
     private void updateModel(FloatMatrix u,
                              Iterable<FloatMatrixMessage> messages,
                              Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
-        //Compute User update
-        double tempdiff;
-        FloatMatrix uDelta = FloatMatrix.zeros(u.columns);
-        FloatMatrix partialOneDelta;
-        FloatMatrix partialTwoDelta = FloatMatrix.zeros(u.columns);
-
-        for (FloatMatrixMessage msg : messages) {
-            FloatMatrix V_j = msg.getFactors();
-            float fij = u.dot(V_j);
-            partialOneDelta = V_j.mul(logf(-1.0f*fij));
-            for (FloatMatrixMessage msginner : messages) {
-                FloatMatrix V_k = msginner.getFactors();
-                tempdiff = fij - u.dot(V_k);
-                partialTwoDelta = V_j.sub(V_k).mul(logfd(tempdiff)/(1-logf(tempdiff)));
+        BufferedItemFactors items = loadBuffer(u, messages);
+        int size = items.size();
+        float[] userWeights = items.userWeights();
+        float[] itemWeights = items.itemWeights();
+
+        for (int j = 0; j < size; j++) {
+            float fij = items.score(j);
+            float partialOne = logf(-1.0f*fij);
+            float partialTwo = 0;
+            float partialSumTwo = 0;
+            for (int k = 0; k < size; k++) {
+                double tempdiff = fij - items.score(k);
+                float gd = logfd(tempdiff);
+                float g = logf(tempdiff);
+                float w = gd/(1-g);
+                partialTwo += w;
+                userWeights[k] -= w;
+                partialSumTwo += gd*(1.0/(1.0-logf(-1.0*tempdiff)) - 1.0/(1.0 - g));
             }
-            uDelta.addi(partialOneDelta);
-            uDelta.addi(partialTwoDelta);
-
+            userWeights[j] += partialOne + partialTwo;
+            itemWeights[j] = partialOne + partialSumTwo;
         }
-        uDelta.sub(u.mul(reg));
-        uDelta.mul(learnRate);
 
         //Compute Item Updates
+        int j = 0;
         for (FloatMatrixMessage msg : messages) {
-            FloatMatrix vDelta = FloatMatrix.zeros(u.columns);
-            FloatMatrix V_j = msg.getFactors();
-            CfLongId Itemid = msg.getSenderId();
-            float fij = u.dot(V_j);
-            float partialSumOne = logf(-1.0*fij);
-            float partialSumTwo = 0;
-            for (FloatMatrixMessage msginner : messages) {
-                FloatMatrix V_k = msginner.getFactors();
-                tempdiff = fij - u.dot(V_k);
-                partialSumTwo += logfd(tempdiff)*(1.0/(1.0-logf(-1.0*tempdiff)) - 1.0/(1.0 - logf(tempdiff) ) );
-            }
-
-            vDelta.add(u.mul(partialSumTwo + partialSumOne));
-            vDelta.add(V_j.mul(reg));
-            vDelta.mul(learnRate);
-
-            sendItemFactorsUpdate(Itemid, vertex.getId(), vDelta);
+            sendItemFactorsUpdateReusing(msg.getSenderId(), vertex.getId(), items.itemUpdate(j++, reg, learnRate));
         }
 
         //do the user update
-        applyUpdate(uDelta, vertex);
+        applyUpdate(items.userUpdate(1.0f, 0.0f, reg, learnRate), vertex);
     }
 
     @Override
@@ -23,7 +23,6 @@ import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 import org.apache.giraph.graph.Vertex;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.log4j.Logger;
-import org.jblas.FloatMatrix;
 
 
 /**
@@ -53,91 +52,73 @@ public class TFMAPRankingComputation extends AbstractCFRankingComputation{
             Iterable<FloatMatrixMessage> buffer) {
         if (vertex.getId().isUser()){
             //each user should receive exactly 2K messages, where K is the number of relevant items.
+            BufferedItemFactors items = loadBuffer(vertex.getValue(), buffer);
+            int y_m = items.numRelevant(); //the counter \sum_i^M{y_{mi}}
+            if (y_m == 0){
+                return;
+            }
+            float gf_sum = computeWeights(items);
 
-            //1. I will update the user factors using the relevant items.
-            FloatMatrix updateUser = updateUser(buffer, vertex);
-            applyUpdate(updateUser.mul(learnRate), vertex);
-
-            //2. I will compute updates for the items and send the updates to the items to update themselves.
+            //1. I will compute updates for the items and send the updates to the items to update themselves.
+            int i = 0;
             for (FloatMatrixMessage msg : buffer) {
-                FloatMatrix update = updateItem(msg.getFactors(), vertex.getValue(), buffer);
-                sendItemFactorsUpdate(msg.getSenderId(), vertex.getId(), update);
+                sendItemFactorsUpdateReusing(msg.getSenderId(), vertex.getId(), items.itemUpdate(i++, reg, 1.0f));
             }
-        }
-    }
 
-    private FloatMatrix updateItem(FloatMatrix V_i,
-                                               FloatMatrix U_m,
-                                               Iterable<FloatMatrixMessage> buffer) {
-
-        int y_mi = 0; //replacement for sum{y_{mi}}
-        float f_mi = U_m.dot(V_i);
-        float buffer_sum = 0;
-        for (FloatMatrixMessage msgJ : buffer) {
-            if (isRelevant(msgJ)){
-                y_mi++;
-                FloatMatrix V_j = msgJ.getFactors();
-                buffer_sum += logfd(f_mi) * logf(dot_of_difference(U_m, V_j, V_i)) +
-                        ( logf(U_m.dot(V_j)) - logf(f_mi) * logfd(dot_of_difference(U_m, V_j, V_i)));
-            }
+            //2. I will update the user factors using the relevant items.
+            applyUpdate(items.userUpdate(1.0f/y_m, gf_sum, reg, learnRate), vertex);
         }
-        FloatMatrix newV_i = U_m.mul(buffer_sum/y_mi).add(V_i.mul(-reg));
-        return newV_i;
     }
 
     /**
+     * Computes the weights of the user and item gradients from the scores of
+     * the buffered items, in one pass over all the (i, j) pairs with j relevant.
      *
+     * The user gradient is
+     * 1/y_m * (\sum_i y_{mi} [\delta_i V_i + \sum_j y_{mj} g'(f_{mj}-f_{mi}) V_j + g(f_{mi})]) - reg U_m,
+     * where \delta_i is the substitution for delta above eq. 8, so the weight of V_j
+     * is \delta_j + \sum_i y_{mi} g'(f_{mj}-f_{mi}). The gradient of item i is
+     * 1/y_m * \sum_j y_{mj} [g'(f_{mi}) g(f_{mj}-f_{mi}) + g(f_{mj}) - g(f_{mi}) g'(f_{mj}-f_{mi})] U_m - reg V_i.
      *
-     * @param buffer contains relevant and irrelevant items.
-     * @param vertex
-     * @return
+     * @param items the scored buffer
+     * @return \sum_i y_{mi} g(f_{mi}), the constant term of the user gradient
      */
-    private FloatMatrix updateUser(Iterable<FloatMatrixMessage> buffer,
-                                               Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
-        int y_mi = 0; //the counter \sum_i^M{y_{mi}}
-        FloatMatrix U_m = vertex.getValue();//current U_m factors
-        FloatMatrix newU = FloatMatrix.zeros(U_m.columns);//the new U_m factor
-        for (FloatMatrixMessage msgI : buffer) {//first sum;
-            if (isRelevant(msgI)){//replacement of y_{mi}
-                y_mi++;
-                FloatMatrix V_i = msgI.getFactors();
-                FloatMatrix deltaV_i = V_i.mul(computeDelta(U_m, V_i, buffer));//[\delta \elementwise V_i
-                float gf_mi = logf(U_m.dot(V_i)); //g(f_{mi})
-                FloatMatrix V_sum = FloatMatrix.zeros(V_i.columns); //where we store the second sum which runs over j
-                for (FloatMatrixMessage msgJ : buffer) {
-                    if (isRelevant(msgJ)){//replacement of y_{mj}
-                        FloatMatrix V_j = msgJ.getFactors();
-                        V_sum = V_sum.add(V_j.mul(logfd( dot_of_difference(U_m, V_j, V_i)) ));
-                    }
-                }
-                newU = deltaV_i.add(V_sum.add(gf_mi));
+    private float computeWeights(BufferedItemFactors items) {
+        int size = items.size();
+        float y_m = items.numRelevant();
+        float[] userWeights = items.userWeights();
+        float[] itemWeights = items.itemWeights();
+
+        float gf_sum = 0;
+        for (int j = 0; j < size; j++) {
+            if (items.isRelevant(j)){
+                gf_sum += logf(items.score(j));
             }
         }
-        return newU.mul(1.0f/y_mi).add(U_m.mul(-reg));
-    }
 
-    /**
-     * Substitution for delta abotve eq.8.
-     * @param v_i
-     * @param messages
-     * @return
-     */
-    private float computeDelta(FloatMatrix m_i, FloatMatrix v_i, Iterable<FloatMatrixMessage> messages) {
-        float f_mi = m_i.dot(v_i);
-        float first = 0;
-        float second = 0;
-        for (FloatMatrixMessage msgJ : messages) {
-            if(isRelevant(msgJ)){
-                FloatMatrix v_j = msgJ.getFactors();
-                first += logf(dot_of_difference(m_i, v_j, v_i));
-                second += logfd(dot_of_difference(m_i, v_j, v_i));
+        for (int i = 0; i < size; i++) {
+            float f_mi = items.score(i);
+            float first = 0;
+            float second = 0;
+            for (int j = 0; j < size; j++) {
+                if (items.isRelevant(j)){
+                    double diff = items.score(j) - f_mi;
+                    float gd = logfd(diff);
+                    first += logf(diff);
+                    second += gd;
+                    if (items.isRelevant(i)){
+                        userWeights[j] += gd;
+                    }
+                }
+            }
+            float gf_mi = logf(f_mi);
+            float gfd_mi = logfd(f_mi);
+            if (items.isRelevant(i)){
+                userWeights[i] += gfd_mi * first + gf_mi * second;
             }
+            itemWeights[i] = (gfd_mi * first + gf_sum - gf_mi * second) / y_m;
         }
-        return logfd(f_mi) * first + logf(f_mi) * second;
-    }
-
-    private double dot_of_difference(FloatMatrix m_i, FloatMatrix v_j, FloatMatrix v_i) {
-        return m_i.dot(v_j) - m_i.dot(v_i);
+        return gf_sum;
     }
 
     @Override
@@ -16,8 +16,8 @@
 package ml.grafos.okapi.cf.sgd;
 
 import java.io.IOException;
-import java.util.Random;
 
+import ml.grafos.okapi.cf.CfFactors;
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
@@ -173,8 +173,8 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
    * @param gamma
    * @param err
    */
-  protected final void updateValue(FloatMatrix value, 
-      FloatMatrix update, final float rating, final float minRatings, 
+  public static void updateValue(FloatMatrix value, 
+      FloatMatrix update, final float rating, final float minRating, 
       final float maxRating, final float lambda, final float gamma) {
     
     float predicted = value.dot(update);
@@ -205,14 +205,8 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
     public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
-      FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
-      for (int i=0; i<vector.length; i++) {
-        vector.put(i, 0.01f*randGen.nextFloat());
-      }
-      vertex.setValue(vector);
+      CfFactors.initFactorsIfNeeded(vertex, getContext().getConfiguration()
+          .getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
       
       for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
         FloatMatrixMessage msg = new FloatMatrixMessage(
@@ -239,14 +233,8 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
         FloatWritable> vertex, Iterable<FloatMatrixMessage> messages) 
             throws IOException {
       
-      FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
-      for (int i=0; i<vector.length; i++) {
-        vector.put(i, 0.01f*randGen.nextFloat());
-      }
-      vertex.setValue(vector);
+      CfFactors.initFactorsIfNeeded(vertex, getContext().getConfiguration()
+          .getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
       
       for (FloatMatrixMessage msg : messages) {
         DefaultEdge<CfLongId, FloatWritable> edge = 
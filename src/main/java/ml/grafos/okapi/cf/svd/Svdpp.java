@@ -20,8 +20,10 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Random;
 
+import ml.grafos.okapi.cf.CfFactors;
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.cf.eval.CfModelInputFormat;
 import ml.grafos.okapi.common.Parameters;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 import ml.grafos.okapi.utils.Counters;
@@ -32,10 +34,14 @@ import org.apache.giraph.edge.DefaultEdge;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.TextVertexValueInputFormat;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.jblas.FloatMatrix;
 
 
@@ -181,6 +187,27 @@ public class Svdpp {
     value.addi(value.mul(-gamma*lambda).addi(step));
   }
 
+  /**
+   * Returns the latent vector of a vertex if it already has one of the right
+   * size, which is the case when the computation is warm-started from a
+   * previous model with {@link SvdppModelInputFormat}. Otherwise, it returns
+   * a new vector with small random values.
+   * 
+   * @param value The current value of the vertex
+   * @param vectorSize Size of the latent vector
+   * @param randGen Random number generator
+   * @return The latent vector to start from
+   */
+  protected static FloatMatrixWritable initFactorsIfNeeded(SvdppValue value, 
+      final int vectorSize, Random randGen) {
+    if (value != null && value.getFactors() != null 
+        && value.getFactors().length == vectorSize) {
+      return value.getFactors();
+    }
+    return CfFactors.randomize(new FloatMatrixWritable(1, vectorSize), 
+        randGen);
+  }
+
   /**
    * A value in the Svdpp algorithm consists of (i) the baseline estimate, (ii)
    * the latent vector, and (iii) the weight vector.
@@ -229,6 +256,51 @@ public class Svdpp {
     }
   }
 
+  /**
+   * Reads the latent vectors of a previous run, in the format read by
+   * {@link CfModelInputFormat}, so that the computation can be warm-started
+   * with this class as the vertex input format and the ratings as the edge
+   * input. The text model holds only the latent vectors, so the baselines 
+   * and the item weights are initialized as in a cold start.
+   */
+  public static class SvdppModelInputFormat extends 
+  TextVertexValueInputFormat<CfLongId, SvdppValue, FloatWritable> {
+
+    @Override
+    public TextVertexValueReader createVertexValueReader(InputSplit split, 
+        TaskAttemptContext context) throws IOException {
+      return new SvdppModelVertexValueReader();
+    }
+
+    public class SvdppModelVertexValueReader extends 
+    TextVertexValueReaderFromEachLineProcessed<String[]> {
+
+      @Override
+      protected String[] preprocessLine(Text line) throws IOException {
+        return line.toString().split("\t");
+      }
+
+      @Override
+      protected CfLongId getId(String[] line) throws IOException {
+        return CfModelInputFormat.parseId(line[0]);
+      }
+
+      @Override
+      protected SvdppValue getValue(String[] line) throws IOException {
+        if (line.length < 2) {
+          return new SvdppValue(0f, new FloatMatrixWritable(0), 
+              new FloatMatrixWritable(0));
+        }
+        FloatMatrixWritable column = CfModelInputFormat.parseFactors(line[1], 
+            getConf().getInt(CfModelInputFormat.DIMENSION, -1));
+        // Svdpp keeps the latent vectors as row vectors
+        return new SvdppValue(0f, 
+            new FloatMatrixWritable(1, column.length, column.data), 
+            new FloatMatrixWritable(0));
+      }
+    }
+  }
+
   /**
    * This computation class is used to initialize the factors of the user nodes
    * in the very first superstep, and send the first updates to the item nodes.
@@ -255,12 +327,9 @@ public class Svdpp {
       int vectorSize = getContext().getConfiguration().getInt(
               VECTOR_SIZE, VECTOR_SIZE_DEFAULT);
 
-      FloatMatrixWritable factors = new FloatMatrixWritable(1, vectorSize);
-      
       Random randGen = new Random();
-      for (int i=0; i<factors.length; i++) {
-        factors.put(i, 0.01f*randGen.nextFloat());
-      }
+      FloatMatrixWritable factors = 
+          initFactorsIfNeeded(vertex.getValue(), vectorSize, randGen);
       
       float baseline = randGen.nextFloat();
 
@@ -301,14 +370,11 @@ public class Svdpp {
       int vectorSize = getContext().getConfiguration().getInt(
           VECTOR_SIZE, VECTOR_SIZE_DEFAULT);
 
-      FloatMatrixWritable factors = new FloatMatrixWritable(1, vectorSize);
-      FloatMatrixWritable weight = new FloatMatrixWritable(1, vectorSize);
-
       Random randGen = new Random();
-      for (int i=0; i<factors.length; i++) {
-        factors.put(i, 0.01f*randGen.nextFloat());
-        weight.put(i, 0.01f*randGen.nextFloat());
-      }
+      FloatMatrixWritable factors = 
+          initFactorsIfNeeded(vertex.getValue(), vectorSize, randGen);
+      FloatMatrixWritable weight = CfFactors.randomize(
+          new FloatMatrixWritable(1, vectorSize), randGen);
       float baseline = randGen.nextFloat();
 
       vertex.setValue(new SvdppValue(baseline, factors, weight));
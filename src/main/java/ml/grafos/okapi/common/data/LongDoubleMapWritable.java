@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A map from long keys to double values, kept in a primitive hash map so that
+ * no object is allocated per entry.
+ *
+ * Values are summed when added, so maps coming from different senders can be
+ * merged with {@link #addAll(LongDoubleMapWritable)}, for instance in a
+ * message combiner. The map is reused by {@link #readFields(DataInput)}.
+ *
+ * @author dl
+ *
+ */
+public class LongDoubleMapWritable implements Writable {
+
+  private final Long2DoubleOpenHashMap map = new Long2DoubleOpenHashMap();
+
+  /** Default constructor for reflection */
+  public LongDoubleMapWritable() {
+  }
+
+  public void clear() {
+    map.clear();
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  /**
+   * @return the value of the key, or 0 if the key is not in the map
+   */
+  public double get(long key) {
+    return map.get(key);
+  }
+
+  /**
+   * Adds the value to the current value of the key.
+   */
+  public void add(long key, double value) {
+    map.addTo(key, value);
+  }
+
+  /**
+   * Adds all the values of another map to this one.
+   */
+  public void addAll(LongDoubleMapWritable other) {
+    for (Long2DoubleMap.Entry e : other.map.long2DoubleEntrySet()) {
+      map.addTo(e.getLongKey(), e.getDoubleValue());
+    }
+  }
+
+  public Iterable<Long2DoubleMap.Entry> entries() {
+    return map.long2DoubleEntrySet();
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    map.clear();
+    int n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      long key = in.readLong();
+      map.put(key, in.readDouble());
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(map.size());
+    for (Long2DoubleMap.Entry e : map.long2DoubleEntrySet()) {
+      out.writeLong(e.getLongKey());
+      out.writeDouble(e.getDoubleValue());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for (Long2DoubleMap.Entry e : map.long2DoubleEntrySet()) {
+      s.append("(" + e.getLongKey() + "," + e.getDoubleValue() + ")");
+    }
+    return s.toString();
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A map from long keys to int counts, kept in a primitive hash map and
+ * serialized with variable-length encoding, so that small counts keyed by
+ * small ids take a few bytes per entry.
+ *
+ * Like {@link LongDoubleMapWritable}, counts are summed when added, so maps
+ * from different senders can be merged with
+ * {@link #addAll(LongIntMapWritable)}. The map is reused by
+ * {@link #readFields(DataInput)}.
+ *
+ * @author dl
+ *
+ */
+public class LongIntMapWritable implements Writable {
+
+  private final Long2IntOpenHashMap map = new Long2IntOpenHashMap();
+
+  /** Default constructor for reflection */
+  public LongIntMapWritable() {
+  }
+
+  public void clear() {
+    map.clear();
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  /**
+   * @return the count of the key, or 0 if the key is not in the map
+   */
+  public int get(long key) {
+    return map.get(key);
+  }
+
+  /**
+   * Adds the count to the current count of the key.
+   */
+  public void add(long key, int count) {
+    map.addTo(key, count);
+  }
+
+  /**
+   * Adds all the counts of another map to this one.
+   */
+  public void addAll(LongIntMapWritable other) {
+    for (Long2IntMap.Entry e : other.map.long2IntEntrySet()) {
+      map.addTo(e.getLongKey(), e.getIntValue());
+    }
+  }
+
+  public Iterable<Long2IntMap.Entry> entries() {
+    return map.long2IntEntrySet();
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    map.clear();
+    int n = WritableUtils.readVInt(in);
+    for (int i = 0; i < n; i++) {
+      long key = WritableUtils.readVLong(in);
+      map.put(key, WritableUtils.readVInt(in));
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, map.size());
+    for (Long2IntMap.Entry e : map.long2IntEntrySet()) {
+      WritableUtils.writeVLong(out, e.getLongKey());
+      WritableUtils.writeVInt(out, e.getIntValue());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for (Long2IntMap.Entry e : map.long2IntEntrySet()) {
+      s.append("(" + e.getLongKey() + "," + e.getIntValue() + ")");
+    }
+    return s.toString();
+  }
+}
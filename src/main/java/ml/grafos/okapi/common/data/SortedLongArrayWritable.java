@@ -0,0 +1,256 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A sorted set of longs, such as a list of neighbor IDs, kept in a primitive
+ * array.
+ *
+ * On the wire the values are delta-encoded as variable-length longs, so a
+ * list of nearby IDs takes one or two bytes per entry instead of eight. The
+ * array is reused by {@link #readFields(DataInput)}, so the same instance can
+ * be used to read many messages without allocating.
+ *
+ * Sets are intersected with a linear merge, or by galloping through the
+ * larger set when the sizes are very different.
+ *
+ * @author dl
+ *
+ */
+public class SortedLongArrayWritable implements Writable {
+  /** Size ratio above which the intersection gallops through the larger set. */
+  private static final int GALLOP_RATIO = 16;
+  private static final long[] EMPTY = new long[0];
+
+  private long[] values = EMPTY;
+  private int size;
+
+  /** Default constructor for reflection */
+  public SortedLongArrayWritable() {
+  }
+
+  /**
+   * Copies the first size values of the array and sorts them. Duplicate
+   * values are removed.
+   */
+  public void set(long[] array, int size) {
+    ensureCapacity(size);
+    System.arraycopy(array, 0, values, 0, size);
+    LongArrays.quickSort(values, 0, size);
+    int unique = 0;
+    for (int i = 0; i < size; i++) {
+      if (unique == 0 || values[unique - 1] != values[i]) {
+        values[unique++] = values[i];
+      }
+    }
+    this.size = unique;
+  }
+
+  /**
+   * Sets this to the same values as another set.
+   */
+  public void set(SortedLongArrayWritable other) {
+    ensureCapacity(other.size);
+    System.arraycopy(other.values, 0, values, 0, other.size);
+    size = other.size;
+  }
+
+  /**
+   * Adds all the values of another set to this one.
+   */
+  public void addAll(SortedLongArrayWritable other) {
+    if (other.size == 0) {
+      return;
+    }
+    long[] merged = new long[size + other.size];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < size || j < other.size) {
+      long next;
+      if (j == other.size || (i < size && values[i] <= other.values[j])) {
+        next = values[i++];
+      } else {
+        next = other.values[j++];
+      }
+      if (n == 0 || merged[n - 1] != next) {
+        merged[n++] = next;
+      }
+    }
+    values = merged;
+    size = n;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long get(int i) {
+    return values[i];
+  }
+
+  /**
+   * @return the backing array, sorted up to {@link #size()}
+   */
+  public long[] elements() {
+    return values;
+  }
+
+  public boolean contains(long value) {
+    return LongArrays.binarySearch(values, 0, size, value) >= 0;
+  }
+
+  /**
+   * @return the number of values that appear in both sets
+   */
+  public static int intersectionSize(SortedLongArrayWritable a,
+      SortedLongArrayWritable b) {
+    if (a.size > b.size) {
+      SortedLongArrayWritable tmp = a;
+      a = b;
+      b = tmp;
+    }
+    if (a.size == 0) {
+      return 0;
+    }
+    if (b.size / a.size >= GALLOP_RATIO) {
+      return gallopingIntersectionSize(a.values, a.size, b.values, b.size);
+    }
+    long[] x = a.values;
+    long[] y = b.values;
+    int i = 0;
+    int j = 0;
+    int count = 0;
+    while (i < a.size && j < b.size) {
+      if (x[i] < y[j]) {
+        i++;
+      } else if (x[i] > y[j]) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Appends the values that appear in both sets to a list, in order.
+   *
+   * @return the number of values appended
+   */
+  public static int intersection(SortedLongArrayWritable a,
+      SortedLongArrayWritable b, LongArrayList out) {
+    long[] x = a.values;
+    long[] y = b.values;
+    int i = 0;
+    int j = 0;
+    int count = 0;
+    while (i < a.size && j < b.size) {
+      if (x[i] < y[j]) {
+        i++;
+      } else if (x[i] > y[j]) {
+        j++;
+      } else {
+        out.add(x[i]);
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Looks up every value of the small set in the large one, searching
+   * exponentially forward from the previous match.
+   */
+  private static int gallopingIntersectionSize(long[] small, int smallSize,
+      long[] large, int largeSize) {
+    int count = 0;
+    int low = 0;
+    for (int i = 0; i < smallSize && low < largeSize; i++) {
+      long value = small[i];
+      int step = 1;
+      int high = low;
+      while (high < largeSize && large[high] < value) {
+        low = high + 1;
+        high += step;
+        step <<= 1;
+      }
+      int pos = LongArrays.binarySearch(large, low,
+          Math.min(high + 1, largeSize), value);
+      if (pos >= 0) {
+        count++;
+        low = pos + 1;
+      } else {
+        low = -pos - 1;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int n = WritableUtils.readVInt(in);
+    ensureCapacity(n);
+    long previous = 0;
+    for (int i = 0; i < n; i++) {
+      previous += WritableUtils.readVLong(in);
+      values[i] = previous;
+    }
+    size = n;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, size);
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      WritableUtils.writeVLong(out, values[i] - previous);
+      previous = values[i];
+    }
+  }
+
+  private void ensureCapacity(int n) {
+    if (values.length < n) {
+      values = new long[Math.max(n, 2 * values.length)];
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(values[i]);
+    }
+    return sb.append(']').toString();
+  }
+}
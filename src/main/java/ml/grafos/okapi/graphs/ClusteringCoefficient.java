@@ -15,22 +15,28 @@
  */
 package ml.grafos.okapi.graphs;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.HashSet;
 
-import ml.grafos.okapi.common.computation.SendFriends;
-import ml.grafos.okapi.common.data.LongArrayListWritable;
-import ml.grafos.okapi.common.data.MessageWrapper;
+import ml.grafos.okapi.common.data.SortedLongArrayWritable;
+import ml.grafos.okapi.graphs.Triangles.IdDegreeWritable;
+import ml.grafos.okapi.graphs.similarity.Jaccard.LongIdFriendsList;
 import ml.grafos.okapi.utils.Counters;
 
 import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.combiner.MessageCombiner;
 import org.apache.giraph.edge.Edge;
-import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
 
 /**
  * The clustering coefficient is used to measure how well vertices are connected
@@ -75,7 +81,24 @@ import org.apache.hadoop.io.NullWritable;
  * its value in the standard output of the terminal or in the Hadoop web
  * interface.
  * 
- * This computation works for both directed and undirected graphs.
+ * This computation works for both directed and undirected graphs. An 
+ * undirected graph has every edge in both directions. Set {@link #DIRECTED}
+ * for a directed graph, in which the neighbors of a vertex are its 
+ * out-neighbors.
+ * 
+ * In an undirected graph, the triangles are counted once each, by orienting 
+ * every edge from the vertex with the lower degree to the vertex with the 
+ * higher degree (ties broken by ID), as in {@link Triangles}. The vertex in
+ * the middle of this order finds the triangle by intersecting two sorted 
+ * lists, and credits the other two vertices with a message. 
+ * 
+ * In a directed graph, every vertex sends its sorted list of neighbors to 
+ * each of them. A neighbor w of u finds the edges from w to the other 
+ * neighbors of u by intersecting the list with its own, and credits u with
+ * their number.
+ * 
+ * In both cases the messages are summed by a combiner, so every vertex 
+ * receives its count, from which its coefficient follows with its degree.
  * 
  * </p>
  * 
@@ -88,6 +111,11 @@ import org.apache.hadoop.io.NullWritable;
  */
 public class ClusteringCoefficient {
 
+  /** Whether the graph is directed. */
+  public static final String DIRECTED = "clustering.coefficient.directed";
+  /** Default value for a directed graph. */
+  public static final boolean DIRECTED_DEFAULT = false;
+
   /**
    * Used to aggregate the local clustering coefficients, and compute the 
    * global one.
@@ -103,84 +131,307 @@ public class ClusteringCoefficient {
   public static String COUNTER_GROUP = "Clustering Coefficient";
   public static String COUNTER_NAME = "Global (x1000)";
 
-  public static class SendFriendsList extends SendFriends<LongWritable, 
-    DoubleWritable, NullWritable, LongIdFriendsList> {
+  private static final long[] EMPTY = new long[0];
+
+  /**
+   * The value of a vertex: the sorted list of neighbors it intersects with
+   * the lists it receives, the number of edges between its neighbors that it
+   * found itself, and finally its clustering coefficient. Only the 
+   * coefficient is written in the output.
+   */
+  public static class CoefficientValue implements Writable {
+    private final SortedLongArrayWritable neighbors = 
+        new SortedLongArrayWritable();
+    private long links;
+    private double coefficient;
+
+    public SortedLongArrayWritable getNeighbors() {
+      return neighbors;
+    }
+
+    public long getLinks() {
+      return links;
+    }
+
+    public double getCoefficient() {
+      return coefficient;
+    }
+
+    /**
+     * Keeps the number of edges found between the neighbors, which are no
+     * longer needed.
+     */
+    public void setLinks(long links) {
+      this.links = links;
+      neighbors.set(EMPTY, 0);
+    }
+
+    public void setCoefficient(double coefficient) {
+      this.coefficient = coefficient;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      neighbors.readFields(in);
+      links = in.readLong();
+      coefficient = in.readDouble();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      neighbors.write(out);
+      out.writeLong(links);
+      out.writeDouble(coefficient);
+    }
+
+    @Override
+    public String toString() {
+      return Double.toString(coefficient);
+    }
   }
 
-  public static class ClusteringCoefficientComputation extends BasicComputation<
-  LongWritable, DoubleWritable, NullWritable, LongIdFriendsList> {
+  /**
+   * Every vertex sends its ID and degree to all its neighbors, so that they
+   * can orient their edges.
+   */
+  public static class SendIdAndDegree extends 
+    Triangles.AbstractSendIdAndDegree<CoefficientValue, NullWritable> {
+  }
+
+  /**
+   * Every vertex sends its ID and its sorted list of higher neighbors to each
+   * of them, and keeps the list in its value for the next superstep.
+   * 
+   * The vertex does not vote to halt, so that it computes its coefficient
+   * even if it is not part of any triangle.
+   */
+  public static class SendHigherNeighbors extends AbstractComputation<
+  LongWritable, CoefficientValue, NullWritable, IdDegreeWritable, 
+  LongIdFriendsList> {
+    private final LongArrayList lower = new LongArrayList();
+    private final LongArrayList higher = new LongArrayList();
+    private final LongWritable target = new LongWritable();
+    private final LongIdFriendsList msg = new LongIdFriendsList();
 
     @Override
     public void compute(
-        Vertex<LongWritable, DoubleWritable, NullWritable> vertex,
-        Iterable<LongIdFriendsList> messages)
-            throws IOException {
-
-      // Add the friends of this vertex in a HashSet so that we can check 
-      // for the existence of triangles quickly.
-      HashSet<LongWritable> friends = new HashSet<LongWritable>();
-      for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
-        friends.add(new LongWritable(edge.getTargetVertexId().get()));
+        Vertex<LongWritable, CoefficientValue, NullWritable> vertex,
+        Iterable<IdDegreeWritable> messages) throws IOException {
+      Triangles.splitByDegree(vertex, messages, lower, higher);
+      SortedLongArrayWritable higherNeighbors = 
+          vertex.getValue().getNeighbors();
+      higherNeighbors.set(higher.elements(), higher.size());
+      msg.setSourceId(vertex.getId().get());
+      msg.getFriends().set(higherNeighbors);
+      for (int i = 0; i < higherNeighbors.size(); i++) {
+        target.set(higherNeighbors.get(i));
+        sendMessage(target, msg);
       }
+    }
+  }
 
-      int edges = vertex.getNumEdges();
+  /**
+   * Every common neighbor of the list received from a lower neighbor and the
+   * list of this vertex closes a triangle, in which this vertex is the middle
+   * one. The vertex counts the triangle for itself and sends one to each of
+   * the other two vertices.
+   */
+  public static class CountTriangles extends AbstractComputation<
+  LongWritable, CoefficientValue, NullWritable, LongIdFriendsList, 
+  IntWritable> {
+    private final LongArrayList closing = new LongArrayList();
+    private final LongWritable target = new LongWritable();
+    private final IntWritable count = new IntWritable();
+    private final IntWritable one = new IntWritable(1);
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, CoefficientValue, NullWritable> vertex,
+        Iterable<LongIdFriendsList> messages) throws IOException {
+      CoefficientValue value = vertex.getValue();
       int triangles = 0;
       for (LongIdFriendsList msg : messages) {
-        for (LongWritable id : msg.getMessage()) {
-          if (friends.contains(id)) {
-            // Triangle found
-            triangles++;
+        closing.clear();
+        int found = SortedLongArrayWritable.intersection(msg.getFriends(),
+            value.getNeighbors(), closing);
+        if (found > 0) {
+          triangles += found;
+          target.set(msg.getSourceId());
+          count.set(found);
+          sendMessage(target, count);
+          for (int i = 0; i < found; i++) {
+            target.set(closing.getLong(i));
+            sendMessage(target, one);
           }
         }
       }
-      
-      double clusteringCoefficient = 
-          ((double)triangles) / ((double)edges*(edges-1));
+      value.setLinks(triangles);
+    }
+  }
 
-      DoubleWritable clCoefficient = new DoubleWritable(clusteringCoefficient);
-      aggregate(CL_COEFFICIENT_AGGREGATOR, clCoefficient);
-      vertex.setValue(clCoefficient);
-      vertex.voteToHalt();
+  /**
+   * Replaces {@link SendIdAndDegree} and {@link SendHigherNeighbors} in a 
+   * directed graph. Every vertex sends its ID and its sorted list of 
+   * neighbors to each of them, and keeps the list in its value for the next
+   * superstep.
+   * 
+   * The vertex does not vote to halt, so that it computes its coefficient
+   * even if no neighbor credits it with an edge.
+   */
+  public static class SendNeighbors extends AbstractComputation<
+  LongWritable, CoefficientValue, NullWritable, Writable, LongIdFriendsList> {
+    private final LongArrayList friends = new LongArrayList();
+    private final LongIdFriendsList msg = new LongIdFriendsList();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, CoefficientValue, NullWritable> vertex,
+        Iterable<Writable> messages) throws IOException {
+      friends.clear();
+      for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+        friends.add(edge.getTargetVertexId().get());
+      }
+      SortedLongArrayWritable neighbors = vertex.getValue().getNeighbors();
+      neighbors.set(friends.elements(), friends.size());
+      msg.setSourceId(vertex.getId().get());
+      msg.getFriends().set(neighbors);
+      sendMessageToAllEdges(vertex, msg);
     }
   }
 
-  public static class LongIdFriendsList extends MessageWrapper<LongWritable, 
-  LongArrayListWritable> { 
+  /**
+   * Replaces {@link CountTriangles} in a directed graph. Every neighbor of 
+   * this vertex in the list received from u is the target of an edge from
+   * this vertex, and both are neighbors of u, so the vertex credits u with 
+   * their number.
+   */
+  public static class CountNeighborEdges extends AbstractComputation<
+  LongWritable, CoefficientValue, NullWritable, LongIdFriendsList, 
+  IntWritable> {
+    private final LongWritable target = new LongWritable();
+    private final IntWritable count = new IntWritable();
 
     @Override
-    public Class<LongWritable> getVertexIdClass() {
-      return LongWritable.class;
+    public void compute(
+        Vertex<LongWritable, CoefficientValue, NullWritable> vertex,
+        Iterable<LongIdFriendsList> messages) throws IOException {
+      CoefficientValue value = vertex.getValue();
+      for (LongIdFriendsList msg : messages) {
+        int found = SortedLongArrayWritable.intersectionSize(msg.getFriends(),
+            value.getNeighbors());
+        if (found > 0) {
+          target.set(msg.getSourceId());
+          count.set(found);
+          sendMessage(target, count);
+        }
+      }
+      value.setLinks(0);
     }
+  }
+
+  /**
+   * Adds the edges between neighbors received to those found by the vertex
+   * itself, and computes the local clustering coefficient from the degree.
+   * In an undirected graph every such edge is a triangle, and counts in both
+   * directions. The sum of the coefficients is aggregated once per 
+   * computation instance.
+   */
+  public static class ComputeCoefficient extends AbstractComputation<
+  LongWritable, CoefficientValue, NullWritable, IntWritable, IntWritable> {
+    private boolean directed;
+    private double sum;
 
     @Override
-    public Class<LongArrayListWritable> getMessageClass() {
-      return LongArrayListWritable.class;
+    public void preSuperstep() {
+      directed = getConf().getBoolean(DIRECTED, DIRECTED_DEFAULT);
+      sum = 0;
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, CoefficientValue, NullWritable> vertex,
+        Iterable<IntWritable> messages) throws IOException {
+      CoefficientValue value = vertex.getValue();
+      double links = value.getLinks();
+      for (IntWritable msg : messages) {
+        links += msg.get();
+      }
+      if (!directed) {
+        links *= 2;
+      }
+      int edges = vertex.getNumEdges();
+      double clusteringCoefficient = 0;
+      if (edges > 1) {
+        clusteringCoefficient = links / ((double)edges*(edges-1));
+      }
+      sum += clusteringCoefficient;
+      value.setCoefficient(clusteringCoefficient);
+      vertex.voteToHalt();
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(CL_COEFFICIENT_AGGREGATOR, new DoubleWritable(sum));
     }
   }
 
+  /**
+   * Sums the triangles, or edges between neighbors, sent to the same vertex.
+   */
+  public static class SumTriangles 
+    implements MessageCombiner<LongWritable, IntWritable> {
 
+    @Override
+    public void combine(LongWritable vertexIndex, IntWritable originalMessage,
+        IntWritable messageToCombine) {
+      originalMessage.set(originalMessage.get() + messageToCombine.get());
+    }
+
+    @Override
+    public IntWritable createInitialMessage() {
+      return new IntWritable(0);
+    }
+  }
 
   /**
-   * Coordinates the execution of the algorithm.
+   * Coordinates the execution of the algorithm. A directed graph needs one
+   * superstep less, since the edges are not oriented.
    */
   public static class MasterCompute extends DefaultMasterCompute {
+    private boolean directed;
 
     @Override
     public final void initialize() throws InstantiationException,
         IllegalAccessException {
-
+      directed = getConf().getBoolean(DIRECTED, DIRECTED_DEFAULT);
       registerAggregator(CL_COEFFICIENT_AGGREGATOR, DoubleSumAggregator.class);
     }
 
     @Override
     public final void compute() {
       long superstep = getSuperstep();
-      if (superstep == 0) {
-        setComputation(SendFriendsList.class);
+      if (directed) {
+        if (superstep == 0) {
+          setComputation(SendNeighbors.class);
+        } else if (superstep == 1) {
+          setComputation(CountNeighborEdges.class);
+          setMessageCombiner(SumTriangles.class);
+        } else {
+          setComputation(ComputeCoefficient.class);
+        }
       } else {
-        setComputation(ClusteringCoefficientComputation.class);
+        if (superstep == 0) {
+          setComputation(SendIdAndDegree.class);
+        } else if (superstep == 1) {
+          setComputation(SendHigherNeighbors.class);
+        } else if (superstep == 2) {
+          setComputation(CountTriangles.class);
+          setMessageCombiner(SumTriangles.class);
+        } else {
+          setComputation(ComputeCoefficient.class);
+        }
       }
-      if (superstep == 2) {
+      if (superstep == (directed ? 3 : 4)) {
         double partialSum = ((DoubleWritable)getAggregatedValue(
             CL_COEFFICIENT_AGGREGATOR)).get();
         double globalCoefficient = partialSum/(double)getTotalNumVertices();
@@ -15,11 +15,22 @@
  */
 package ml.grafos.okapi.graphs;
 
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.combiner.MessageCombiner;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Computation;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.giraph.worker.WorkerContext;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 
@@ -38,6 +49,35 @@ import org.apache.hadoop.io.NullWritable;
  * "PEGASUS: Mining Peta-Scale Graphs", 2010
  *
  * http://www.cs.cmu.edu/~ukang/papers/PegasusKAIS.pdf
+ *
+ * Since a vertex only uses the smallest received id, the job should be run
+ * with the {@link MinCombiner}, for instance:
+ *
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.ConnectedComponents \
+ *   -c ml.grafos.okapi.graphs.ConnectedComponents\$MinCombiner \
+ *   -vif org.apache.giraph.io.formats.LongLongNullTextInputFormat \
+ *   -vip $INPUT \
+ *   -vof org.apache.giraph.io.formats.IdWithValueTextOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS
+ * </pre>
+ *
+ * The number of supersteps of this propagation grows with the diameter, which
+ * is a problem on long chains. Setting 
+ * connectedcomponents.pointer.jumping.enabled to true and adding 
+ * -mc ml.grafos.okapi.graphs.ConnectedComponents\$MasterCompute runs a
+ * Shiloach-Vishkin style algorithm instead, see {@link RequestParent}. It
+ * produces the same output in a number of rounds logarithmic in practice, 
+ * but it must be run without the {@link MinCombiner}.
+ *
+ * With the same master, setting connectedcomponents.local.unionfind.enabled
+ * to true first resolves the components among the vertices of each worker
+ * with a union-find, and then propagates labels only across the edges
+ * between workers, see {@link LocalComponents}. This needs
+ * -wc ml.grafos.okapi.graphs.ConnectedComponents\$LocalComponents and pays
+ * off with a partitioning that keeps neighbors together, like Spinner.
  */
 public class ConnectedComponents extends BasicComputation<LongWritable,
     LongWritable, NullWritable, LongWritable> {
@@ -94,4 +134,438 @@ public class ConnectedComponents extends BasicComputation<LongWritable,
     }
     vertex.voteToHalt();
   }
+
+  /**
+   * Keeps the smallest component id sent to the same vertex.
+   */
+  public static class MinCombiner
+    implements MessageCombiner<LongWritable, LongWritable> {
+
+    @Override
+    public void combine(LongWritable vertexIndex, LongWritable originalMessage,
+        LongWritable messageToCombine) {
+      if (messageToCombine.get() < originalMessage.get()) {
+        originalMessage.set(messageToCombine.get());
+      }
+    }
+
+    @Override
+    public LongWritable createInitialMessage() {
+      return new LongWritable(Long.MAX_VALUE);
+    }
+  }
+
+  /** Enables the pointer jumping algorithm */
+  public static final String POINTER_JUMPING = 
+      "connectedcomponents.pointer.jumping.enabled";
+  /** Default is the label propagation */
+  public static final boolean POINTER_JUMPING_DEFAULT = false;
+
+  /** Enables the worker-local union-find before the label propagation */
+  public static final String LOCAL_UNION_FIND = 
+      "connectedcomponents.local.unionfind.enabled";
+  /** Default is the plain label propagation */
+  public static final boolean LOCAL_UNION_FIND_DEFAULT = false;
+
+  /** Number of vertices that changed their parent in the last superstep */
+  public static final String CHANGED_AGGREGATOR = 
+      "connectedcomponents.changed";
+
+  /**
+   * First computation of the pointer jumping algorithm. The value of a
+   * vertex is its parent, a vertex of the same component with an id not
+   * larger than its own, and the roots are their own parents. Rounds of 
+   * hooking and pointer jumping build a single tree per component, which is
+   * rooted at its smallest id.
+   *
+   * In this computation, a vertex takes the smallest of its parent and the
+   * received ids as its new parent, and asks its parent for the parent of the
+   * parent. Repeating this with {@link ReplyToChildren} halves the depth of
+   * the trees, until every vertex points to a root. In the first superstep
+   * the candidates are the neighbors, so every vertex starts hooked to its
+   * smallest neighbor.
+   */
+  public static class RequestParent extends BasicComputation<LongWritable,
+      LongWritable, NullWritable, LongWritable> {
+    private long changed;
+
+    @Override
+    public void preSuperstep() {
+      changed = 0;
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      long parent = vertex.getValue().get();
+      long candidate = parent;
+      if (getSuperstep() == 0) {
+        for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+          candidate = Math.min(candidate, edge.getTargetVertexId().get());
+        }
+      }
+      for (LongWritable message : messages) {
+        candidate = Math.min(candidate, message.get());
+      }
+      if (candidate < parent) {
+        vertex.getValue().set(candidate);
+        changed++;
+      }
+      if (vertex.getValue().get() != vertex.getId().get()) {
+        sendMessage(vertex.getValue(), vertex.getId());
+      }
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(CHANGED_AGGREGATOR, new LongWritable(changed));
+    }
+  }
+
+  /**
+   * Sends the parent of a vertex to the children that asked for it.
+   */
+  public static class ReplyToChildren extends BasicComputation<LongWritable,
+      LongWritable, NullWritable, LongWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      for (LongWritable child : messages) {
+        sendMessage(child, vertex.getValue());
+      }
+    }
+  }
+
+  /**
+   * Once every vertex points to its root, sends the root to the neighbors.
+   */
+  public static class BroadcastRoot extends BasicComputation<LongWritable,
+      LongWritable, NullWritable, LongWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      sendMessageToAllEdges(vertex, vertex.getValue());
+    }
+  }
+
+  /**
+   * A vertex with a neighbor in a tree with a smaller root hooks its own root
+   * to that smaller root, by sending it to its root. The root applies the
+   * smallest such id in the next {@link RequestParent}. Since roots only hook
+   * to smaller ids, no cycles are formed. When no vertex hooks, every
+   * component is a single tree rooted at its smallest id.
+   */
+  public static class HookRoots extends BasicComputation<LongWritable,
+      LongWritable, NullWritable, LongWritable> {
+    private long hooked;
+
+    @Override
+    public void preSuperstep() {
+      hooked = 0;
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      long root = vertex.getValue().get();
+      long candidate = root;
+      for (LongWritable message : messages) {
+        candidate = Math.min(candidate, message.get());
+      }
+      if (candidate < root) {
+        if (root != vertex.getId().get()) {
+          sendMessage(vertex.getValue(), new LongWritable(candidate));
+        }
+        vertex.getValue().set(candidate);
+        hooked++;
+      }
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(CHANGED_AGGREGATOR, new LongWritable(hooked));
+    }
+  }
+
+  /**
+   * Keeps the components found among the vertices of a worker. The 
+   * union-find covers the edges of the local vertices, including their 
+   * remote endpoints, and links the larger root to the smaller one, so the
+   * root of a set is its smallest id. Before the label propagation the sets
+   * are flattened and numbered, and each set gets a label, which only 
+   * decreases, shared by all its local vertices.
+   */
+  public static class LocalComponents extends WorkerContext {
+    private final LongOpenHashSet localIds = new LongOpenHashSet();
+    private final Long2LongOpenHashMap parents = new Long2LongOpenHashMap();
+    private final Long2IntOpenHashMap sets = new Long2IntOpenHashMap();
+    private AtomicLongArray labels;
+
+    public LocalComponents() {
+      sets.defaultReturnValue(-1);
+    }
+
+    @Override
+    public void preApplication() throws InstantiationException,
+        IllegalAccessException {
+    }
+
+    @Override
+    public void preSuperstep() {
+      if (labels == null && getSuperstep() == 2) {
+        flatten();
+      }
+    }
+
+    @Override
+    public void postSuperstep() {
+    }
+
+    @Override
+    public void postApplication() {
+    }
+
+    public synchronized void addLocal(long id) {
+      localIds.add(id);
+    }
+
+    /**
+     * Only called once all local vertices have been added.
+     */
+    public boolean isLocal(long id) {
+      return localIds.contains(id);
+    }
+
+    /**
+     * Joins the set of a vertex with the sets of its neighbors.
+     */
+    public synchronized void union(long id, 
+        Iterable<Edge<LongWritable, NullWritable>> edges) {
+      long root = find(id);
+      for (Edge<LongWritable, NullWritable> edge : edges) {
+        long other = find(edge.getTargetVertexId().get());
+        if (other < root) {
+          parents.put(root, other);
+          root = other;
+        } else if (other > root) {
+          parents.put(other, root);
+        }
+      }
+    }
+
+    private long find(long id) {
+      if (!parents.containsKey(id)) {
+        parents.put(id, id);
+        return id;
+      }
+      long parent = parents.get(id);
+      while (parent != id) {
+        long grandParent = parents.get(parent);
+        parents.put(id, grandParent);
+        id = parent;
+        parent = grandParent;
+      }
+      return id;
+    }
+
+    /**
+     * Numbers the sets and labels each with its smallest id. Called once all
+     * the local edges have been added.
+     */
+    void flatten() {
+      LongArrayList roots = new LongArrayList();
+      for (long id : parents.keySet()) {
+        long root = find(id);
+        if (!sets.containsKey(root)) {
+          sets.put(root, roots.size());
+          roots.add(root);
+        }
+        sets.put(id, sets.get(root));
+      }
+      labels = new AtomicLongArray(roots.size());
+      for (int i = 0; i < roots.size(); i++) {
+        labels.set(i, roots.getLong(i));
+      }
+      parents.clear();
+    }
+
+    /**
+     * @return the index of the set of a local vertex
+     */
+    public int getSet(long id) {
+      int set = sets.get(id);
+      if (set < 0) {
+        throw new IllegalStateException("Vertex " + id + 
+            " is not in the union-find of this worker");
+      }
+      return set;
+    }
+
+    public long getLabel(int set) {
+      return labels.get(set);
+    }
+
+    /**
+     * Sets the label of a set to the given one, if it is smaller.
+     */
+    public void lowerLabel(int set, long label) {
+      long current = labels.get(set);
+      while (label < current && !labels.compareAndSet(set, current, label)) {
+        current = labels.get(set);
+      }
+    }
+  }
+
+  /**
+   * Registers the vertex as local to its worker.
+   */
+  public static class RegisterLocalVertex extends BasicComputation<
+      LongWritable, LongWritable, NullWritable, LongWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      ((LocalComponents)getWorkerContext()).addLocal(vertex.getId().get());
+    }
+  }
+
+  /**
+   * Adds the edges of the vertex to the union-find of its worker.
+   */
+  public static class UnionLocalEdges extends BasicComputation<LongWritable,
+      LongWritable, NullWritable, LongWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      ((LocalComponents)getWorkerContext()).union(vertex.getId().get(),
+          vertex.getEdges());
+    }
+  }
+
+  /**
+   * Label propagation over the local sets. A smaller label received by a 
+   * vertex lowers the label of its whole set, and every vertex of the set 
+   * whose value is larger than the label of its set takes it and sends it 
+   * over its edges to other workers. Local edges carry no messages. 
+   * 
+   * A vertex initially holds its own id, which its remote neighbors already
+   * have in their sets, so it only sends a label once it changes. Vertices
+   * do not halt, because a vertex must see the label lowered by another 
+   * vertex of its set without receiving a message.
+   */
+  public static class PropagateAcrossWorkers extends BasicComputation<
+      LongWritable, LongWritable, NullWritable, LongWritable> {
+    private LocalComponents components;
+    private long changed;
+
+    @Override
+    public void preSuperstep() {
+      components = (LocalComponents)getWorkerContext();
+      changed = 0;
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      int set = components.getSet(vertex.getId().get());
+      for (LongWritable message : messages) {
+        components.lowerLabel(set, message.get());
+      }
+      long label = components.getLabel(set);
+      if (label < vertex.getValue().get()) {
+        vertex.getValue().set(label);
+        changed++;
+        for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+          if (!components.isLocal(edge.getTargetVertexId().get())) {
+            sendMessage(edge.getTargetVertexId(), vertex.getValue());
+          }
+        }
+      }
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(CHANGED_AGGREGATOR, new LongWritable(changed));
+    }
+  }
+
+  /**
+   * Selects the algorithm. With pointer jumping, it alternates 
+   * {@link RequestParent} and {@link ReplyToChildren} until no parent changes
+   * and then runs {@link BroadcastRoot} and {@link HookRoots}, until no
+   * vertex hooks. The first jumping superstep after a hook always gets a
+   * reply, because the hooks themselves do not make the trees flat.
+   * 
+   * With the local union-find, it runs {@link RegisterLocalVertex}, 
+   * {@link UnionLocalEdges} and then {@link PropagateAcrossWorkers} until 
+   * no vertex changes. Pointer jumping takes precedence over it.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+    private boolean pointerJumping;
+    private boolean localUnionFind;
+    private boolean hooked;
+    private Class<? extends Computation> previous;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      pointerJumping = getConf().getBoolean(POINTER_JUMPING, 
+          POINTER_JUMPING_DEFAULT);
+      localUnionFind = getConf().getBoolean(LOCAL_UNION_FIND, 
+          LOCAL_UNION_FIND_DEFAULT);
+      registerAggregator(CHANGED_AGGREGATOR, LongSumAggregator.class);
+    }
+
+    @Override
+    public void compute() {
+      if (!pointerJumping) {
+        if (localUnionFind) {
+          computeLocalUnionFind();
+        }
+        return;
+      }
+      Class<? extends Computation> next;
+      long changed = getSuperstep() == 0 ? 0 :
+          ((LongWritable)getAggregatedValue(CHANGED_AGGREGATOR)).get();
+      if (getSuperstep() == 0) {
+        next = RequestParent.class;
+        hooked = true;
+      } else if (previous == RequestParent.class) {
+        next = hooked || changed > 0 ? 
+            ReplyToChildren.class : BroadcastRoot.class;
+        hooked = false;
+      } else if (previous == ReplyToChildren.class) {
+        next = RequestParent.class;
+      } else if (previous == BroadcastRoot.class) {
+        next = HookRoots.class;
+      } else if (changed == 0) {
+        haltComputation();
+        return;
+      } else {
+        next = RequestParent.class;
+        hooked = true;
+      }
+      setComputation(next);
+      previous = next;
+    }
+
+    private void computeLocalUnionFind() {
+      if (getSuperstep() == 0) {
+        setComputation(RegisterLocalVertex.class);
+      } else if (getSuperstep() == 1) {
+        setComputation(UnionLocalEdges.class);
+      } else if (getSuperstep() == 2) {
+        setComputation(PropagateAcrossWorkers.class);
+      } else if (((LongWritable)getAggregatedValue(
+          CHANGED_AGGREGATOR)).get() == 0) {
+        haltComputation();
+      }
+    }
+  }
 }
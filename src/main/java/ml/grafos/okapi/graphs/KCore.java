@@ -15,17 +15,32 @@
  */
 package ml.grafos.okapi.graphs;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 
+import ml.grafos.okapi.graphs.Triangles.IdDegreeWritable;
+
+import org.apache.giraph.edge.Edge;
 import org.apache.giraph.edge.MutableEdge;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.VertexChanges;
 import org.apache.giraph.graph.VertexResolver;
+import org.apache.giraph.io.formats.AdjacencyListTextVertexInputFormat;
+import org.apache.giraph.io.formats.TextVertexOutputFormat;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
 /**
  * <p>
@@ -42,6 +57,19 @@ import org.apache.hadoop.io.NullWritable;
  * the result in an empty graph.
  * </p>
  * <p>
+ * The {@link Coreness} computation instead finds the core number of every
+ * vertex, the largest <i>k</i> such that the vertex belongs to the k-core,
+ * in a single job and without mutating the graph. The input graph must be
+ * undirected.
+ * </p>
+ * <p>
+ * The {@link KCorePeeling} computation finds the same k-core as
+ * {@link KCoreComputation} without removing vertices or edges. Every vertex
+ * counts its live neighbors and marks its edges to removed neighbors in a
+ * bitmap, and the {@link KCoreOutputFormat} writes the vertices of the
+ * k-core with their edges within it.
+ * </p>
+ * <p>
  * http://en.wikipedia.org/wiki/Degeneracy_(graph_theory)
  * </p>
  * @author dl
@@ -106,4 +134,358 @@ public class KCore {
     }
     
   }
+
+  /**
+   * Computes the core number of every vertex, following Montresor et al.,
+   * "Distributed k-Core Decomposition", 2013.
+   * 
+   * Every vertex keeps an estimate of its core number, starting from its
+   * degree, and the last estimate received from each neighbor. The new 
+   * estimate is the largest k such that at least k neighbors have an 
+   * estimate of at least k, which never exceeds the current one. Estimates
+   * only decrease, and a vertex only sends its estimate to its neighbors when
+   * it changes, so the computation ends when all estimates are the core 
+   * numbers.
+   */
+  public static class Coreness extends BasicComputation<LongWritable, 
+  CorenessValue, NullWritable, IdDegreeWritable> {
+    private final IdDegreeWritable msg = new IdDegreeWritable();
+    private final LongWritable target = new LongWritable();
+    private int[] counts = new int[0];
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, CorenessValue, NullWritable> vertex,
+        Iterable<IdDegreeWritable> messages) throws IOException {
+      CorenessValue value = vertex.getValue();
+      if (getSuperstep() == 0) {
+        value.initialize(vertex);
+      } else {
+        for (IdDegreeWritable message : messages) {
+          value.update(message.getId(), message.getDegree());
+        }
+        int core = computeIndex(value);
+        if (core == value.getCore()) {
+          vertex.voteToHalt();
+          return;
+        }
+        value.setCore(core);
+      }
+
+      msg.set(vertex.getId().get(), value.getCore());
+      long[] neighbors = value.getNeighbors();
+      for (int i = 0; i < neighbors.length; i++) {
+        target.set(neighbors[i]);
+        sendMessage(target, msg);
+      }
+      vertex.voteToHalt();
+    }
+
+    /**
+     * @return the largest k, up to the current core, such that at least k
+     * neighbors have an estimate of at least k
+     */
+    private int computeIndex(CorenessValue value) {
+      int core = value.getCore();
+      if (counts.length < core + 1) {
+        counts = new int[core + 1];
+      }
+      Arrays.fill(counts, 0, core + 1, 0);
+      int[] estimates = value.getEstimates();
+      for (int i = 0; i < estimates.length; i++) {
+        counts[Math.min(estimates[i], core)]++;
+      }
+      int atLeast = 0;
+      for (int k = core; k > 0; k--) {
+        atLeast += counts[k];
+        if (atLeast >= k) {
+          return k;
+        }
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Value of a vertex in the {@link Coreness} computation: its current
+   * estimate, its sorted distinct neighbors and their last known estimates.
+   * Only the estimate is written in the output.
+   */
+  public static class CorenessValue implements Writable {
+    private static final long[] NO_NEIGHBORS = new long[0];
+    private static final int[] NO_ESTIMATES = new int[0];
+
+    private int core;
+    private long[] neighbors = NO_NEIGHBORS;
+    private int[] estimates = NO_ESTIMATES;
+
+    /**
+     * Collects the distinct neighbors of the vertex, without itself, and
+     * sets the estimate to their number. The estimates of the neighbors are
+     * unknown, so they do not limit the first computed index.
+     */
+    public void initialize(Vertex<LongWritable, ?, NullWritable> vertex) {
+      long[] ids = new long[vertex.getNumEdges()];
+      int n = 0;
+      for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+        if (edge.getTargetVertexId().get() != vertex.getId().get()) {
+          ids[n++] = edge.getTargetVertexId().get();
+        }
+      }
+      Arrays.sort(ids, 0, n);
+      int distinct = 0;
+      for (int i = 0; i < n; i++) {
+        if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+          ids[distinct++] = ids[i];
+        }
+      }
+      neighbors = Arrays.copyOf(ids, distinct);
+      estimates = new int[distinct];
+      Arrays.fill(estimates, Integer.MAX_VALUE);
+      core = distinct;
+    }
+
+    /**
+     * Records the estimate received from a neighbor.
+     */
+    public void update(long neighbor, int estimate) {
+      int i = Arrays.binarySearch(neighbors, neighbor);
+      if (i >= 0) {
+        estimates[i] = Math.min(estimates[i], estimate);
+      }
+    }
+
+    public int getCore() {
+      return core;
+    }
+
+    public void setCore(int core) {
+      this.core = core;
+    }
+
+    public long[] getNeighbors() {
+      return neighbors;
+    }
+
+    public int[] getEstimates() {
+      return estimates;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      core = WritableUtils.readVInt(in);
+      int n = WritableUtils.readVInt(in);
+      if (neighbors.length != n) {
+        neighbors = new long[n];
+        estimates = new int[n];
+      }
+      for (int i = 0; i < n; i++) {
+        neighbors[i] = in.readLong();
+        estimates[i] = in.readInt();
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, core);
+      WritableUtils.writeVInt(out, neighbors.length);
+      for (int i = 0; i < neighbors.length; i++) {
+        out.writeLong(neighbors[i]);
+        out.writeInt(estimates[i]);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return Integer.toString(core);
+    }
+  }
+
+  /**
+   * Peels the vertices with fewer than <i>k</i> live neighbors, like 
+   * {@link KCoreComputation}, but without mutations. A removed vertex is 
+   * marked dead and tells its live neighbors, which clear the bits of the 
+   * edges to it and decrement their live degree. The ids received in a
+   * superstep are sorted in a primitive list, so that every edge is looked
+   * up with a binary search.
+   * 
+   * The bits refer to the positions of the edges, which do not change since
+   * the graph is not mutated.
+   */
+  public static class KCorePeeling extends BasicComputation<LongWritable, 
+  PeelingValue, NullWritable, LongWritable> {
+    private int k;
+    private final LongArrayList removed = new LongArrayList();
+
+    @Override
+    public void preSuperstep() {
+      k = getConf().getInt(K_VALUE, K_VALUE_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, PeelingValue, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      PeelingValue value = vertex.getValue();
+      if (getSuperstep() == 0) {
+        value.initialize(vertex.getNumEdges());
+      } else if (value.isDead()) {
+        vertex.voteToHalt();
+        return;
+      } else {
+        removed.clear();
+        for (LongWritable id : messages) {
+          removed.add(id.get());
+        }
+        LongArrays.quickSort(removed.elements(), 0, removed.size());
+        int i = 0;
+        for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+          if (value.isLive(i) && LongArrays.binarySearch(removed.elements(),
+              0, removed.size(), edge.getTargetVertexId().get()) >= 0) {
+            value.removeEdge(i);
+          }
+          i++;
+        }
+      }
+
+      if (value.getLiveDegree() < k) {
+        value.setDead();
+        int i = 0;
+        for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+          if (value.isLive(i++)) {
+            sendMessage(edge.getTargetVertexId(), vertex.getId());
+          }
+        }
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Value of a vertex in the {@link KCorePeeling} computation: its number of
+   * live neighbors, whether it has been removed, and a bitmap of the edges 
+   * to removed neighbors.
+   */
+  public static class PeelingValue implements Writable {
+    private static final long[] NO_WORDS = new long[0];
+
+    private int liveDegree;
+    private boolean dead;
+    private long[] removedEdges = NO_WORDS;
+
+    public void initialize(int numEdges) {
+      liveDegree = numEdges;
+      dead = false;
+      removedEdges = new long[(numEdges + 63) >>> 6];
+    }
+
+    public int getLiveDegree() {
+      return liveDegree;
+    }
+
+    public boolean isDead() {
+      return dead;
+    }
+
+    public void setDead() {
+      dead = true;
+    }
+
+    /**
+     * @return true if the edge at this position leads to a live neighbor
+     */
+    public boolean isLive(int edge) {
+      return (removedEdges[edge >>> 6] & (1L << edge)) == 0;
+    }
+
+    /**
+     * Marks the edge at this position as leading to a removed neighbor.
+     */
+    public void removeEdge(int edge) {
+      removedEdges[edge >>> 6] |= 1L << edge;
+      liveDegree--;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      liveDegree = WritableUtils.readVInt(in);
+      dead = in.readBoolean();
+      int n = WritableUtils.readVInt(in);
+      if (removedEdges.length != n) {
+        removedEdges = new long[n];
+      }
+      for (int i = 0; i < n; i++) {
+        removedEdges[i] = in.readLong();
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, liveDegree);
+      out.writeBoolean(dead);
+      WritableUtils.writeVInt(out, removedEdges.length);
+      for (int i = 0; i < removedEdges.length; i++) {
+        out.writeLong(removedEdges[i]);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return Integer.toString(liveDegree);
+    }
+  }
+
+  /**
+   * Writes the k-core found by {@link KCorePeeling} in the same format as
+   * {@link ml.grafos.okapi.io.formats.AdjacencyListNoValuesTextVertexOutputFormat}.
+   * Removed vertices and edges to removed vertices are not written.
+   */
+  public static class KCoreOutputFormat extends
+    TextVertexOutputFormat<LongWritable, PeelingValue, NullWritable> {
+    /** Split delimiter */
+    public static final String LINE_TOKENIZE_VALUE = "output.delimiter";
+    /** Default split delimiter */
+    public static final String LINE_TOKENIZE_VALUE_DEFAULT =
+      AdjacencyListTextVertexInputFormat.LINE_TOKENIZE_VALUE_DEFAULT;
+
+    @Override
+    public TextVertexWriter createVertexWriter(TaskAttemptContext context) {
+      return new KCoreVertexWriter();
+    }
+
+    /**
+     * Vertex writer associated with {@link KCoreOutputFormat}.
+     */
+    protected class KCoreVertexWriter extends TextVertexWriterToEachLine {
+      /** Cached split delimeter */
+      private String delimiter;
+
+      @Override
+      public void initialize(TaskAttemptContext context) throws IOException,
+          InterruptedException {
+        super.initialize(context);
+        delimiter =
+            getConf().get(LINE_TOKENIZE_VALUE, LINE_TOKENIZE_VALUE_DEFAULT);
+      }
+
+      @Override
+      protected Text convertVertexToLine(
+          Vertex<LongWritable, PeelingValue, NullWritable> vertex)
+              throws IOException {
+        PeelingValue value = vertex.getValue();
+        if (value.isDead()) {
+          return null;
+        }
+        StringBuilder sb = new StringBuilder(vertex.getId().toString());
+        sb.append(delimiter);
+        int i = 0;
+        for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+          if (value.isLive(i++)) {
+            sb.append(delimiter).append(edge.getTargetVertexId());
+          }
+        }
+        return new Text(sb.toString());
+      }
+    }
+  }
 }
@@ -15,23 +15,30 @@
  */
 package ml.grafos.okapi.graphs;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map.Entry;
-import java.util.regex.Pattern;
-import java.util.Random;
+import java.util.Arrays;
 
+import ml.grafos.okapi.aggregators.LongSetAggregator;
 import ml.grafos.okapi.common.Parameters;
-import ml.grafos.okapi.common.data.MapWritable;
+import ml.grafos.okapi.common.data.SortedLongArrayWritable;
+import ml.grafos.okapi.utils.SourceSelector;
 
+import org.apache.giraph.combiner.MessageCombiner;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.examples.Algorithm;
+import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.master.DefaultMasterCompute;
-import org.apache.hadoop.io.BooleanWritable;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * <p>
@@ -49,16 +56,23 @@ import org.apache.hadoop.io.Text;
  * algorithm multiple times, this algorithm is more efficient.
  * </p> 
  * <p> 
- * Every vertex maintains a map with current shortest distances from each
- * source. Initially every source starts propagating their distances to their
- * neighbors. After that, if the distance from one of the sources changes, a 
- * vertex propagates only the change with respect to that source.
+ * Every source is first assigned a dense index, its position in the sorted
+ * list of source IDs, which is computed with an aggregator. Every vertex then
+ * maintains an array with the current shortest distance from each source,
+ * indexed by the source index. Initially every source starts propagating
+ * their distances to their neighbors. After that, if the distance from one of
+ * the sources changes, a vertex propagates only the change with respect to
+ * that source. The messages carry (source index, distance) pairs in primitive
+ * arrays, and the updates sent to the same vertex are merged by the
+ * {@link MinDistanceCombiner}.
  * </p> 
  * <p>
  * The execution finishes when no changes occur. At the end every vertex's
- * value holds the distance from each source. If a vertex does not contain a 
- * specific source ID, then its distance to the specific source is considered to
- * be infinite.
+ * value holds the distance from each source, written as (index,distance)
+ * pairs. If a vertex does not contain a specific source index, then its
+ * distance to the specific source is considered to be infinite. A source
+ * vertex also writes its own index as (is.source,index), which gives the
+ * mapping from indices to source IDs.
  * </p> 
  * <p>
  * Note that the larger the number of sources selected, the largest the
@@ -70,6 +84,14 @@ import org.apache.hadoop.io.Text;
  * as sources or can explicitly define list of source IDs separated by a ':'. If
  * non are specified, vertex with ID=1 will be selected as the single source.
  * </p>
+ * <p>
+ * When only the number of hops matters, set mssp.bfs.enabled to true to
+ * ignore the edge weights and run a bit-parallel breadth-first search
+ * instead. Every vertex then keeps a bitset of the sources that have reached
+ * it, and propagates a bitset of the sources that reached it in the last
+ * superstep, so that a single long covers 64 sources. The bitsets sent to
+ * the same vertex are combined with a bitwise OR.
+ * </p>
  */
 @Algorithm(
     name = "Multi-source shortest paths",
@@ -96,67 +118,85 @@ public class MultipleSourceShortestPaths {
    * Default list of vertices to select as sources.
    */
   public static final String SOURCES_LIST_DEFAULT = "1"; 
-  
-  private static final Pattern SEPARATOR = Pattern.compile("[:]");
-  private static final Text IS_SOURCE_KEY = new Text("is.source");
-  private static final BooleanWritable TRUE = new BooleanWritable(true);
 
   /**
-   * Returns true if this vertex is labeled as one of the sources.
+   * Aggregator that collects the sorted IDs of the sources.
    */
-  private static boolean isSource(
-      Vertex<LongWritable, MapWritable, FloatWritable> vertex) {
-    return vertex.getValue().get(IS_SOURCE_KEY)!=null;
-  }
+  public static final String SOURCES_AGGREGATOR = "mssp.sources";
+
+  /**
+   * Enables the bit-parallel breadth-first search, which computes hop
+   * distances and ignores the edge weights.
+   */
+  public static final String BIT_PARALLEL_BFS = "mssp.bfs.enabled";
 
   /**
-   * Initializes the value of the source vertices.
+   * Default value for the bit-parallel breadth-first search.
+   */
+  public static final boolean BIT_PARALLEL_BFS_DEFAULT = false;
+
+  /**
+   * Decides which vertices are sources, and aggregates their IDs so that every
+   * source gets a dense index.
    * @author dl
    *
    */
-  public static class InitSources extends BasicComputation<LongWritable, 
-  MapWritable, FloatWritable, MapWritable>{
+  public static class SelectSources extends BasicComputation<LongWritable, 
+  Distances, FloatWritable, DistanceUpdates> {
+    private SourceSelector selector;
+    private final SortedLongArrayWritable self = new SortedLongArrayWritable();
+    private final long[] id = new long[1];
+
+    @Override
+    public void preSuperstep() {
+      selector = new SourceSelector(
+          getConf().getFloat(SOURCES_FRACTION, SOURCES_FRACTION_DEFAULT),
+          Parameters.RANDOM_SEED.get(getConf()),
+          getConf().get(SOURCES_LIST, SOURCES_LIST_DEFAULT));
+    }
 
     @Override
     public void compute(
-        Vertex<LongWritable, MapWritable, FloatWritable> vertex,
-        Iterable<MapWritable> messages) throws IOException {
-
-      MapWritable value = new MapWritable();
-      vertex.setValue(value);
-
-      float fraction = getConf().getFloat(
-          SOURCES_FRACTION, SOURCES_FRACTION_DEFAULT);
-      if (fraction>0) {
-        Random generator;
-        if (Parameters.RANDOM_SEED.get(getConf())>0) {
-          generator = new Random(Parameters.RANDOM_SEED.get(getConf()));
-        } else {
-          generator = new Random();
-        }
-        if (generator.nextFloat()<fraction) {
-          value.put(IS_SOURCE_KEY, TRUE);
-        }
+        Vertex<LongWritable, Distances, FloatWritable> vertex,
+        Iterable<DistanceUpdates> messages) throws IOException {
+      vertex.setValue(new Distances());
+
+      if (selector.isSelected(vertex.getId().get())) {
+        id[0] = vertex.getId().get();
+        self.set(id, 1);
+        aggregate(SOURCES_AGGREGATOR, self);
       } else {
-        String[] sources = SEPARATOR.split(
-            getConf().get(SOURCES_LIST, SOURCES_LIST_DEFAULT));
-        for (String src : sources) {
-          if (vertex.getId().get() == Long.parseLong(src)) {
-            // This vertex is in the source list
-            value.put(IS_SOURCE_KEY, TRUE);
-            break;
-          }
-        }
+        vertex.voteToHalt();
       }
+    }
+  }
 
-      // If this is a source vertex, propagate distances.
-      if (isSource(vertex)) {
-        value.put(vertex.getId(), new FloatWritable(0));
-        for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
-          MapWritable distanceUpdates = new MapWritable();
-          distanceUpdates.put(vertex.getId(), edge.getValue());
-          sendMessage(edge.getTargetVertexId(), distanceUpdates);
-        }
+  /**
+   * Initializes the value of the source vertices, and propagates their
+   * distances to their neighbors.
+   * @author dl
+   *
+   */
+  public static class InitSources extends BasicComputation<LongWritable, 
+  Distances, FloatWritable, DistanceUpdates> {
+    private final DistanceUpdates distanceUpdates = new DistanceUpdates();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, Distances, FloatWritable> vertex,
+        Iterable<DistanceUpdates> messages) throws IOException {
+      SortedLongArrayWritable sources = getAggregatedValue(SOURCES_AGGREGATOR);
+      int index = LongArrays.binarySearch(sources.elements(), 0, 
+          sources.size(), vertex.getId().get());
+
+      Distances value = vertex.getValue();
+      value.setSourceIndex(index);
+      value.ensureSize(sources.size());
+      value.set(index, 0);
+      for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
+        distanceUpdates.clear();
+        distanceUpdates.add(index, edge.getValue().get());
+        sendMessage(edge.getTargetVertexId(), distanceUpdates);
       }
 
       vertex.voteToHalt();
@@ -169,45 +209,61 @@ public class MultipleSourceShortestPaths {
    *
    */
   public static class MultiSourceShortestPathsComputation 
-  extends BasicComputation<LongWritable, MapWritable, FloatWritable, 
-  MapWritable> {
+  extends BasicComputation<LongWritable, Distances, FloatWritable, 
+  DistanceUpdates> {
+    private int numSources;
+    private final SourceBitsWritable changedBits = new SourceBitsWritable();
+    private final IntArrayList changed = new IntArrayList();
+    private final DistanceUpdates distanceUpdates = new DistanceUpdates();
 
     @Override
-    public void compute(
-        Vertex<LongWritable, MapWritable, FloatWritable> vertex,
-        Iterable<MapWritable> messages) {
-
-      MapWritable distanceMap = vertex.getValue();
-      MapWritable changedDistances = new MapWritable();
+    public void preSuperstep() {
+      SortedLongArrayWritable sources = getAggregatedValue(SOURCES_AGGREGATOR);
+      numSources = sources.size();
+    }
 
-      for (MapWritable msg : messages) {
-        for (Entry entry : msg.entrySet()) {
-          LongWritable src = (LongWritable)entry.getKey();
-          FloatWritable distance = (FloatWritable)entry.getValue();
+    @Override
+    public void compute(
+        Vertex<LongWritable, Distances, FloatWritable> vertex,
+        Iterable<DistanceUpdates> messages) {
 
-          FloatWritable currentDistance = (FloatWritable)distanceMap.get(src);
+      Distances distances = vertex.getValue();
+      distances.ensureSize(numSources);
+      changedBits.clear(numSources);
 
-          if (currentDistance==null) {
-            // First time we see this source id
-            currentDistance = new FloatWritable(Float.MAX_VALUE);
-            distanceMap.put(new LongWritable(src.get()), currentDistance);
+      boolean anyChanged = false;
+      for (DistanceUpdates msg : messages) {
+        for (int i = 0; i < msg.size(); i++) {
+          int src = msg.getSourceIndex(i);
+          float distance = msg.getDistance(i);
+          if (distance<distances.get(src)) {
+            changedBits.setBit(src);
+            anyChanged = true;
+            distances.set(src, distance);
           }
+        }
+      }
 
-          if (distance.get()<currentDistance.get()) {
-            currentDistance.set(distance.get());
-            changedDistances.put(src, new FloatWritable(distance.get()));
+      // The changed sources in increasing order, as the combiner expects
+      changed.clear();
+      if (anyChanged) {
+        long[] words = changedBits.getWords();
+        for (int w = 0; w < words.length; w++) {
+          long word = words[w];
+          while (word != 0) {
+            changed.add(w * 64 + Long.numberOfTrailingZeros(word));
+            word &= word - 1;
           }
         }
       }
 
-      if (changedDistances.size()>0) {
+      if (changed.size()>0) {
         for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
-          MapWritable distanceUpdates = new MapWritable();
-          for (Entry entry : changedDistances.entrySet()) {
-            float newDistance = 
-                ((FloatWritable)entry.getValue()).get() + edge.getValue().get();
-            distanceUpdates.put(
-                (LongWritable)entry.getKey(), new FloatWritable(newDistance));
+          distanceUpdates.clear();
+          for (int i = 0; i < changed.size(); i++) {
+            int src = changed.getInt(i);
+            distanceUpdates.add(src, 
+                distances.get(src) + edge.getValue().get());
           }
           sendMessage(edge.getTargetVertexId(), distanceUpdates);
         } 
@@ -218,17 +274,468 @@ public class MultipleSourceShortestPaths {
   }
 
   /**
-   * Coordinates the execution of the algorithm.
+   * Initializes the value of the source vertices in the breadth-first search,
+   * and sends their bit to their neighbors.
+   * @author dl
+   *
+   */
+  public static class InitSourcesBfs extends AbstractComputation<LongWritable, 
+  Distances, FloatWritable, Writable, SourceBitsWritable> {
+    private final SourceBitsWritable frontier = new SourceBitsWritable();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, Distances, FloatWritable> vertex,
+        Iterable<Writable> messages) throws IOException {
+      SortedLongArrayWritable sources = getAggregatedValue(SOURCES_AGGREGATOR);
+      int index = LongArrays.binarySearch(sources.elements(), 0, 
+          sources.size(), vertex.getId().get());
+
+      Distances value = vertex.getValue();
+      value.setSourceIndex(index);
+      value.ensureSize(sources.size());
+      value.set(index, 0);
+      value.getVisited().setBit(index);
+
+      frontier.clear(sources.size());
+      frontier.setBit(index);
+      sendMessageToAllEdges(vertex, frontier);
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Implements one level of the bit-parallel breadth-first search. The
+   * sources that reach a vertex for the first time are those in the received
+   * frontier that are not yet visited, and their hop distance is the number
+   * of supersteps since the sources started.
+   * @author dl
+   *
+   */
+  public static class BitParallelBfs extends BasicComputation<LongWritable, 
+  Distances, FloatWritable, SourceBitsWritable> {
+    private int numSources;
+    private float hops;
+    private final SourceBitsWritable frontier = new SourceBitsWritable();
+
+    @Override
+    public void preSuperstep() {
+      SortedLongArrayWritable sources = getAggregatedValue(SOURCES_AGGREGATOR);
+      numSources = sources.size();
+      hops = getSuperstep() - 1;
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, Distances, FloatWritable> vertex,
+        Iterable<SourceBitsWritable> messages) {
+      Distances distances = vertex.getValue();
+      distances.ensureSize(numSources);
+      SourceBitsWritable visited = distances.getVisited();
+
+      frontier.clear(numSources);
+      for (SourceBitsWritable msg : messages) {
+        frontier.or(msg);
+      }
+      if (frontier.andNot(visited)) {
+        visited.or(frontier);
+        long[] words = frontier.getWords();
+        for (int w = 0; w < words.length; w++) {
+          long word = words[w];
+          while (word != 0) {
+            int bit = Long.numberOfTrailingZeros(word);
+            distances.set(w * 64 + bit, hops);
+            word &= word - 1;
+          }
+        }
+        sendMessageToAllEdges(vertex, frontier);
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * The value of a vertex: the shortest distance from each source found so
+   * far, indexed by the source index, and the index of the vertex itself if
+   * it is a source. Unreached sources have a distance of Float.MAX_VALUE.
+   * 
+   * In the breadth-first search, it also keeps the bitset of the sources
+   * that have reached the vertex.
+   * @author dl
+   *
+   */
+  public static class Distances implements Writable {
+    private static final float[] EMPTY = new float[0];
+
+    private int sourceIndex = -1;
+    private float[] distances = EMPTY;
+    private final SourceBitsWritable visited = new SourceBitsWritable();
+
+    /**
+     * Makes room for the distances from the given number of sources.
+     */
+    public void ensureSize(int numSources) {
+      if (distances.length < numSources) {
+        int oldSize = distances.length;
+        distances = Arrays.copyOf(distances, numSources);
+        Arrays.fill(distances, oldSize, numSources, Float.MAX_VALUE);
+      }
+    }
+
+    /**
+     * @return the sources that have reached this vertex in the 
+     * breadth-first search
+     */
+    public SourceBitsWritable getVisited() {
+      return visited;
+    }
+
+    public int size() {
+      return distances.length;
+    }
+
+    public float get(int source) {
+      return distances[source];
+    }
+
+    public void set(int source, float distance) {
+      distances[source] = distance;
+    }
+
+    public int getSourceIndex() {
+      return sourceIndex;
+    }
+
+    public void setSourceIndex(int sourceIndex) {
+      this.sourceIndex = sourceIndex;
+    }
+
+    public boolean isSource() {
+      return sourceIndex>=0;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      sourceIndex = WritableUtils.readVInt(in);
+      int n = WritableUtils.readVInt(in);
+      if (distances.length != n) {
+        distances = new float[n];
+      }
+      for (int i = 0; i < n; i++) {
+        distances[i] = in.readFloat();
+      }
+      visited.readFields(in);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, sourceIndex);
+      WritableUtils.writeVInt(out, distances.length);
+      for (int i = 0; i < distances.length; i++) {
+        out.writeFloat(distances[i]);
+      }
+      visited.write(out);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      if (isSource()) {
+        s.append("(is.source,"+sourceIndex+")");
+      }
+      for (int i = 0; i < distances.length; i++) {
+        if (distances[i]!=Float.MAX_VALUE) {
+          s.append("("+i+","+distances[i]+")");
+        }
+      }
+      return s.toString();
+    }
+  }
+
+  /**
+   * The message sent in the computation: a list of (source index, distance)
+   * pairs kept in primitive arrays, sorted by source index. The arrays are
+   * reused when the message is read.
+   * @author dl
+   *
+   */
+  public static class DistanceUpdates implements Writable {
+    private int size;
+    private int[] sources = new int[1];
+    private float[] distances = new float[1];
+
+    public int size() {
+      return size;
+    }
+
+    public int getSourceIndex(int i) {
+      return sources[i];
+    }
+
+    public float getDistance(int i) {
+      return distances[i];
+    }
+
+    public void clear() {
+      size = 0;
+    }
+
+    /**
+     * Appends a pair. The source must be larger than those already added.
+     */
+    public void add(int source, float distance) {
+      ensureCapacity(size + 1);
+      sources[size] = source;
+      distances[size] = distance;
+      size++;
+    }
+
+    /**
+     * Merges the pairs of another message into this one, keeping the 
+     * shortest distance from every source. The merge runs from the end of
+     * both lists, so that it needs no extra array.
+     */
+    public void mergeMin(DistanceUpdates other) {
+      int common = 0;
+      for (int i = 0, j = 0; i < size && j < other.size; ) {
+        if (sources[i] < other.sources[j]) {
+          i++;
+        } else if (sources[i] > other.sources[j]) {
+          j++;
+        } else {
+          common++;
+          i++;
+          j++;
+        }
+      }
+      int merged = size + other.size - common;
+      ensureCapacity(merged);
+      int i = size - 1;
+      int j = other.size - 1;
+      for (int k = merged - 1; j >= 0; k--) {
+        if (i >= 0 && sources[i] > other.sources[j]) {
+          sources[k] = sources[i];
+          distances[k] = distances[i];
+          i--;
+        } else if (i >= 0 && sources[i] == other.sources[j]) {
+          sources[k] = sources[i];
+          distances[k] = Math.min(distances[i], other.distances[j]);
+          i--;
+          j--;
+        } else {
+          sources[k] = other.sources[j];
+          distances[k] = other.distances[j];
+          j--;
+        }
+      }
+      size = merged;
+    }
+
+    private void ensureCapacity(int n) {
+      if (sources.length < n) {
+        int capacity = Math.max(n, 2 * sources.length);
+        sources = Arrays.copyOf(sources, capacity);
+        distances = Arrays.copyOf(distances, capacity);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      size = 0;
+      int n = WritableUtils.readVInt(in);
+      ensureCapacity(n);
+      for (int i = 0; i < n; i++) {
+        sources[i] = WritableUtils.readVInt(in);
+        distances[i] = in.readFloat();
+      }
+      size = n;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, size);
+      for (int i = 0; i < size; i++) {
+        WritableUtils.writeVInt(out, sources[i]);
+        out.writeFloat(distances[i]);
+      }
+    }
+  }
+
+  /**
+   * A set of source indices, kept as a bitset in an array of longs. The
+   * array only grows, and is reused when the set is read.
+   * @author dl
+   *
+   */
+  public static class SourceBitsWritable implements Writable {
+    private static final long[] EMPTY = new long[0];
+
+    /** The words past numWords are always zero. */
+    private long[] words = EMPTY;
+    private int numWords;
+
+    /**
+     * Empties the set, and makes room for the given number of sources.
+     */
+    public void clear(int numSources) {
+      int n = (numSources + 63) / 64;
+      if (words.length < n) {
+        words = new long[n];
+      } else {
+        Arrays.fill(words, 0, numWords, 0);
+      }
+      numWords = n;
+    }
+
+    public void setBit(int source) {
+      int w = source / 64;
+      if (w >= numWords) {
+        if (words.length <= w) {
+          words = Arrays.copyOf(words, w + 1);
+        }
+        numWords = w + 1;
+      }
+      words[w] |= 1L << (source % 64);
+    }
+
+    /**
+     * @return the words of the bitset, which may be longer than needed
+     */
+    public long[] getWords() {
+      return words;
+    }
+
+    /**
+     * Adds all the sources of another set to this one.
+     */
+    public void or(SourceBitsWritable other) {
+      if (other.numWords > numWords) {
+        if (words.length < other.numWords) {
+          words = Arrays.copyOf(words, other.numWords);
+        }
+        numWords = other.numWords;
+      }
+      for (int i = 0; i < other.numWords; i++) {
+        words[i] |= other.words[i];
+      }
+    }
+
+    /**
+     * Removes the sources of another set from this one.
+     * 
+     * @return true if the set is not empty afterwards
+     */
+    public boolean andNot(SourceBitsWritable other) {
+      long any = 0;
+      for (int i = 0; i < numWords; i++) {
+        if (i < other.numWords) {
+          words[i] &= ~other.words[i];
+        }
+        any |= words[i];
+      }
+      return any != 0;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      int n = WritableUtils.readVInt(in);
+      if (words.length < n) {
+        words = new long[n];
+      } else {
+        Arrays.fill(words, n, words.length, 0);
+      }
+      for (int i = 0; i < n; i++) {
+        words[i] = in.readLong();
+      }
+      numWords = n;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, numWords);
+      for (int i = 0; i < numWords; i++) {
+        out.writeLong(words[i]);
+      }
+    }
+  }
+
+  /**
+   * Combines the frontiers sent to the same vertex with a bitwise OR.
+   * @author dl
+   *
+   */
+  public static class OrSourceBits 
+  implements MessageCombiner<LongWritable, SourceBitsWritable> {
+
+    @Override
+    public void combine(LongWritable vertexIndex, 
+        SourceBitsWritable originalMessage, 
+        SourceBitsWritable messageToCombine) {
+      originalMessage.or(messageToCombine);
+    }
+
+    @Override
+    public SourceBitsWritable createInitialMessage() {
+      return new SourceBitsWritable();
+    }
+  }
+
+  /**
+   * Merges the distance updates sent to the same vertex, keeping the
+   * shortest distance from every source. Both messages are sorted by source
+   * index, so they are merged in linear time.
+   * @author dl
+   *
+   */
+  public static class MinDistanceCombiner 
+  implements MessageCombiner<LongWritable, DistanceUpdates> {
+
+    @Override
+    public void combine(LongWritable vertexIndex, 
+        DistanceUpdates originalMessage, DistanceUpdates messageToCombine) {
+      originalMessage.mergeMin(messageToCombine);
+    }
+
+    @Override
+    public DistanceUpdates createInitialMessage() {
+      return new DistanceUpdates();
+    }
+  }
+
+  /**
+   * Coordinates the execution of the algorithm. The distance updates are
+   * merged by the {@link MinDistanceCombiner}.
    */
   public static class MasterCompute extends DefaultMasterCompute {
+    private boolean bfs;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      bfs = getConf().getBoolean(BIT_PARALLEL_BFS, BIT_PARALLEL_BFS_DEFAULT);
+      registerPersistentAggregator(SOURCES_AGGREGATOR, LongSetAggregator.class);
+    }
 
     @Override
     public final void compute() {
       long superstep = getSuperstep();
       if (superstep == 0) {
-        setComputation(InitSources.class);
+        setComputation(SelectSources.class);
+        setMessageCombiner(MinDistanceCombiner.class);
+      } else if (bfs) {
+        if (superstep == 1) {
+          setComputation(InitSourcesBfs.class);
+        } else {
+          setComputation(BitParallelBfs.class);
+        }
+        setMessageCombiner(OrSourceBits.class);
       } else {
-        setComputation(MultiSourceShortestPathsComputation.class);
+        if (superstep == 1) {
+          setComputation(InitSources.class);
+        } else {
+          setComputation(MultiSourceShortestPathsComputation.class);
+        }
+        setMessageCombiner(MinDistanceCombiner.class);
       }
     }
   }
@@ -0,0 +1,446 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.common.data.LongIntMapWritable;
+import ml.grafos.okapi.graphs.similarity.SimilarityJoin.SimilarVerticesWritable;
+import ml.grafos.okapi.utils.Hashing;
+import ml.grafos.okapi.utils.SourceSelector;
+
+import org.apache.giraph.combiner.MessageCombiner;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.examples.Algorithm;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.TextVertexOutputFormat;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * <p>
+ * Monte-Carlo approximation of personalized PageRank for many seeds at once.
+ * The personalized PageRank of a vertex v for a seed s is the probability
+ * that a random walk starting at s, which stops at every step with the reset
+ * probability a, visits v, weighted by a. Every seed launches R such walks,
+ * and the personalized PageRank of v is estimated as a times the number of
+ * visits of the walks of s at v, divided by R.
+ * </p>
+ * <p>
+ * The walks are not followed one by one. A vertex receives, per seed, the
+ * number of walks that arrived at it, adds them to its visits, and sends
+ * every walk that continues to a random out-edge. All the walks sent over
+ * the same edge travel in one map from seed to walk count, and the maps
+ * sent to the same vertex are summed by the {@link SumWalkCounts} combiner.
+ * Walks stop at vertices without out-edges and after ppr.max.length steps.
+ * </p>
+ * <p>
+ * At the end, every vertex sends its visit count to each seed, and every
+ * seed keeps its top-K vertices, including itself. The output has one line
+ * per seed and vertex:
+ * </p>
+ * <pre>
+ * &lt;SeedId&gt;&lt;tab&gt;&lt;VertexId&gt;&lt;tab&gt;&lt;PPR&gt;
+ * </pre>
+ * <p>
+ * The seeds are selected by a {@link SourceSelector}, like the sources of
+ * {@link MultipleSourceShortestPaths}, either as a random fraction of the
+ * vertices or as a list of ids separated by ':'. To run:
+ * </p>
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.PersonalizedPageRank\$LaunchWalks \
+ *   -mc ml.grafos.okapi.graphs.PersonalizedPageRank\$MasterCompute \
+ *   -eif ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat \
+ *   -eip $INPUT_EDGES \
+ *   -vof ml.grafos.okapi.graphs.PersonalizedPageRank\$TopVerticesOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS \
+ *   -ca ppr.seeds.fraction=0.01
+ * </pre>
+ */
+@Algorithm(
+    name = "Personalized PageRank",
+    description = "Approximates the personalized PageRank of many seeds " +
+        "with random walks"
+    )
+public class PersonalizedPageRank {
+
+  /** Fraction of vertices to select as seeds. */
+  public static final String SEEDS_FRACTION = "ppr.seeds.fraction";
+  /** Default fraction, the seeds list is used instead. */
+  public static final float SEEDS_FRACTION_DEFAULT = -1f;
+
+  /** List of vertex ids to select as seeds. */
+  public static final String SEEDS_LIST = "ppr.seeds.list";
+  /** Default list of seeds. */
+  public static final String SEEDS_LIST_DEFAULT = "1";
+
+  /** Number of walks launched by every seed. */
+  public static final String NUM_WALKS = "ppr.walks";
+  /** Default number of walks. */
+  public static final int NUM_WALKS_DEFAULT = 100;
+
+  /** Probability that a walk stops at every step. */
+  public static final String RESET_PROBABILITY = "ppr.reset.probability";
+  /** Default reset probability. */
+  public static final float RESET_PROBABILITY_DEFAULT = 0.15f;
+
+  /** Maximum number of steps of a walk. */
+  public static final String MAX_LENGTH = "ppr.max.length";
+  /** Default maximum number of steps. */
+  public static final int MAX_LENGTH_DEFAULT = 20;
+
+  /** Number of vertices kept per seed. */
+  public static final String K = "ppr.k";
+  /** Default number of vertices kept per seed. */
+  public static final int K_DEFAULT = 10;
+
+  /**
+   * Value of a vertex: the visits of the walks of every seed, and for the
+   * seeds, the vertices with the highest personalized PageRank at the end.
+   */
+  public static class WalkVisits implements Writable {
+    private final LongIntMapWritable visits = new LongIntMapWritable();
+    private SimilarVerticesWritable top = new SimilarVerticesWritable();
+
+    public LongIntMapWritable getVisits() {
+      return visits;
+    }
+
+    public SimilarVerticesWritable getTop() {
+      return top;
+    }
+
+    public void setTop(SimilarVerticesWritable top) {
+      this.top = top;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      visits.readFields(in);
+      top.readFields(in);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      visits.write(out);
+      top.write(out);
+    }
+  }
+
+  /**
+   * Moves the walks that arrive at a vertex. A vertex keeps voting to halt
+   * only while no walk has visited it, so that it can send its visits to the
+   * seeds at the end.
+   */
+  public abstract static class WalkComputation extends BasicComputation<
+      LongWritable, WalkVisits, FloatWritable, LongIntMapWritable> {
+    /** Random seed, or non-positive to draw a random one */
+    protected long seed;
+    private float resetProbability;
+    private int maxLength;
+    private Random random;
+    /** Walks that leave the vertex, keyed by the index of their edge */
+    private final Int2ObjectOpenHashMap<LongIntMapWritable> outgoing =
+        new Int2ObjectOpenHashMap<LongIntMapWritable>();
+
+    @Override
+    public void preSuperstep() {
+      seed = Parameters.RANDOM_SEED.get(getConf());
+      resetProbability = getConf().getFloat(RESET_PROBABILITY,
+          RESET_PROBABILITY_DEFAULT);
+      maxLength = getConf().getInt(MAX_LENGTH, MAX_LENGTH_DEFAULT);
+      random = new Random();
+    }
+
+    /**
+     * Adds the walks to the visits of the vertex, and sends on those that
+     * continue.
+     */
+    protected void walk(Vertex<LongWritable, WalkVisits, FloatWritable> vertex,
+        Iterable<LongIntMapWritable> walks) {
+      if (seed > 0) {
+        // Seed every vertex and step differently
+        random.setSeed(Hashing.mix(Hashing.mix(seed, vertex.getId().get()), 
+            getSuperstep()));
+      }
+      int edges = vertex.getNumEdges();
+      boolean moves = edges > 0 && getSuperstep() < maxLength;
+      LongIntMapWritable visits = vertex.getValue().getVisits();
+      for (LongIntMapWritable message : walks) {
+        visits.addAll(message);
+        if (!moves) {
+          continue;
+        }
+        for (Long2IntMap.Entry e : message.entries()) {
+          for (int i = 0; i < e.getIntValue(); i++) {
+            if (random.nextFloat() >= resetProbability) {
+              int index = random.nextInt(edges);
+              LongIntMapWritable sent = outgoing.get(index);
+              if (sent == null) {
+                sent = new LongIntMapWritable();
+                outgoing.put(index, sent);
+              }
+              sent.add(e.getLongKey(), 1);
+            }
+          }
+        }
+      }
+
+      if (!outgoing.isEmpty()) {
+        // Visit the edges only up to the last one that a walk takes
+        int[] indices = outgoing.keySet().toIntArray();
+        Arrays.sort(indices);
+        int i = 0;
+        int next = 0;
+        for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
+          if (i++ == indices[next]) {
+            sendMessage(edge.getTargetVertexId(), outgoing.get(indices[next]));
+            if (++next == indices.length) {
+              break;
+            }
+          }
+        }
+        outgoing.clear();
+      }
+      if (visits.size() == 0) {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  /**
+   * Selects the seeds, which launch their walks.
+   */
+  public static class LaunchWalks extends WalkComputation {
+    private SourceSelector selector;
+    private int numWalks;
+    private final LongIntMapWritable launched = new LongIntMapWritable();
+
+    @Override
+    public void preSuperstep() {
+      super.preSuperstep();
+      selector = new SourceSelector(
+          getConf().getFloat(SEEDS_FRACTION, SEEDS_FRACTION_DEFAULT), seed,
+          getConf().get(SEEDS_LIST, SEEDS_LIST_DEFAULT));
+      numWalks = getConf().getInt(NUM_WALKS, NUM_WALKS_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, WalkVisits, FloatWritable> vertex,
+        Iterable<LongIntMapWritable> messages) throws IOException {
+      vertex.setValue(new WalkVisits());
+
+      launched.clear();
+      if (selector.isSelected(vertex.getId().get())) {
+        launched.add(vertex.getId().get(), numWalks);
+      }
+      walk(vertex, Arrays.asList(launched));
+    }
+  }
+
+  /**
+   * Moves the walks one step.
+   */
+  public static class AdvanceWalks extends WalkComputation {
+    @Override
+    public void compute(
+        Vertex<LongWritable, WalkVisits, FloatWritable> vertex,
+        Iterable<LongIntMapWritable> messages) throws IOException {
+      walk(vertex, messages);
+    }
+  }
+
+  /**
+   * Sends to every seed the number of visits of its walks at this vertex,
+   * keyed by the id of this vertex. Since every vertex uses a different key,
+   * the combiner merges these maps without summing anything.
+   */
+  public static class SendVisitsToSeeds extends BasicComputation<
+      LongWritable, WalkVisits, FloatWritable, LongIntMapWritable> {
+    private final LongWritable seedId = new LongWritable();
+    private final LongIntMapWritable visit = new LongIntMapWritable();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, WalkVisits, FloatWritable> vertex,
+        Iterable<LongIntMapWritable> messages) throws IOException {
+      LongIntMapWritable visits = vertex.getValue().getVisits();
+      for (Long2IntMap.Entry e : visits.entries()) {
+        seedId.set(e.getLongKey());
+        visit.clear();
+        visit.add(vertex.getId().get(), e.getIntValue());
+        sendMessage(seedId, visit);
+      }
+      visits.clear();
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Keeps the K vertices with the highest personalized PageRank of a seed.
+   */
+  public static class CollectTopVertices extends BasicComputation<
+      LongWritable, WalkVisits, FloatWritable, LongIntMapWritable> {
+    private int k;
+    private double scale;
+
+    @Override
+    public void preSuperstep() {
+      k = getConf().getInt(K, K_DEFAULT);
+      scale = getConf().getFloat(RESET_PROBABILITY,
+          RESET_PROBABILITY_DEFAULT) /
+          getConf().getInt(NUM_WALKS, NUM_WALKS_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, WalkVisits, FloatWritable> vertex,
+        Iterable<LongIntMapWritable> messages) throws IOException {
+      SimilarVerticesWritable top = new SimilarVerticesWritable(k);
+      for (LongIntMapWritable message : messages) {
+        for (Long2IntMap.Entry e : message.entries()) {
+          top.offer(e.getLongKey(), scale * e.getIntValue());
+        }
+      }
+      top.sort();
+      vertex.getValue().setTop(top);
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Sums the walk counts sent to the same vertex per seed.
+   */
+  public static class SumWalkCounts
+    implements MessageCombiner<LongWritable, LongIntMapWritable> {
+
+    @Override
+    public void combine(LongWritable vertexIndex,
+        LongIntMapWritable originalMessage,
+        LongIntMapWritable messageToCombine) {
+      originalMessage.addAll(messageToCombine);
+    }
+
+    @Override
+    public LongIntMapWritable createInitialMessage() {
+      return new LongIntMapWritable();
+    }
+  }
+
+  /**
+   * Writes one line per seed and vertex in its top-K:
+   *
+   * <SeedId><tab><VertexId><tab><PPR>
+   *
+   * Vertices that are not seeds are not written.
+   */
+  public static class TopVerticesOutputFormat extends
+    TextVertexOutputFormat<LongWritable, WalkVisits, FloatWritable> {
+    /** Split delimiter */
+    public static final String LINE_TOKENIZE_VALUE = "output.delimiter";
+    /** Default split delimiter */
+    public static final String LINE_TOKENIZE_VALUE_DEFAULT = "\t";
+
+    @Override
+    public TextVertexWriter createVertexWriter(TaskAttemptContext context) {
+      return new TopVerticesVertexWriter();
+    }
+
+    /**
+     * Vertex writer associated with {@link TopVerticesOutputFormat}.
+     */
+    protected class TopVerticesVertexWriter extends
+      TextVertexWriterToEachLine {
+      /** Cached split delimeter */
+      private String delimiter;
+
+      @Override
+      public void initialize(TaskAttemptContext context) throws IOException,
+          InterruptedException {
+        super.initialize(context);
+        delimiter =
+            getConf().get(LINE_TOKENIZE_VALUE, LINE_TOKENIZE_VALUE_DEFAULT);
+      }
+
+      @Override
+      protected Text convertVertexToLine(
+          Vertex<LongWritable, WalkVisits, FloatWritable> vertex)
+              throws IOException {
+        SimilarVerticesWritable top = vertex.getValue().getTop();
+        if (top.size() == 0) {
+          return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < top.size(); i++) {
+          if (i > 0) {
+            sb.append('\n');
+          }
+          sb.append(vertex.getId().get());
+          sb.append(delimiter).append(top.getId(i));
+          sb.append(delimiter).append(top.getScore(i));
+        }
+        return new Text(sb.toString());
+      }
+    }
+  }
+
+  /**
+   * Launches the walks, moves them for ppr.max.length steps and then
+   * collects the visits at the seeds.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+    private int maxLength;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      maxLength = getConf().getInt(MAX_LENGTH, MAX_LENGTH_DEFAULT);
+    }
+
+    @Override
+    public void compute() {
+      long superstep = getSuperstep();
+      if (superstep == 0) {
+        setComputation(LaunchWalks.class);
+      } else if (superstep <= maxLength) {
+        setComputation(AdvanceWalks.class);
+      } else if (superstep == maxLength + 1) {
+        setComputation(SendVisitsToSeeds.class);
+      } else if (superstep == maxLength + 2) {
+        setComputation(CollectTopVertices.class);
+      } else {
+        haltComputation();
+      }
+      setMessageCombiner(SumWalkCounts.class);
+    }
+  }
+}
@@ -15,11 +15,19 @@
  */
 package ml.grafos.okapi.graphs;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.combiner.MessageCombiner;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
 import org.apache.log4j.Logger;
 
 /**
@@ -29,6 +37,26 @@ import org.apache.log4j.Logger;
  * total number of vertices.
  *
  * The maximum number of supersteps is configurable.
+ *
+ * Since a vertex only uses the sum of the received contributions, the job
+ * should be run with the {@link SumCombiner}, for instance:
+ *
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.SimplePageRank \
+ *   -c ml.grafos.okapi.graphs.SimplePageRank\$SumCombiner \
+ *   -eif ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat \
+ *   -eip $INPUT_EDGES \
+ *   -vof org.apache.giraph.io.formats.IdWithValueTextOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS
+ * </pre>
+ *
+ * When also run with -mc ml.grafos.okapi.graphs.SimplePageRank\$MasterCompute,
+ * the rank of the vertices without out-edges is redistributed uniformly 
+ * through an aggregator, and the job stops as soon as the L1 norm of the 
+ * rank changes in a superstep falls to pagerank.tolerance. The same master
+ * works with {@link DeltaPageRank}, which only propagates rank changes.
  */
 public class SimplePageRank extends BasicComputation<LongWritable,
   DoubleWritable, FloatWritable, DoubleWritable> {
@@ -36,11 +64,46 @@ public class SimplePageRank extends BasicComputation<LongWritable,
   public static final int MAX_SUPERSTEPS_DEFAULT = 30;
   /** Property name for number of supersteps */
   public static final String MAX_SUPERSTEPS = "pagerank.max.supersteps";
+  /** Property name for the L1 residual at which the master halts */
+  public static final String TOLERANCE = "pagerank.tolerance";
+  /** Default tolerance, only stops at the maximum number of supersteps */
+  public static final float TOLERANCE_DEFAULT = 0f;
+  /** 
+   * Property name for the smallest accumulated change, relative to the
+   * average rank 1/N, that a vertex propagates in {@link DeltaPageRank}
+   */
+  public static final String DELTA_THRESHOLD = "pagerank.delta.threshold";
+  /** Default delta threshold */
+  public static final float DELTA_THRESHOLD_DEFAULT = 0.001f;
+
+  /** Rank of the vertices without out-edges in the last superstep */
+  public static final String DANGLING_AGGREGATOR = "pagerank.dangling";
+  /** Sum of the absolute rank changes in the last superstep */
+  public static final String RESIDUAL_AGGREGATOR = "pagerank.residual";
+
+  /** Damping factor */
+  private static final double DAMPING = 0.85;
 
   /** Logger */
   private static final Logger LOG =
     Logger.getLogger(SimplePageRank.class);
 
+  /** Whether the aggregators of the master are available */
+  private boolean aggregators;
+  private double danglingShare;
+  private double dangling;
+  private double residual;
+
+  @Override
+  public void preSuperstep() {
+    DoubleWritable danglingRank = getAggregatedValue(DANGLING_AGGREGATOR);
+    aggregators = danglingRank != null;
+    danglingShare = aggregators ? 
+        danglingRank.get() / getTotalNumVertices() : 0;
+    dangling = 0;
+    residual = 0;
+  }
+
   @Override
   public void compute(
       Vertex<LongWritable, DoubleWritable, FloatWritable> vertex,
@@ -54,7 +117,9 @@ public class SimplePageRank extends BasicComputation<LongWritable,
         sum += message.get();
       }
       DoubleWritable vertexValue =
-        new DoubleWritable((0.15f / getTotalNumVertices()) + 0.85f * sum);
+        new DoubleWritable((1 - DAMPING) / getTotalNumVertices() + 
+            DAMPING * (sum + danglingShare));
+      residual += Math.abs(vertexValue.get() - vertex.getValue().get());
       vertex.setValue(vertexValue);
     }
 
@@ -62,10 +127,210 @@ public class SimplePageRank extends BasicComputation<LongWritable,
       MAX_SUPERSTEPS, MAX_SUPERSTEPS_DEFAULT)) {
 
       long edges = vertex.getNumEdges();
-      sendMessageToAllEdges(vertex,
-          new DoubleWritable(vertex.getValue().get() / edges));
+      if (edges > 0) {
+        sendMessageToAllEdges(vertex,
+            new DoubleWritable(vertex.getValue().get() / edges));
+      } else {
+        dangling += vertex.getValue().get();
+      }
     } else {
       vertex.voteToHalt();
     }
   }
+
+  @Override
+  public void postSuperstep() {
+    if (aggregators) {
+      aggregate(DANGLING_AGGREGATOR, new DoubleWritable(dangling));
+      aggregate(RESIDUAL_AGGREGATOR, new DoubleWritable(residual));
+    }
+  }
+
+  /**
+   * Rank of a vertex, together with the change of the rank that it has not
+   * propagated yet and whether the vertex has received its base rank. Only
+   * the rank is written in the output.
+   */
+  public static class RankWithDelta implements Writable {
+    private double rank;
+    private double delta;
+    private boolean initialized;
+
+    public double getRank() {
+      return rank;
+    }
+
+    public double getDelta() {
+      return delta;
+    }
+
+    /**
+     * Adds a change to the rank and to the change not propagated yet.
+     */
+    public void add(double change) {
+      rank += change;
+      delta += change;
+    }
+
+    public void clearDelta() {
+      delta = 0;
+    }
+
+    public boolean isInitialized() {
+      return initialized;
+    }
+
+    public void setInitialized() {
+      initialized = true;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      rank = in.readDouble();
+      delta = in.readDouble();
+      initialized = in.readBoolean();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeDouble(rank);
+      out.writeDouble(delta);
+      out.writeBoolean(initialized);
+    }
+
+    @Override
+    public String toString() {
+      return Double.toString(rank);
+    }
+  }
+
+  /**
+   * Delta PageRank. Instead of its whole rank, a vertex sends the damped 
+   * change of its rank, once the changes it has accumulated exceed the 
+   * threshold. The messages a vertex receives are the change of its own 
+   * rank. Each vertex adds the base rank (1-d)/N, which is also its first
+   * change, the first time it computes from superstep 2 on. With edge input,
+   * the vertices that only appear as edge targets are created by the empty
+   * messages of superstep 0, but the total number of vertices only counts 
+   * them from superstep 2, so superstep 1 does nothing. The changes of the vertices without out-edges are 
+   * redistributed through the dangling aggregator, so this computation must
+   * be run with the {@link MasterCompute}.
+   *
+   * A vertex does not halt, because the redistributed rank reaches it without
+   * a message, but vertices whose rank no longer changes much send nothing.
+   */
+  public static class DeltaPageRank extends BasicComputation<LongWritable,
+      RankWithDelta, FloatWritable, DoubleWritable> {
+    private int maxSupersteps;
+    private double threshold;
+    private double danglingShare;
+    private double dangling;
+    private double residual;
+    private final DoubleWritable msg = new DoubleWritable();
+
+    @Override
+    public void preSuperstep() {
+      maxSupersteps = getConf().getInt(MAX_SUPERSTEPS, 
+          MAX_SUPERSTEPS_DEFAULT);
+      threshold = getConf().getFloat(DELTA_THRESHOLD, 
+          DELTA_THRESHOLD_DEFAULT) / getTotalNumVertices();
+      danglingShare = this.<DoubleWritable>getAggregatedValue(
+          DANGLING_AGGREGATOR).get() / getTotalNumVertices();
+      dangling = 0;
+      residual = 0;
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, RankWithDelta, FloatWritable> vertex,
+        Iterable<DoubleWritable> messages) {
+      if (getSuperstep() == 0) {
+        msg.set(0);
+        sendMessageToAllEdges(vertex, msg);
+        return;
+      }
+      if (getSuperstep() == 1) {
+        return;
+      }
+      RankWithDelta value = vertex.getValue();
+      double change = danglingShare;
+      if (!value.isInitialized()) {
+        change += (1 - DAMPING) / getTotalNumVertices();
+        value.setInitialized();
+      }
+      for (DoubleWritable message : messages) {
+        change += message.get();
+      }
+      value.add(change);
+      residual += Math.abs(change);
+
+      if (getSuperstep() >= maxSupersteps) {
+        vertex.voteToHalt();
+        return;
+      }
+      long edges = vertex.getNumEdges();
+      if (edges == 0) {
+        dangling += DAMPING * value.getDelta();
+        value.clearDelta();
+      } else if (Math.abs(value.getDelta()) > threshold) {
+        msg.set(DAMPING * value.getDelta() / edges);
+        sendMessageToAllEdges(vertex, msg);
+        value.clearDelta();
+      }
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(DANGLING_AGGREGATOR, new DoubleWritable(dangling));
+      aggregate(RESIDUAL_AGGREGATOR, new DoubleWritable(residual));
+    }
+  }
+
+  /**
+   * Registers the dangling and residual aggregators, and halts when the
+   * residual of the last superstep is within the tolerance. The residuals of
+   * the first two supersteps are the initialization, so they are not checked.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+    private double tolerance;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      tolerance = getConf().getFloat(TOLERANCE, TOLERANCE_DEFAULT);
+      registerAggregator(DANGLING_AGGREGATOR, DoubleSumAggregator.class);
+      registerAggregator(RESIDUAL_AGGREGATOR, DoubleSumAggregator.class);
+    }
+
+    @Override
+    public void compute() {
+      if (getSuperstep() > 2) {
+        double residual = ((DoubleWritable)getAggregatedValue(
+            RESIDUAL_AGGREGATOR)).get();
+        LOG.info("Superstep " + (getSuperstep() - 1) + " residual " + 
+            residual);
+        if (residual <= tolerance) {
+          haltComputation();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sums the contributions sent to the same vertex.
+   */
+  public static class SumCombiner
+    implements MessageCombiner<LongWritable, DoubleWritable> {
+
+    @Override
+    public void combine(LongWritable vertexIndex,
+        DoubleWritable originalMessage, DoubleWritable messageToCombine) {
+      originalMessage.set(originalMessage.get() + messageToCombine.get());
+    }
+
+    @Override
+    public DoubleWritable createInitialMessage() {
+      return new DoubleWritable(0);
+    }
+  }
 }
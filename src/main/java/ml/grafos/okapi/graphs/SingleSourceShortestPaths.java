@@ -15,12 +15,20 @@
  */
 package ml.grafos.okapi.graphs;
 
+import org.apache.giraph.aggregators.DoubleMinAggregator;
+import org.apache.giraph.aggregators.IntOverwriteAggregator;
+import org.apache.giraph.aggregators.LongOverwriteAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.examples.Algorithm;
+import org.apache.giraph.factories.DefaultVertexValueFactory;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.log4j.Logger;
 
@@ -28,6 +36,12 @@ import org.apache.log4j.Logger;
  * Implementation of the single-source shortest paths algorithm. It finds the
  * shortest distances from a specified source to all other nodes in the graph.
  * The input graph can be directed or undirected.
+ * 
+ * This computation is a plain Bellman-Ford, so a vertex may relax its edges
+ * many times before its distance is final. For weighted graphs with many
+ * light edges, use {@link DeltaStepping} with the 
+ * {@link DeltaSteppingMasterCompute} and the {@link UnreachedValueFactory}
+ * instead.
  */
 @Algorithm(
     name = "Shortest paths",
@@ -90,4 +104,194 @@ DoubleWritable, FloatWritable, DoubleWritable> {
     }
     vertex.voteToHalt();
   }
+
+  /**
+   * Distance width of the buckets in {@link DeltaStepping}. Edges with a
+   * weight up to this value are light, heavier edges are heavy.
+   */
+  public static final String DELTA = "sssp.delta";
+  /** Default bucket width */
+  public static final float DELTA_DEFAULT = 1f;
+
+  /** Index of the current bucket, set by the master */
+  public static final String BUCKET_AGGREGATOR = "sssp.delta.bucket";
+  /** Current phase, set by the master */
+  public static final String PHASE_AGGREGATOR = "sssp.delta.phase";
+  /** Number of light relaxations in the last superstep */
+  public static final String LIGHT_AGGREGATOR = "sssp.delta.light";
+  /**
+   * Smallest distance of the vertices that wait for a later bucket, or sent
+   * over a heavy edge, in the last superstep
+   */
+  public static final String PENDING_AGGREGATOR = "sssp.delta.pending";
+
+  /** Initialization of the source */
+  static final int PHASE_INIT = 0;
+  /** First superstep of a bucket, every vertex in it relaxes light edges */
+  static final int PHASE_START = 1;
+  /** Vertices in the bucket relax light edges if their distance improved */
+  static final int PHASE_LIGHT = 2;
+  /** Vertices in the bucket relax heavy edges and are settled */
+  static final int PHASE_HEAVY = 3;
+
+  /**
+   * Implementation of delta-stepping. The distances are split into buckets
+   * of width delta, which are processed in order. Only the vertices whose
+   * tentative distance falls in the current bucket relax their edges:
+   * first their light edges, repeatedly until no distance in the bucket
+   * improves, and then their heavy edges, once. A heavy edge can never
+   * improve a distance within the same bucket, so vertices do not relax
+   * their heavy edges with distances that are not final.
+   * 
+   * Vertices with a tentative distance in a later bucket do not vote to halt
+   * and wait for their bucket. They, and the heavy relaxations, report the
+   * smallest pending distance, from which the master picks the next bucket.
+   * 
+   * Vertices without out-edges are only created when they receive a message.
+   * They must start unreached, like the vertices of the input, so this
+   * computation requires the {@link UnreachedValueFactory}.
+   */
+  public static class DeltaStepping extends BasicComputation<LongWritable, 
+  DoubleWritable, FloatWritable, DoubleWritable> {
+    private long sourceId;
+    private double delta;
+    private double bucketStart;
+    private double bucketEnd;
+    private int phase;
+    private long lightRelaxations;
+    private double pending;
+    private final DoubleWritable msg = new DoubleWritable();
+
+    @Override
+    public void preSuperstep() {
+      sourceId = getConf().getLong(SOURCE_ID, SOURCE_ID_DEFAULT);
+      delta = getConf().getFloat(DELTA, DELTA_DEFAULT);
+      long bucket = this.<LongWritable>getAggregatedValue(
+          BUCKET_AGGREGATOR).get();
+      bucketStart = bucket * delta;
+      bucketEnd = (bucket + 1) * delta;
+      phase = this.<IntWritable>getAggregatedValue(PHASE_AGGREGATOR).get();
+      lightRelaxations = 0;
+      pending = Double.MAX_VALUE;
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, FloatWritable> vertex,
+        Iterable<DoubleWritable> messages) {
+      boolean isSource = vertex.getId().get() == sourceId;
+      if (phase == PHASE_INIT) {
+        vertex.setValue(new DoubleWritable(Double.MAX_VALUE));
+      }
+
+      double distance = vertex.getValue().get();
+      double minDist = phase == PHASE_INIT && isSource ? 0d : distance;
+      for (DoubleWritable message : messages) {
+        minDist = Math.min(minDist, message.get());
+      }
+      boolean improved = minDist < distance;
+      if (improved) {
+        distance = minDist;
+        vertex.setValue(new DoubleWritable(distance));
+      }
+
+      if (distance == Double.MAX_VALUE || distance < bucketStart) {
+        // Unreached, or already settled
+        vertex.voteToHalt();
+      } else if (distance >= bucketEnd || phase == PHASE_INIT) {
+        // Waits for a later bucket
+        pending = Math.min(pending, distance);
+      } else if (phase == PHASE_HEAVY) {
+        for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
+          if (edge.getValue().get() > delta) {
+            msg.set(distance + edge.getValue().get());
+            pending = Math.min(pending, msg.get());
+            sendMessage(edge.getTargetVertexId(), msg);
+          }
+        }
+        vertex.voteToHalt();
+      } else if (improved || phase == PHASE_START) {
+        for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
+          if (edge.getValue().get() <= delta) {
+            msg.set(distance + edge.getValue().get());
+            sendMessage(edge.getTargetVertexId(), msg);
+            lightRelaxations++;
+          }
+        }
+      }
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(LIGHT_AGGREGATOR, new LongWritable(lightRelaxations));
+      aggregate(PENDING_AGGREGATOR, new DoubleWritable(pending));
+    }
+  }
+
+  /**
+   * Creates the values of new vertices with an infinite distance, so that the
+   * vertices created by a message in {@link DeltaStepping} start unreached.
+   * Set it with {@link GiraphConstants#VERTEX_VALUE_FACTORY_CLASS}.
+   */
+  public static class UnreachedValueFactory extends 
+  DefaultVertexValueFactory<DoubleWritable> {
+    @Override
+    public DoubleWritable newInstance() {
+      return new DoubleWritable(Double.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Coordinates {@link DeltaStepping}. The light phase of a bucket lasts
+   * until a superstep relaxes no light edge. The heavy phase lasts one
+   * superstep, after which the next bucket is the one of the smallest
+   * pending distance.
+   */
+  public static class DeltaSteppingMasterCompute extends DefaultMasterCompute {
+    private double delta;
+    private long bucket;
+    private int phase;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      delta = getConf().getFloat(DELTA, DELTA_DEFAULT);
+      if (!UnreachedValueFactory.class.isAssignableFrom(
+          GiraphConstants.VERTEX_VALUE_FACTORY_CLASS.get(getConf()))) {
+        throw new IllegalStateException("Delta-stepping requires the " + 
+            UnreachedValueFactory.class.getName() + " as the " + 
+            GiraphConstants.VERTEX_VALUE_FACTORY_CLASS.getKey());
+      }
+      registerPersistentAggregator(BUCKET_AGGREGATOR, 
+          LongOverwriteAggregator.class);
+      registerPersistentAggregator(PHASE_AGGREGATOR, 
+          IntOverwriteAggregator.class);
+      registerAggregator(LIGHT_AGGREGATOR, LongSumAggregator.class);
+      registerAggregator(PENDING_AGGREGATOR, DoubleMinAggregator.class);
+    }
+
+    @Override
+    public void compute() {
+      if (getSuperstep() == 0) {
+        bucket = 0;
+        phase = PHASE_INIT;
+      } else if (phase == PHASE_INIT || phase == PHASE_HEAVY) {
+        double pending = ((DoubleWritable)getAggregatedValue(
+            PENDING_AGGREGATOR)).get();
+        if (pending == Double.MAX_VALUE) {
+          haltComputation();
+          return;
+        }
+        long next = (long)Math.floor(pending / delta);
+        bucket = phase == PHASE_INIT ? next : Math.max(bucket + 1, next);
+        phase = PHASE_START;
+      } else {
+        long light = ((LongWritable)getAggregatedValue(
+            LIGHT_AGGREGATOR)).get();
+        phase = light > 0 ? PHASE_LIGHT : PHASE_HEAVY;
+      }
+      setAggregatedValue(BUCKET_AGGREGATOR, new LongWritable(bucket));
+      setAggregatedValue(PHASE_AGGREGATOR, new IntWritable(phase));
+    }
+  }
 }
@@ -19,7 +19,9 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import org.apache.giraph.aggregators.DoubleSumAggregator;
 import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.combiner.MessageCombiner;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.Vertex;
@@ -38,6 +40,10 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
  * NSDI'12. This version of the algorithm assumes a weighted graph. The modified
  * algorithm has been developed by Boshmaf et al.
  * 
+ * The power iterations run for ceil(c*log10(N)) supersteps, where c is the
+ * iteration multiplier. With a positive sybilrank.tolerance, they also stop
+ * as soon as the L1 norm of the rank changes in an iteration falls to it.
+ * 
  * @author dl
  *
  */
@@ -63,6 +69,21 @@ public class SybilRank {
    */
   public static final String AGGREGATOR_NUM_TRUSTED = "AGG_NUM_TRUSTED";
   
+  /**
+   * Property name for the L1 residual at which the power iterations stop.
+   */
+  public static final String TOLERANCE = "sybilrank.tolerance";
+  
+  /**
+   * Default tolerance, the iterations only stop after c*log10(N) supersteps.
+   */
+  public static final float TOLERANCE_DEFAULT = 0f;
+  
+  /**
+   * Name of aggregator used to sum the absolute rank changes of an iteration.
+   */
+  public static final String AGGREGATOR_RESIDUAL = "AGG_RESIDUAL";
+  
   public static final LongWritable ONE = new LongWritable(1);
 
   /**
@@ -82,7 +103,8 @@ public class SybilRank {
   /**
    * This computation class is used to calculate the aggregate number of
    * trusted nodes. This value is necessary to initialize the rank of the nodes
-   * before the power iterations starts.
+   * before the power iterations starts. It also caches the degree of every
+   * vertex in its value, since the edges do not change.
    * 
    * @author dl
    *
@@ -98,6 +120,7 @@ public class SybilRank {
       if (vertex.getValue().isTrusted()) {
         aggregate(AGGREGATOR_NUM_TRUSTED, ONE);
       }
+      vertex.getValue().setDegree(computeDegree(vertex));
     }
   }
 
@@ -116,28 +139,29 @@ public class SybilRank {
   DoubleWritable, DoubleWritable> {
 
     private double totalTrust; 
+    private final DoubleWritable msg = new DoubleWritable();
     
     @Override
     public void compute(
         Vertex<LongWritable, VertexValue, DoubleWritable> vertex,
         Iterable<DoubleWritable> messages) throws IOException {
       
+      double rank = 0.0;
       if (vertex.getValue().isTrusted()) {
-        vertex.getValue().setRank(
-            totalTrust/(double)((LongWritable)getAggregatedValue(
-                AGGREGATOR_NUM_TRUSTED)).get());
-      } else {
-        vertex.getValue().setRank(0.0);
+        rank = totalTrust/(double)((LongWritable)getAggregatedValue(
+            AGGREGATOR_NUM_TRUSTED)).get();
       }
       
-      double degree = computeDegree(vertex);
-      
-      // Distribute rank to edges proportionally to the edge weights
+      // Distribute rank to edges proportionally to the edge weights. The
+      // share per unit of weight is computed once for all edges.
+      double share = rank/vertex.getValue().getDegree();
       for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
-        double distRank = 
-            vertex.getValue().getRank()*(edge.getValue().get()/degree);
-        sendMessage(edge.getTargetVertexId(), new DoubleWritable(distRank));
+        msg.set(share*edge.getValue().get());
+        sendMessage(edge.getTargetVertexId(), msg);
       }
+      
+      // Like after every iteration, the rank is normalized by the degree.
+      vertex.getValue().setRank(share);
     }
     
     @Override
@@ -164,6 +188,14 @@ public class SybilRank {
   extends AbstractComputation<LongWritable, VertexValue, DoubleWritable, 
   DoubleWritable, DoubleWritable> {
     
+    private double residual;
+    private final DoubleWritable msg = new DoubleWritable();
+    
+    @Override
+    public void preSuperstep() {
+      residual = 0.0;
+    }
+    
     @Override
     public void compute(
         Vertex<LongWritable, VertexValue, DoubleWritable> vertex,
@@ -175,27 +207,60 @@ public class SybilRank {
         newRank += message.get();
       }
       
-      double degree = computeDegree(vertex);
+      double degree = vertex.getValue().getDegree();
+      if (degree > 0) {
+        residual += Math.abs(newRank - vertex.getValue().getRank()*degree);
+      }
       
       // Distribute rank to edges proportionally to the edge weights
+      double share = newRank/degree;
       for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
-        double distRank = newRank*(edge.getValue().get()/degree);
-        sendMessage(edge.getTargetVertexId(), new DoubleWritable(distRank));
+        msg.set(share*edge.getValue().get());
+        sendMessage(edge.getTargetVertexId(), msg);
       }
       
       // The final value of the rank is normalized by the degree of the vertex.
-      vertex.getValue().setRank(newRank/degree);
+      vertex.getValue().setRank(share);
+    }
+    
+    @Override
+    public void postSuperstep() {
+      aggregate(AGGREGATOR_RESIDUAL, new DoubleWritable(residual));
+    }
+  }
+  
+  /**
+   * Sums the rank sent to the same vertex, since the vertex only uses the sum
+   * of the received rank.
+   * 
+   * @author dl
+   *
+   */
+  public static class SumRanks 
+  implements MessageCombiner<LongWritable, DoubleWritable> {
+
+    @Override
+    public void combine(LongWritable vertexIndex, 
+        DoubleWritable originalMessage, DoubleWritable messageToCombine) {
+      originalMessage.set(originalMessage.get() + messageToCombine.get());
+    }
+
+    @Override
+    public DoubleWritable createInitialMessage() {
+      return new DoubleWritable(0);
     }
   }
   
   /**
    * This implementation coordinates the execution of the SybilRank algorithm.
+   * The rank messages are summed by the {@link SumRanks} combiner.
    * 
    * @author dl
    *
    */
   public static class SybilRankMasterCompute extends DefaultMasterCompute {
     private int iterationMultiplier;
+    private float tolerance;
 
     @Override
     public void initialize() throws InstantiationException,
@@ -203,11 +268,14 @@ public class SybilRank {
       
       iterationMultiplier = getContext().getConfiguration().getInt(
           ITERATION_MULTIPLIER, ITERATION_MULTIPLIER_DEFAULT);       
+      tolerance = getContext().getConfiguration().getFloat(
+          TOLERANCE, TOLERANCE_DEFAULT);
       
       // Register the aggregator that will be used to count the number of 
       // trusted nodes.
       registerPersistentAggregator(AGGREGATOR_NUM_TRUSTED,
           LongSumAggregator.class);
+      registerAggregator(AGGREGATOR_RESIDUAL, DoubleSumAggregator.class);
     }
 
     @Override
@@ -220,6 +288,7 @@ public class SybilRank {
       } else {
         setComputation(SybilRankComputation.class);
       }
+      setMessageCombiner(SumRanks.class);
       
       // The number of power iterations we execute is equal to c*log10(N), where
       // N is the number of vertices in the graph and c is the iteration
@@ -233,13 +302,23 @@ public class SybilRank {
           haltComputation();
         }
       }
+      
+      // The residual is only computed by the power iterations.
+      if (tolerance > 0 && superstep > 2) {
+        double residual = 
+            ((DoubleWritable)getAggregatedValue(AGGREGATOR_RESIDUAL)).get();
+        if (residual <= tolerance) {
+          haltComputation();
+        }
+      }
     }
   }
 
   /**
    * Represents the state of a vertex for this algorithm. This state indicates
    * the current rank of the vertex and whether this vertex is considered
-   * trusted or not.
+   * trusted or not. It also caches the degree of the vertex, the sum of its
+   * edge weights.
    * 
    * Unless explicitly set, a vertex is initialized to be untrusted.
    * 
@@ -251,6 +330,8 @@ public class SybilRank {
     private boolean isTrusted;
     // This holds the current rank of the vertex.
     private double rank;
+    // The sum of the edge weights, computed once.
+    private double degree;
 
     public VertexValue() {
       isTrusted = false;
@@ -269,6 +350,14 @@ public class SybilRank {
       return rank;
     }
     
+    public void setDegree(double degree) {
+      this.degree = degree;
+    }
+    
+    public double getDegree() {
+      return degree;
+    }
+    
     public void setTrusted(boolean isTrusted) {
       this.isTrusted = isTrusted;
     }
@@ -281,12 +370,14 @@ public class SybilRank {
     public void readFields(DataInput in) throws IOException {
       rank = in.readDouble();
       isTrusted = in.readBoolean();
+      degree = in.readDouble();
     }
 
     @Override
     public void write(DataOutput out) throws IOException {
       out.writeDouble(rank);
       out.writeBoolean(isTrusted);
+      out.writeDouble(degree);
     }
 
     @Override
@@ -299,7 +390,8 @@ public class SybilRank {
       }
       VertexValue that = (VertexValue) o;
       if (rank != that.rank ||
-          isTrusted != that.isTrusted) {
+          isTrusted != that.isTrusted ||
+          degree != that.degree) {
         return false;
       }
       return true;
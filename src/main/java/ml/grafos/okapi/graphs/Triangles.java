@@ -1,9 +1,20 @@
 package ml.grafos.okapi.graphs;
 
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Random;
 
 import ml.grafos.okapi.common.data.LongArrayListWritable;
+import ml.grafos.okapi.common.data.SortedLongArrayWritable;
+import ml.grafos.okapi.utils.Counters;
 
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.Vertex;
@@ -11,6 +22,7 @@ import org.apache.giraph.io.formats.AdjacencyListTextVertexInputFormat;
 import org.apache.giraph.io.formats.TextVertexOutputFormat;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.giraph.utils.ArrayListWritable;
+import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
@@ -29,11 +41,153 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
  * 
  * 1) Counting unique triangles
  * 2) Finding all the unique triangles
+ * 3) Estimating the number of triangles by sampling wedges
+ * 
+ * Every triangle is found exactly once by orienting each edge from the lower
+ * to the higher endpoint of a total order on the vertices. By default the
+ * order is by (degree, id): every vertex first sends its degree to its
+ * neighbors, so that a vertex only forwards the IDs of its lower neighbors to
+ * its higher neighbors. A hub then has few higher neighbors and the number of
+ * forwarded messages is bounded by O(m^1.5), instead of O(d^2) for a hub with
+ * a low ID. Setting {@link #ORDER_BY_DEGREE} to false orders by ID only.
+ * 
+ * For counting, setting {@link #INTERSECT} switches to a different engine:
+ * instead of one message per wedge, every vertex sends its sorted list of
+ * higher neighbors once to each higher neighbor, which counts the triangles by
+ * intersecting it with its own list. This needs one message per edge, and a
+ * triangle is counted by its middle vertex in the (degree, id) order. This
+ * engine always orders by degree.
+ * 
+ * The input graph must be undirected, that is, every edge must be present in
+ * both directions.
  * 
  * @author dl
  */
 public class Triangles  {
 
+  /** Whether to orient the edges by (degree, id) instead of by id. */
+  public static final String ORDER_BY_DEGREE = "triangles.order.by.degree";
+  /** Default value for orienting by degree. */
+  public static final boolean ORDER_BY_DEGREE_DEFAULT = true;
+  /** Whether to count by intersecting neighbor lists. */
+  public static final String INTERSECT = "triangles.intersect";
+  /** Default value for counting by intersecting neighbor lists. */
+  public static final boolean INTERSECT_DEFAULT = false;
+  /** Fraction of the wedges of every vertex to sample when estimating. */
+  public static final String SAMPLE_RATE = "triangles.sample.rate";
+  /** Default sampling rate. */
+  public static final float SAMPLE_RATE_DEFAULT = 0.1f;
+  /** Maximum number of wedges sampled by a single vertex. */
+  public static final String SAMPLE_MAX_WEDGES = "triangles.sample.max.wedges";
+  /** Default maximum number of wedges sampled by a single vertex. */
+  public static final long SAMPLE_MAX_WEDGES_DEFAULT = 10000;
+  /** 
+   * Whether to keep the per-vertex triangle counts as vertex values. If 
+   * false, only the global count is computed and nothing is written by
+   * {@link TriangleOutputFormat}.
+   */
+  public static final String OUTPUT_VERTICES = "triangles.output.vertices";
+  /** Default value for keeping the per-vertex counts. */
+  public static final boolean OUTPUT_VERTICES_DEFAULT = true;
+  /** Normal quantile of the reported confidence interval. */
+  public static final String CONFIDENCE_Z = "triangles.sample.confidence.z";
+  /** Default quantile, for a 95% confidence interval. */
+  public static final float CONFIDENCE_Z_DEFAULT = 1.96f;
+
+  /** Counter group of the triangle counts. */
+  public static final String COUNTER_GROUP = "Triangles";
+  public static final String COUNTER_TRIANGLES = "Unique triangles";
+  public static final String COUNTER_ESTIMATE = "Estimated triangles";
+  public static final String COUNTER_LOWER = "Estimate lower bound";
+  public static final String COUNTER_UPPER = "Estimate upper bound";
+  public static final String COUNTER_SAMPLED = "Sampled wedges";
+  public static final String COUNTER_CLOSED = "Closed wedges";
+
+  /** Aggregator holding the global number of unique triangles. */
+  public static final String TRIANGLES_AGGREGATOR = "triangles.count";
+  private static final String ESTIMATE_AGGREGATOR = "triangles.estimate";
+  private static final String VARIANCE_AGGREGATOR = "triangles.variance";
+  private static final String SAMPLED_AGGREGATOR = "triangles.sampled";
+  private static final String CLOSED_AGGREGATOR = "triangles.closed";
+
+  /**
+   * Message carrying the ID and the degree of a vertex, used to orient the
+   * edges by (degree, id).
+   * 
+   * @author dl
+   *
+   */
+  public static class IdDegreeWritable implements Writable {
+    private long id;
+    private int degree;
+
+    public IdDegreeWritable() {
+    }
+
+    public IdDegreeWritable(long id, int degree) {
+      this.id = id;
+      this.degree = degree;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public int getDegree() {
+      return degree;
+    }
+
+    public void set(long id, int degree) {
+      this.id = id;
+      this.degree = degree;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      id = in.readLong();
+      degree = in.readInt();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(id);
+      out.writeInt(degree);
+    }
+
+    @Override
+    public String toString() {
+      return id + " " + degree;
+    }
+  }
+
+  /**
+   * @return true if vertex a comes before vertex b in the (degree, id) order
+   */
+  static boolean precedes(int degreeA, long idA, int degreeB, long idB) {
+    return degreeA < degreeB || (degreeA == degreeB && idA < idB);
+  }
+
+  /**
+   * Splits the neighbors of a vertex, which have sent their ID and degree, in
+   * those that come before and those that come after the vertex in the
+   * (degree, id) order.
+   */
+  static void splitByDegree(Vertex<LongWritable, ?, ?> vertex,
+      Iterable<IdDegreeWritable> messages, LongArrayList lower,
+      LongArrayList higher) {
+    lower.clear();
+    higher.clear();
+    long id = vertex.getId().get();
+    int degree = vertex.getNumEdges();
+    for (IdDegreeWritable msg : messages) {
+      if (precedes(msg.getDegree(), msg.getId(), degree, id)) {
+        lower.add(msg.getId());
+      } else {
+        higher.add(msg.getId());
+      }
+    }
+  }
+
   /**
    * This class is the computation class for superstep 0 and is used only to set
    * the types of I,V,E, so that the rest of the classes can be generic. 
@@ -82,6 +236,44 @@ public class Triangles  {
     }
   } 
 
+  /**
+   * This class replaces {@link PropagateId} when orienting by (degree, id).
+   * Every vertex sends its ID and degree to all its neighbors. Since every
+   * vertex then hears from all its neighbors, the lower neighbors are
+   * exactly those that {@link PropagateId} would have sent their ID, so no
+   * extra superstep is needed.
+   * 
+   * @author dl
+   *
+   */
+  public static class SendIdAndDegree 
+    extends AbstractSendIdAndDegree<Writable, Writable> {
+  }
+
+  /**
+   * The implementation of {@link SendIdAndDegree}. Other algorithms that
+   * orient the edges by (degree, id) can re-use it. They only need to extend
+   * it and specify the vertex value and edge types.
+   * 
+   * @author dl
+   *
+   * @param <V>
+   * @param <E>
+   */
+  public abstract static class AbstractSendIdAndDegree<V extends Writable,
+    E extends Writable> extends AbstractComputation<LongWritable, V, E, 
+    Writable, IdDegreeWritable> {
+    private final IdDegreeWritable msg = new IdDegreeWritable();
+
+    @Override
+    public void compute(Vertex<LongWritable, V, E> vertex, 
+        Iterable<Writable> messages) throws IOException {
+      msg.set(vertex.getId().get(), vertex.getNumEdges());
+      sendMessageToAllEdges(vertex, msg);
+      vertex.voteToHalt();
+    }
+  }
+
   /**
    * This class implements the second phase of the unique triangle counting 
    * algorithm. It forwards a received message, containing the ID of neighboring
@@ -109,6 +301,35 @@ public class Triangles  {
     }
   }
  
+  /**
+   * This class replaces {@link ForwardId} when orienting by (degree, id). It
+   * forwards the ID of every lower neighbor to every higher neighbor.
+   * 
+   * @author dl
+   *
+   */
+  public static class ForwardIdByDegree extends AbstractComputation<
+  LongWritable, Writable, Writable, IdDegreeWritable, LongWritable> {
+    private final LongArrayList lower = new LongArrayList();
+    private final LongArrayList higher = new LongArrayList();
+    private final LongWritable target = new LongWritable();
+    private final LongWritable msg = new LongWritable();
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, Writable> vertex, 
+        Iterable<IdDegreeWritable> messages) throws IOException {
+      splitByDegree(vertex, messages, lower, higher);
+      for (int i = 0; i < lower.size(); i++) {
+        msg.set(lower.getLong(i));
+        for (int j = 0; j < higher.size(); j++) {
+          target.set(higher.getLong(j));
+          sendMessage(target, msg);
+        }
+      }
+      vertex.voteToHalt();
+    }
+  }
+ 
   /**
    * This class detects whether a triangle has closed after a cycle of 
    * (i) propagating and (ii) forwarding vertex IDs. At this point, if the 
@@ -125,12 +346,24 @@ public class Triangles  {
    * Other implementations would require to iterate over all edges for every 
    * message.
    * 
+   * The counts are also summed into the {@link #TRIANGLES_AGGREGATOR}, once
+   * per computation instance.
+   * 
    * @author dl
    *
    */
   public static class CloseTrianglesAndCount extends 
   AbstractComputation<WritableComparable, Writable, Writable, 
   WritableComparable, WritableComparable> {
+    private boolean outputVertices;
+    private long triangles;
+
+    @Override
+    public void preSuperstep() {
+      outputVertices = getConf().getBoolean(OUTPUT_VERTICES, 
+          OUTPUT_VERTICES_DEFAULT);
+      triangles = 0;
+    }
 
     @Override
     public void compute(Vertex<WritableComparable, Writable, Writable> vertex, 
@@ -143,14 +376,95 @@ public class Triangles  {
           count++;
         }
       }
-      if (count>0) {
+      triangles += count;
+      if (count>0 && outputVertices) {
         vertex.setValue(new IntWritable(count));
       }
       vertex.voteToHalt();
     }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(TRIANGLES_AGGREGATOR, new LongWritable(triangles));
+    }
   }
   
   
+  /**
+   * This class implements the second phase of the intersection engine. Every
+   * vertex keeps its sorted list of higher neighbors as its value and sends
+   * it to each of them.
+   * 
+   * The vertex does not vote to halt, so that it resets its value in the
+   * next phase even if it receives no list.
+   * 
+   * @author dl
+   *
+   */
+  public static class SendHigherNeighbors extends AbstractComputation<
+  LongWritable, Writable, Writable, IdDegreeWritable, SortedLongArrayWritable> {
+    private final LongArrayList lower = new LongArrayList();
+    private final LongArrayList higher = new LongArrayList();
+    private final LongWritable target = new LongWritable();
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, Writable> vertex, 
+        Iterable<IdDegreeWritable> messages) throws IOException {
+      splitByDegree(vertex, messages, lower, higher);
+      SortedLongArrayWritable higherNeighbors = new SortedLongArrayWritable();
+      higherNeighbors.set(higher.elements(), higher.size());
+      vertex.setValue(higherNeighbors);
+      for (int i = 0; i < higherNeighbors.size(); i++) {
+        target.set(higherNeighbors.get(i));
+        sendMessage(target, higherNeighbors);
+      }
+    }
+  }
+
+  /**
+   * This class implements the last phase of the intersection engine. Every
+   * common neighbor of the received list of a lower neighbor and the list of
+   * this vertex closes a triangle in which this vertex is the middle one.
+   * 
+   * @author dl
+   *
+   */
+  public static class IntersectAndCount extends AbstractComputation<
+  LongWritable, Writable, Writable, SortedLongArrayWritable, Writable> {
+    private boolean outputVertices;
+    private long triangles;
+
+    @Override
+    public void preSuperstep() {
+      outputVertices = getConf().getBoolean(OUTPUT_VERTICES, 
+          OUTPUT_VERTICES_DEFAULT);
+      triangles = 0;
+    }
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, Writable> vertex, 
+        Iterable<SortedLongArrayWritable> messages) throws IOException {
+      SortedLongArrayWritable higherNeighbors = 
+          (SortedLongArrayWritable)vertex.getValue();
+      int count = 0;
+      for (SortedLongArrayWritable msg : messages) {
+        count += SortedLongArrayWritable.intersectionSize(msg, higherNeighbors);
+      }
+      triangles += count;
+      if (count>0 && outputVertices) {
+        vertex.setValue(new IntWritable(count));
+      } else {
+        vertex.setValue(NullWritable.get());
+      }
+      vertex.voteToHalt();
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(TRIANGLES_AGGREGATOR, new LongWritable(triangles));
+    }
+  }
+  
   /**
    * This class implements the second phase of the algorithm tha finds all
    * unique triangles (not just counting) them. The difference with the 
@@ -192,6 +506,39 @@ public class Triangles  {
     }
   }
 
+  /**
+   * This class replaces {@link ForwardIdAndSource} when orienting by 
+   * (degree, id). It sends the ID of every lower neighbor, along with the ID
+   * of the current vertex, to every higher neighbor.
+   * 
+   * @author dl
+   *
+   */
+  public static class ForwardIdAndSourceByDegree extends AbstractComputation<
+  LongWritable, Writable, Writable, IdDegreeWritable, LongArrayListWritable> {
+    private final LongArrayList lower = new LongArrayList();
+    private final LongArrayList higher = new LongArrayList();
+    private final LongWritable target = new LongWritable();
+    private final LongArrayListWritable idSrcPair = new LongArrayListWritable();
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, Writable> vertex, 
+        Iterable<IdDegreeWritable> messages) throws IOException {
+      splitByDegree(vertex, messages, lower, higher);
+      idSrcPair.clear();
+      idSrcPair.add(new LongWritable());
+      idSrcPair.add(vertex.getId());
+      for (int i = 0; i < lower.size(); i++) {
+        idSrcPair.get(0).set(lower.getLong(i));
+        for (int j = 0; j < higher.size(); j++) {
+          target.set(higher.getLong(j));
+          sendMessage(target, idSrcPair);
+        }
+      }
+      vertex.voteToHalt();
+    }
+  }
+
   /**
    * This class implements the third phase of the algorithm that finds all the
    * unique triangles (not just counting).
@@ -240,14 +587,254 @@ public class Triangles  {
   }
 
   
+  /**
+   * Message asking a vertex whether it is a neighbor of another vertex, that
+   * is, whether a sampled wedge centered at a third vertex is closed.
+   * 
+   * @author dl
+   *
+   */
+  public static class WedgeWritable implements Writable {
+    private long endpoint;
+    private long center;
+
+    public WedgeWritable() {
+    }
+
+    public long getEndpoint() {
+      return endpoint;
+    }
+
+    public long getCenter() {
+      return center;
+    }
+
+    public void set(long endpoint, long center) {
+      this.endpoint = endpoint;
+      this.center = center;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      endpoint = in.readLong();
+      center = in.readLong();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(endpoint);
+      out.writeLong(center);
+    }
+  }
+
+  /**
+   * @return the number of wedges that a vertex with the given number of 
+   * wedges samples. If it is equal to the number of wedges, the vertex checks
+   * every wedge instead of sampling.
+   */
+  static long wedgesToSample(long wedges, float rate, long maxWedges) {
+    long samples = (long)Math.ceil(rate * (double)wedges);
+    return Math.max(1, Math.min(wedges, Math.min(samples, maxWedges)));
+  }
+
+  /**
+   * This class implements the first phase of the triangle estimation. Every
+   * vertex with d neighbors has d*(d-1)/2 wedges, that is, pairs of 
+   * neighbors. It samples a fraction of them uniformly with replacement, or 
+   * all of them if the fraction is close enough to one, and asks one end of
+   * each wedge whether it is a neighbor of the other end.
+   * 
+   * @author dl
+   *
+   */
+  public static class SampleWedges extends AbstractComputation<LongWritable,
+  Writable, Writable, Writable, WedgeWritable> {
+    private final LongArrayList neighbors = new LongArrayList();
+    private final Random random = new Random();
+    private final LongWritable target = new LongWritable();
+    private final WedgeWritable wedge = new WedgeWritable();
+    private float rate;
+    private long maxWedges;
+    private long sampled;
+
+    @Override
+    public void preSuperstep() {
+      rate = getConf().getFloat(SAMPLE_RATE, SAMPLE_RATE_DEFAULT);
+      maxWedges = getConf().getLong(SAMPLE_MAX_WEDGES, 
+          SAMPLE_MAX_WEDGES_DEFAULT);
+      sampled = 0;
+    }
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, Writable> vertex, 
+        Iterable<Writable> messages) throws IOException {
+      vertex.setValue(NullWritable.get());
+      int degree = vertex.getNumEdges();
+      if (degree >= 2) {
+        neighbors.clear();
+        for (Edge<LongWritable, Writable> edge : vertex.getEdges()) {
+          neighbors.add(edge.getTargetVertexId().get());
+        }
+        long center = vertex.getId().get();
+        long wedges = (long)degree*(degree-1)/2;
+        long samples = wedgesToSample(wedges, rate, maxWedges);
+        if (samples == wedges) {
+          for (int i = 0; i < degree; i++) {
+            for (int j = i+1; j < degree; j++) {
+              askClosed(neighbors.getLong(i), neighbors.getLong(j), center);
+            }
+          }
+        } else {
+          for (long k = 0; k < samples; k++) {
+            int i = random.nextInt(degree);
+            int j = random.nextInt(degree-1);
+            if (j >= i) {
+              j++;
+            }
+            askClosed(neighbors.getLong(i), neighbors.getLong(j), center);
+          }
+        }
+        sampled += samples;
+      }
+      vertex.voteToHalt();
+    }
+
+    private void askClosed(long from, long to, long center) {
+      target.set(from);
+      wedge.set(to, center);
+      sendMessage(target, wedge);
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(SAMPLED_AGGREGATOR, new LongWritable(sampled));
+    }
+  }
+
+  /**
+   * This class implements the second phase of the triangle estimation. A
+   * vertex checks every wedge it was asked about and sends to the center of
+   * the wedges the number of them that are closed, one message per center.
+   * 
+   * For efficiency, it is better to use a StrictRandomAccessOutEdges 
+   * implementation, as for {@link CloseTrianglesAndCount}.
+   * 
+   * @author dl
+   *
+   */
+  public static class CheckWedges extends AbstractComputation<LongWritable,
+  Writable, Writable, WedgeWritable, IntWritable> {
+    private final Long2IntOpenHashMap closed = new Long2IntOpenHashMap();
+    private final LongWritable endpoint = new LongWritable();
+    private final LongWritable target = new LongWritable();
+    private final IntWritable count = new IntWritable();
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, Writable> vertex, 
+        Iterable<WedgeWritable> messages) throws IOException {
+      closed.clear();
+      for (WedgeWritable msg : messages) {
+        endpoint.set(msg.getEndpoint());
+        if (vertex.getEdgeValue(endpoint)!=null) {
+          closed.addTo(msg.getCenter(), 1);
+        }
+      }
+      for (Long2IntMap.Entry entry : closed.long2IntEntrySet()) {
+        target.set(entry.getLongKey());
+        count.set(entry.getIntValue());
+        sendMessage(target, count);
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * This class implements the last phase of the triangle estimation. Every
+   * vertex scales the fraction of its sampled wedges that are closed to all
+   * its wedges, which is an unbiased estimate of the number of triangles it
+   * belongs to, and aggregates the estimate and its variance. Since every
+   * triangle closes three wedges, the global estimate is a third of the sum.
+   * 
+   * @author dl
+   *
+   */
+  public static class EstimateTriangles extends AbstractComputation<
+  LongWritable, Writable, Writable, IntWritable, Writable> {
+    private boolean outputVertices;
+    private float rate;
+    private long maxWedges;
+    private double estimateSum;
+    private double varianceSum;
+    private long closedSum;
+
+    @Override
+    public void preSuperstep() {
+      outputVertices = getConf().getBoolean(OUTPUT_VERTICES, 
+          OUTPUT_VERTICES_DEFAULT);
+      rate = getConf().getFloat(SAMPLE_RATE, SAMPLE_RATE_DEFAULT);
+      maxWedges = getConf().getLong(SAMPLE_MAX_WEDGES, 
+          SAMPLE_MAX_WEDGES_DEFAULT);
+      estimateSum = 0;
+      varianceSum = 0;
+      closedSum = 0;
+    }
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, Writable> vertex, 
+        Iterable<IntWritable> messages) throws IOException {
+      long closed = 0;
+      for (IntWritable msg : messages) {
+        closed += msg.get();
+      }
+      int degree = vertex.getNumEdges();
+      long wedges = (long)degree*(degree-1)/2;
+      long samples = wedgesToSample(wedges, rate, maxWedges);
+      double fraction = (double)closed/samples;
+      double estimate = wedges*fraction;
+      if (samples < wedges && samples > 1) {
+        varianceSum += 
+            (double)wedges*wedges*fraction*(1-fraction)/(samples-1);
+      }
+      estimateSum += estimate;
+      closedSum += closed;
+      if (estimate>0 && outputVertices) {
+        vertex.setValue(new DoubleWritable(estimate));
+      }
+      vertex.voteToHalt();
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(ESTIMATE_AGGREGATOR, new DoubleWritable(estimateSum));
+      aggregate(VARIANCE_AGGREGATOR, new DoubleWritable(varianceSum));
+      aggregate(CLOSED_AGGREGATOR, new LongWritable(closedSum));
+    }
+  }
+
   /**
    * Use this MasterCompute implementation to count the number of unique 
    * triangles.
    * 
+   * The global count is reported in the {@link #COUNTER_TRIANGLES} counter. 
+   * Set {@link #OUTPUT_VERTICES} to false if the per-vertex counts are not
+   * needed.
+   * 
    * @author dl
    *
    */
   public static class TriangleCount extends DefaultMasterCompute {
+    private boolean orderByDegree;
+    private boolean intersect;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      intersect = getConf().getBoolean(INTERSECT, INTERSECT_DEFAULT);
+      orderByDegree = intersect || getConf().getBoolean(ORDER_BY_DEGREE,
+          ORDER_BY_DEGREE_DEFAULT);
+      registerAggregator(TRIANGLES_AGGREGATOR, LongSumAggregator.class);
+    }
+
     @Override
     public void compute() {
       long superstep = getSuperstep();  
@@ -256,18 +843,42 @@ public class Triangles  {
         setIncomingMessage(LongWritable.class);
         setOutgoingMessage(LongWritable.class);
       } else if (superstep==1) {
-        setComputation(PropagateId.class);
-        setIncomingMessage(LongWritable.class);
-        setOutgoingMessage(LongWritable.class);
+        if (orderByDegree) {
+          setComputation(SendIdAndDegree.class);
+          setIncomingMessage(LongWritable.class);
+          setOutgoingMessage(IdDegreeWritable.class);
+        } else {
+          setComputation(PropagateId.class);
+          setIncomingMessage(LongWritable.class);
+          setOutgoingMessage(LongWritable.class);
+        }
       } else if (superstep==2) {
-        setComputation(ForwardId.class);
-        setIncomingMessage(LongWritable.class);
+        if (intersect) {
+          setComputation(SendHigherNeighbors.class);
+          setIncomingMessage(IdDegreeWritable.class);
+          setOutgoingMessage(SortedLongArrayWritable.class);
+        } else if (orderByDegree) {
+          setComputation(ForwardIdByDegree.class);
+          setIncomingMessage(IdDegreeWritable.class);
+          setOutgoingMessage(LongWritable.class);
+        } else {
+          setComputation(ForwardId.class);
+          setIncomingMessage(LongWritable.class);
+          setOutgoingMessage(LongWritable.class);
+        }
+      } else if (intersect) {
+        setComputation(IntersectAndCount.class);
+        setIncomingMessage(SortedLongArrayWritable.class);
         setOutgoingMessage(LongWritable.class);
       } else {
         setComputation(CloseTrianglesAndCount.class);
         setIncomingMessage(LongWritable.class);
         setOutgoingMessage(LongWritable.class);
       } 
+      if (superstep==4) {
+        Counters.updateCounter(getContext(), COUNTER_GROUP, COUNTER_TRIANGLES,
+            ((LongWritable)getAggregatedValue(TRIANGLES_AGGREGATOR)).get());
+      }
     }
   }
   
@@ -279,6 +890,14 @@ public class Triangles  {
    *
    */
   public static class TriangleFind extends DefaultMasterCompute {
+    private boolean orderByDegree;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      orderByDegree = getConf().getBoolean(ORDER_BY_DEGREE,
+          ORDER_BY_DEGREE_DEFAULT);
+    }
     
     @Override
     public void compute() {
@@ -288,12 +907,23 @@ public class Triangles  {
         setIncomingMessage(LongWritable.class);
         setOutgoingMessage(LongWritable.class);
       } else if (superstep==1) {
-        setComputation(PropagateId.class);
-        setIncomingMessage(LongWritable.class);
-        setOutgoingMessage(LongWritable.class);
+        if (orderByDegree) {
+          setComputation(SendIdAndDegree.class);
+          setIncomingMessage(LongWritable.class);
+          setOutgoingMessage(IdDegreeWritable.class);
+        } else {
+          setComputation(PropagateId.class);
+          setIncomingMessage(LongWritable.class);
+          setOutgoingMessage(LongWritable.class);
+        }
       } else if (superstep==2) {
-        setComputation(ForwardIdAndSource.class);
-        setIncomingMessage(LongWritable.class);
+        if (orderByDegree) {
+          setComputation(ForwardIdAndSourceByDegree.class);
+          setIncomingMessage(IdDegreeWritable.class);
+        } else {
+          setComputation(ForwardIdAndSource.class);
+          setIncomingMessage(LongWritable.class);
+        }
         setOutgoingMessage(LongArrayListWritable.class);
       } else {
         setComputation(FindTriangles.class);
@@ -304,6 +934,74 @@ public class Triangles  {
   }
   
 
+  /**
+   * Use this MasterCompute implementation to estimate the number of triangles
+   * by sampling wedges, for instance when an exact count is too expensive.
+   * 
+   * The value of every vertex that belongs to a triangle is the estimated
+   * number of triangles it belongs to. As in {@link TriangleCount}, vertices
+   * with an estimate of 0 are not written, and none are if 
+   * {@link #OUTPUT_VERTICES} is false. The global estimate and its confidence
+   * interval are reported as counters in the {@link #COUNTER_GROUP} group.
+   * The interval is estimate +/- z*sigma, with z set by {@link #CONFIDENCE_Z},
+   * where sigma is estimated from the sample, assuming that the estimates of
+   * the individual vertices are independent and approximately normal.
+   * 
+   * With the sampling rate set to 1, every wedge is checked and the count is
+   * exact.
+   * 
+   * @author dl
+   *
+   */
+  public static class ApproximateTriangleCount extends DefaultMasterCompute {
+    
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregator(ESTIMATE_AGGREGATOR, DoubleSumAggregator.class);
+      registerAggregator(VARIANCE_AGGREGATOR, DoubleSumAggregator.class);
+      // Aggregated in superstep 0 but reported after superstep 2.
+      registerPersistentAggregator(SAMPLED_AGGREGATOR, 
+          LongSumAggregator.class);
+      registerAggregator(CLOSED_AGGREGATOR, LongSumAggregator.class);
+    }
+
+    @Override
+    public void compute() {
+      long superstep = getSuperstep();  
+      if (superstep==0) {
+        setComputation(SampleWedges.class);
+        setIncomingMessage(LongWritable.class);
+        setOutgoingMessage(WedgeWritable.class);
+      } else if (superstep==1) {
+        setComputation(CheckWedges.class);
+        setIncomingMessage(WedgeWritable.class);
+        setOutgoingMessage(IntWritable.class);
+      } else if (superstep==2) {
+        setComputation(EstimateTriangles.class);
+        setIncomingMessage(IntWritable.class);
+        setOutgoingMessage(IntWritable.class);
+      } else {
+        double estimate = ((DoubleWritable)getAggregatedValue(
+            ESTIMATE_AGGREGATOR)).get()/3;
+        double sigma = Math.sqrt(((DoubleWritable)getAggregatedValue(
+            VARIANCE_AGGREGATOR)).get())/3;
+        double z = getConf().getFloat(CONFIDENCE_Z, CONFIDENCE_Z_DEFAULT);
+        Counters.updateCounter(getContext(), COUNTER_GROUP, COUNTER_ESTIMATE,
+            Math.round(estimate));
+        Counters.updateCounter(getContext(), COUNTER_GROUP, COUNTER_LOWER,
+            Math.round(Math.max(0, estimate-z*sigma)));
+        Counters.updateCounter(getContext(), COUNTER_GROUP, COUNTER_UPPER,
+            Math.round(estimate+z*sigma));
+        Counters.updateCounter(getContext(), COUNTER_GROUP, COUNTER_SAMPLED,
+            ((LongWritable)getAggregatedValue(SAMPLED_AGGREGATOR)).get());
+        Counters.updateCounter(getContext(), COUNTER_GROUP, COUNTER_CLOSED,
+            ((LongWritable)getAggregatedValue(CLOSED_AGGREGATOR)).get());
+        haltComputation();
+      }
+    }
+  }
+
   /**
    * This class is similar to the {@link IdWithValueTextVertexOutputFormat}, only
    * if the value of a vertex is null or of type NullWritable, it passes to the
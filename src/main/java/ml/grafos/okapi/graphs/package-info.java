@@ -0,0 +1,26 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Graph algorithms.
+ *
+ * The computations of this package and of its subpackages keep the target
+ * ids and the messages they send in fields, and set them again for every
+ * message instead of allocating new objects. This is safe because Giraph
+ * serializes a message, together with its target id, as soon as it is
+ * sent. Vertex and edge values may be kept by reference instead, so new
+ * values are still allocated when set.
+ */
+package ml.grafos.okapi.graphs;
@@ -15,12 +15,17 @@
  */
 package ml.grafos.okapi.graphs.similarity;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
 import ml.grafos.okapi.common.data.LongArrayListWritable;
+import ml.grafos.okapi.common.data.LongDoubleMapWritable;
 
+import org.apache.giraph.combiner.MessageCombiner;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
@@ -60,6 +65,14 @@ import com.google.common.primitives.Longs;
  * 
  * To get the approximate Adamic-Adar similarity 
  * set the adamicadar.approximation.enabled parameter to true.
+ * 
+ * To get the exact similarity while keeping one value per pair at the
+ * receivers, set the adamicadar.pairs.enabled parameter to true. In this mode
+ * every vertex still sends its contribution with its neighbor list, but a
+ * combiner sums the contributions to the same pair, instead of keeping one
+ * list per common neighbor. Vertices with more than
+ * adamicadar.pairs.max.fanout neighbors do not contribute, since they would
+ * add a number of pairs quadratic in their degree.
  *
  */
 public class AdamicAdar {
@@ -96,6 +109,18 @@ public class AdamicAdar {
   /** Default value for distance conversion */
   public static final boolean DISTANCE_CONVERSION_DEFAULT = false;
 
+  /** Enables sending the contributions to the pairs of neighbors */
+  public static final String ADAMICADAR_PAIRS = "adamicadar.pairs.enabled";
+
+  /** Default value for sending the contributions to pairs */
+  public static final boolean ADAMICADAR_PAIRS_DEFAULT = false;
+
+  /** Vertices with more neighbors than this do not send contributions */
+  public static final String PAIRS_MAX_FANOUT = "adamicadar.pairs.max.fanout";
+
+  /** Default maximum degree of a vertex that sends contributions */
+  public static final int PAIRS_MAX_FANOUT_DEFAULT = 1000;
+
   /**
    * Implements the first step in the Adamic-Adar similarity computation.
    * Each vertex computes the log of its inverse degree and sets this value
@@ -395,6 +420,200 @@ public class AdamicAdar {
   }
 
 
+  /**
+   * Implements the first step of the Adamic-Adar similarity computed from the
+   * pairs of neighbors. Each vertex sends to every neighbor one message with
+   * its own value (the log of its inverse degree) and the list of its
+   * neighbors, since it is a common neighbor of the receiver and each of
+   * them. Vertices with more than adamicadar.pairs.max.fanout neighbors send
+   * nothing.
+   *
+   */
+  public static class SendPairContributions extends BasicComputation<LongWritable,
+    DoubleWritable, DoubleWritable, PairContributions> {
+
+    int maxFanout;
+    PairContributions msg = new PairContributions();
+
+    @Override
+    public void preSuperstep() {
+      maxFanout = getConf().getInt(PAIRS_MAX_FANOUT, PAIRS_MAX_FANOUT_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<PairContributions> messages) throws IOException {
+      int degree = vertex.getNumEdges();
+      if (degree < 2 || degree > maxFanout) {
+        return;
+      }
+      msg.clear();
+      for (Edge<LongWritable, DoubleWritable> e : vertex.getEdges()) {
+        msg.addNeighbor(e.getTargetVertexId().get());
+      }
+      msg.setContribution(vertex.getValue().get());
+      sendMessageToAllEdges(vertex, msg);
+    }
+  }
+
+  /**
+   * The message of the pairs mode. As sent, it holds the contribution of one
+   * common neighbor and the list of its neighbors, so that it costs 8 bytes
+   * per neighbor on the wire, like the lists of the exact mode. When
+   * messages are combined, the lists are folded into a map from the other
+   * vertex of each pair to the sum of the contributions, so a receiver keeps
+   * one value per pair instead of one list per common neighbor.
+   *
+   */
+  public static class PairContributions implements Writable {
+
+    private double contribution;
+    private final LongArrayList neighbors = new LongArrayList();
+    private final LongDoubleMapWritable sums = new LongDoubleMapWritable();
+
+    public void clear() {
+      contribution = 0;
+      neighbors.clear();
+      sums.clear();
+    }
+
+    public void setContribution(double contribution) {
+      this.contribution = contribution;
+    }
+
+    public void addNeighbor(long id) {
+      neighbors.add(id);
+    }
+
+    /**
+     * Moves the neighbor list into the map of sums.
+     */
+    private void foldNeighbors() {
+      long[] ids = neighbors.elements();
+      for (int i = 0; i < neighbors.size(); i++) {
+        sums.add(ids[i], contribution);
+      }
+      neighbors.clear();
+    }
+
+    /**
+     * Adds the contributions of another message to this one.
+     */
+    public void addAll(PairContributions other) {
+      foldNeighbors();
+      long[] ids = other.neighbors.elements();
+      for (int i = 0; i < other.neighbors.size(); i++) {
+        sums.add(ids[i], other.contribution);
+      }
+      sums.addAll(other.sums);
+    }
+
+    /**
+     * @return the summed contribution for each vertex that forms a pair
+     *         with the receiver
+     */
+    public Iterable<Long2DoubleMap.Entry> entries() {
+      foldNeighbors();
+      return sums.entries();
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      contribution = in.readDouble();
+      neighbors.clear();
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        neighbors.add(in.readLong());
+      }
+      sums.readFields(in);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeDouble(contribution);
+      out.writeInt(neighbors.size());
+      long[] ids = neighbors.elements();
+      for (int i = 0; i < neighbors.size(); i++) {
+        out.writeLong(ids[i]);
+      }
+      sums.write(out);
+    }
+  }
+
+  /**
+   * Sums the contributions sent to the same vertex for the same pair.
+   */
+  public static class SumPairContributions
+    implements MessageCombiner<LongWritable, PairContributions> {
+
+    @Override
+    public void combine(LongWritable vertexIndex,
+        PairContributions originalMessage,
+        PairContributions messageToCombine) {
+      originalMessage.addAll(messageToCombine);
+    }
+
+    @Override
+    public PairContributions createInitialMessage() {
+      return new PairContributions();
+    }
+  }
+
+  /**
+   * Adds the received contributions to the edges they refer to. Pairs that
+   * are not connected by an edge are ignored.
+   *
+   */
+  public static class AdamicAdarPairs extends BasicComputation<LongWritable,
+    DoubleWritable, DoubleWritable, PairContributions> {
+
+    boolean conversionEnabled;
+    LongWritable id = new LongWritable();
+
+    @Override
+    public void preSuperstep() {
+      conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION, DISTANCE_CONVERSION_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<PairContributions> messages) throws IOException {
+      for (PairContributions msg : messages) {
+        for (Long2DoubleMap.Entry e : msg.entries()) {
+          if (e.getLongKey() == vertex.getId().get()) {
+            continue;
+          }
+          id.set(e.getLongKey());
+          DoubleWritable currentEdgeValue = vertex.getEdgeValue(id);
+          if (currentEdgeValue != null) {
+            vertex.setEdgeValue(id, new DoubleWritable(currentEdgeValue.get()
+                + e.getDoubleValue()));
+          }
+        }
+      }
+      if (!conversionEnabled) {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  public static class ScaleToDistancePairs extends BasicComputation<LongWritable,
+    DoubleWritable, DoubleWritable, PairContributions> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<PairContributions> messages) throws IOException {
+      for (Edge<LongWritable, DoubleWritable> e: vertex.getEdges()) {
+        vertex.setEdgeValue(e.getTargetVertexId(),
+            new DoubleWritable(e.getValue().get()*(-1.0)));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
   /**
    * Coordinates the execution of the algorithm.
    */
@@ -402,6 +621,7 @@ public class AdamicAdar {
 
     boolean approximationEnabled;
     boolean conversionEnabled;
+    boolean pairsEnabled;
 
     @Override
     public final void initialize() throws InstantiationException,
@@ -409,6 +629,8 @@ public class AdamicAdar {
       approximationEnabled = getConf().getBoolean(
           ADAMICADAR_APPROXIMATION, ADAMICADAR_APPROXIMATION_DEFAULT);
       conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION, DISTANCE_CONVERSION_DEFAULT);
+      pairsEnabled = getConf().getBoolean(
+          ADAMICADAR_PAIRS, ADAMICADAR_PAIRS_DEFAULT);
     }
 
     @Override
@@ -418,7 +640,18 @@ public class AdamicAdar {
 	    	  setComputation(ComputeLogOfInverseDegree.class);
 	      }
 	      else {
-		      if (approximationEnabled) {
+		      if (pairsEnabled) {
+		        if (superstep == 1) {
+		          setComputation(SendPairContributions.class);
+		          setMessageCombiner(SumPairContributions.class);
+		        } else if (superstep == 2) {
+		          setComputation(AdamicAdarPairs.class);
+		        } else {
+		        	if (conversionEnabled) {
+		        		setComputation(ScaleToDistancePairs.class);
+		        	}
+		        }
+		      } else if (approximationEnabled) {
 		        if (superstep == 1) {
 		          setComputation(SendFriendsListAndValueBloomFilter.class);
 		        } else if (superstep == 2) {
@@ -15,13 +15,16 @@
  */
 package ml.grafos.okapi.graphs.similarity;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
-import ml.grafos.okapi.common.computation.SendFriends;
-import ml.grafos.okapi.common.data.LongArrayListWritable;
 import ml.grafos.okapi.common.data.MessageWrapper;
+import ml.grafos.okapi.common.data.SortedLongArrayWritable;
+import ml.grafos.okapi.utils.Hashing;
 
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.BasicComputation;
@@ -30,6 +33,7 @@ import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.bloom.BloomFilter;
 import org.apache.hadoop.util.bloom.Key;
 import org.apache.hadoop.util.hash.Hash;
@@ -63,6 +67,12 @@ import com.google.common.primitives.Longs;
  * in the command with the SendFriendsBloomFilter class and set the 
  * jaccard.approximation.enabled parameter to true.
  * 
+ * Alternatively, to estimate the similarity from MinHash signatures, replace
+ * the SendFriendsList class with the SendFriendsMinHash class and set the
+ * jaccard.minhash.enabled parameter to true. The size of the messages and the
+ * cost of the comparison depend only on jaccard.minhash.slots, not on the
+ * degree of the vertices.
+ * 
  * 
  * @author dl
  *
@@ -94,6 +104,24 @@ public class Jaccard {
   /** Default type of hash function in bloom filter */
   public static final int BLOOM_FILTER_HASH_TYPE_DEFAULT = Hash.MURMUR_HASH;
   
+  /** Enables the MinHash approximation */
+  public static final String JACCARD_MINHASH = "jaccard.minhash.enabled";
+
+  /** Default value for the MinHash approximation */
+  public static final boolean JACCARD_MINHASH_DEFAULT = false;
+
+  /** Number of slots in a MinHash signature */
+  public static final String MINHASH_SLOTS = "jaccard.minhash.slots";
+
+  /** Default number of slots in a MinHash signature */
+  public static final int MINHASH_SLOTS_DEFAULT = 64;
+
+  /** Seed of the MinHash functions, must be the same in all workers */
+  public static final String MINHASH_SEED = "jaccard.minhash.seed";
+
+  /** Default seed of the MinHash functions */
+  public static final long MINHASH_SEED_DEFAULT = 0x5DEECE66DL;
+
   /** Enables the conversion to distance conversion */
   public static final String DISTANCE_CONVERSION = 
       "distance.conversion.enabled";
@@ -103,33 +131,67 @@ public class Jaccard {
 
   /**
    * Implements the first step in the exact jaccard similirity algorithm. Each
-   * vertex broadcasts the list with the IDs of al its neighbors.
+   * vertex broadcasts the sorted list with the IDs of al its neighbors.
    * @author dl
    *
    */
-  public static class SendFriendsList extends SendFriends<LongWritable, 
+  public static class SendFriendsList extends BasicComputation<LongWritable, 
     NullWritable, DoubleWritable, LongIdFriendsList> {
+
+    LongArrayList friends = new LongArrayList();
+    LongIdFriendsList msg = new LongIdFriendsList();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<LongIdFriendsList> messages) throws IOException {
+      friends.clear();
+      for (Edge<LongWritable, DoubleWritable> e : vertex.getEdges()) {
+        friends.add(e.getTargetVertexId().get());
+      }
+      msg.setSourceId(vertex.getId().get());
+      msg.getFriends().set(friends.elements(), friends.size());
+      sendMessageToAllEdges(vertex, msg);
+    }
   }
 
   /**
    * This is the message sent in the implementation of the exact jaccard
-   * similarity. The message contains the source vertex id and a list of vertex
-   * ids representing the neighbors of the source.
+   * similarity. The message contains the source vertex id and the sorted list 
+   * of the ids of the neighbors of the source, delta-encoded on the wire. The
+   * list is reused when the message is read.
    * 
    * @author dl
    *
    */
-  public static class LongIdFriendsList extends MessageWrapper<LongWritable, 
-    LongArrayListWritable> { 
+  public static class LongIdFriendsList implements Writable { 
+
+    private long sourceId;
+    private final SortedLongArrayWritable friends = 
+        new SortedLongArrayWritable();
+
+    public long getSourceId() {
+      return sourceId;
+    }
+
+    public void setSourceId(long sourceId) {
+      this.sourceId = sourceId;
+    }
+
+    public SortedLongArrayWritable getFriends() {
+      return friends;
+    }
 
     @Override
-    public Class<LongWritable> getVertexIdClass() {
-      return LongWritable.class;
+    public void write(DataOutput output) throws IOException {
+      output.writeLong(sourceId);
+      friends.write(output);
     }
 
     @Override
-    public Class<LongArrayListWritable> getMessageClass() {
-      return LongArrayListWritable.class;
+    public void readFields(DataInput input) throws IOException {
+      sourceId = input.readLong();
+      friends.readFields(input);
     }
   }
 
@@ -138,6 +200,9 @@ public class Jaccard {
    * vertex Jaccard similarity between u and v is the number of common neighbors 
    * of u and v divided by the number of vertices that are neighbors of u or v.
    * 
+   * The vertex sorts its own neighbors once and counts the common neighbors
+   * with every received list by merging the two sorted lists.
+   * 
    * This computes similarity only between vertices that are connected with 
    * edges, not any pair of vertices in the graph.
    * 
@@ -148,6 +213,9 @@ public class Jaccard {
     NullWritable, DoubleWritable, LongIdFriendsList> {
 	  
 	  boolean conversionEnabled;
+	  LongArrayList buffer = new LongArrayList();
+	  SortedLongArrayWritable friends = new SortedLongArrayWritable();
+	  LongWritable src = new LongWritable();
 	  
 	  @Override
 	  public void preSuperstep() {
@@ -159,22 +227,21 @@ public class Jaccard {
         Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
         Iterable<LongIdFriendsList> messages) throws IOException {
 
+      buffer.clear();
+      for (Edge<LongWritable, DoubleWritable> e : vertex.getEdges()) {
+        buffer.add(e.getTargetVertexId().get());
+      }
+      friends.set(buffer.elements(), buffer.size());
+
       for (LongIdFriendsList msg : messages) {
-        LongWritable src = msg.getSourceId();
-        DoubleWritable edgeValue = vertex.getEdgeValue(src);
-        assert(edgeValue!=null);
-        long totalFriends = vertex.getNumEdges();
-        long commonFriends = 0;
-        for (LongWritable id : msg.getMessage()) {
-          if (vertex.getEdgeValue(id)!=null) { // This is a common friend
-            commonFriends++;
-          } else {
-            totalFriends++;
-          }
-        }
+        long commonFriends = 
+            SortedLongArrayWritable.intersectionSize(friends, msg.getFriends());
+        long totalFriends = 
+            friends.size() + msg.getFriends().size() - commonFriends;
         // The Jaccard similarity is commonFriends/totalFriends
         // If the edge to the vertex with ID src does not exist, which is the
         // case in a directed graph, this call has no effect. 
+        src.set(msg.getSourceId());
         vertex.setEdgeValue(src, new DoubleWritable(
             (double)commonFriends/(double)totalFriends));
       }
@@ -361,6 +428,194 @@ public class Jaccard {
 	}	  
 }
   
+  /**
+   * @return the seeds of the slots of a MinHash signature
+   */
+  static long[] minHashSeeds(int slots, long seed) {
+    long[] seeds = new long[slots];
+    for (int i = 0; i < slots; i++) {
+      seeds[i] = Hashing.mix(seed + i * Hashing.GOLDEN_GAMMA);
+    }
+    return seeds;
+  }
+
+  /**
+   * Computes the MinHash signature of the neighbors of a vertex. Slot i holds
+   * the minimum, over all neighbors, of the neighbor ID hashed with seed i.
+   */
+  static void minHash(Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+      long[] seeds, long[] signature) {
+    Arrays.fill(signature, Long.MAX_VALUE);
+    for (Edge<LongWritable, DoubleWritable> e : vertex.getEdges()) {
+      long id = e.getTargetVertexId().get();
+      for (int i = 0; i < seeds.length; i++) {
+        long h = Hashing.mix(id ^ seeds[i]);
+        if (h < signature[i]) {
+          signature[i] = h;
+        }
+      }
+    }
+  }
+
+  /**
+   * This class implements the first computation step in the MinHash
+   * approximation of the jaccard similarity. A vertex computes the MinHash
+   * signature of its neighbors once and broadcasts it to all its neighbors
+   * along with its own ID.
+   * 
+   * @author dl
+   *
+   */
+  public static class SendFriendsMinHash extends BasicComputation<LongWritable, 
+    NullWritable, DoubleWritable, LongIdMinHash> {
+
+    long[] seeds;
+    LongIdMinHash msg;
+
+    @Override
+    public void preSuperstep() {
+      seeds = minHashSeeds(
+          getConf().getInt(MINHASH_SLOTS, MINHASH_SLOTS_DEFAULT),
+          getConf().getLong(MINHASH_SEED, MINHASH_SEED_DEFAULT));
+      msg = new LongIdMinHash(seeds.length);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<LongIdMinHash> messages) throws IOException {
+      msg.setSourceId(vertex.getId().get());
+      minHash(vertex, seeds, msg.getSignature());
+      sendMessageToAllEdges(vertex, msg);
+    }
+  }
+
+  /**
+   * This is the message sent in the MinHash approximation of the jaccard
+   * similarity. It carries the source id of the message and the MinHash
+   * signature of its neighbors. The signature array is reused when the
+   * message is read.
+   * 
+   * @author dl
+   *
+   */
+  public static class LongIdMinHash implements Writable {
+
+    private long sourceId;
+    private long[] signature;
+
+    public LongIdMinHash() {
+      this(0);
+    }
+
+    public LongIdMinHash(int slots) {
+      signature = new long[slots];
+    }
+
+    public long getSourceId() {
+      return sourceId;
+    }
+
+    public void setSourceId(long sourceId) {
+      this.sourceId = sourceId;
+    }
+
+    public long[] getSignature() {
+      return signature;
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeLong(sourceId);
+      output.writeInt(signature.length);
+      for (long h : signature) {
+        output.writeLong(h);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      sourceId = input.readLong();
+      int slots = input.readInt();
+      if (signature.length != slots) {
+        signature = new long[slots];
+      }
+      for (int i = 0; i < slots; i++) {
+        signature[i] = input.readLong();
+      }
+    }
+  }
+
+  /**
+   * Implements the MinHash approximation of the Jaccard vertex similarity.
+   * The probability that a slot of the signatures of two vertices agrees is
+   * equal to the Jaccard similarity of their neighbors, so the fraction of
+   * agreeing slots is an unbiased estimate of it, with a standard error of at
+   * most 1/(2*sqrt(k)) for k slots.
+   * 
+   * @author dl
+   *
+   */
+  public static class JaccardMinHash extends BasicComputation<LongWritable, 
+    NullWritable, DoubleWritable, LongIdMinHash> {
+
+    boolean conversionEnabled;
+    long[] seeds;
+    long[] signature;
+    LongWritable src = new LongWritable();
+
+    @Override
+    public void preSuperstep() {
+      conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION, 
+          DISTANCE_CONVERSION_DEFAULT);
+      seeds = minHashSeeds(
+          getConf().getInt(MINHASH_SLOTS, MINHASH_SLOTS_DEFAULT),
+          getConf().getLong(MINHASH_SEED, MINHASH_SEED_DEFAULT));
+      signature = new long[seeds.length];
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<LongIdMinHash> messages) throws IOException {
+
+      minHash(vertex, seeds, signature);
+      for (LongIdMinHash msg : messages) {
+        long[] other = msg.getSignature();
+        int agree = 0;
+        for (int i = 0; i < signature.length; i++) {
+          if (signature[i] == other[i]) {
+            agree++;
+          }
+        }
+        // If the edge to the vertex with ID src does not exist, which is the
+        // case in a directed graph, this call has no effect. 
+        src.set(msg.getSourceId());
+        vertex.setEdgeValue(src, new DoubleWritable(
+            (double)agree/(double)signature.length));
+      }
+      if (!conversionEnabled) {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  public static class ScaleToDistanceMinHash extends BasicComputation<
+    LongWritable, NullWritable, DoubleWritable, LongIdMinHash> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<LongIdMinHash> messages) throws IOException {
+
+      for (Edge<LongWritable, DoubleWritable> e: vertex.getEdges()) {
+        vertex.setEdgeValue(e.getTargetVertexId(), 
+            covertToDistance(e.getValue()));
+      }
+      vertex.voteToHalt();
+    }
+  }
+  
   /**
 	 * 
 	 * Converts the [0,1] similarity value to a distance
@@ -384,6 +639,7 @@ public class Jaccard {
   public static class MasterCompute extends DefaultMasterCompute {
 
     boolean approximationEnabled;
+    boolean minHashEnabled;
     boolean conversionEnabled;
 
     @Override
@@ -391,13 +647,25 @@ public class Jaccard {
         IllegalAccessException {
       approximationEnabled = getConf().getBoolean(
           JACCARD_APPROXIMATION, JACCARD_APPROXIMATION_DEFAULT);
+      minHashEnabled = getConf().getBoolean(
+          JACCARD_MINHASH, JACCARD_MINHASH_DEFAULT);
       conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION, DISTANCE_CONVERSION_DEFAULT);
     }
 
     @Override
     public final void compute() {
       long superstep = getSuperstep();
-      if (approximationEnabled) {
+      if (minHashEnabled) {
+        if (superstep == 0) {
+          setComputation(SendFriendsMinHash.class);
+        } else if (superstep == 1) {
+          setComputation(JaccardMinHash.class);
+        } else {
+          if (conversionEnabled) {
+            setComputation(ScaleToDistanceMinHash.class);
+          }
+        }
+      } else if (approximationEnabled) {
         if (superstep == 0) {
           setComputation(SendFriendsBloomFilter.class);
         } else if (superstep == 1) {
@@ -0,0 +1,531 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs.similarity;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ml.grafos.okapi.common.data.SortedLongArrayWritable;
+import ml.grafos.okapi.graphs.Triangles.IdDegreeWritable;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.TextVertexOutputFormat;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ *
+ * This class computes, for every vertex of an undirected unweighted graph, the
+ * K most similar vertices among those at distance two, for instance to
+ * predict links. Unlike {@link Jaccard} and {@link AdamicAdar}, which only
+ * score the pairs of vertices that are already connected, this considers
+ * every pair of vertices that share a neighbor.
+ *
+ * The candidates are generated by the common neighbors: every vertex sends
+ * its neighbor list to each of its neighbors, so a vertex receives one list
+ * per common neighbor of each candidate. Vertices with more than
+ * similarity.join.max.fanout neighbors do not send anything, since a hub
+ * produces a number of pairs quadratic in its degree. This only drops the
+ * contributions of the hubs, so the Jaccard similarity may be underestimated
+ * for pairs that share hubs, while the Adamic-Adar similarity, to which hubs
+ * contribute very little, is barely affected.
+ *
+ * The similarity is selected with similarity.join.measure:
+ * <ul>
+ * <li>jaccard: the number of common neighbors divided by the number of
+ * vertices that are neighbors of either vertex</li>
+ * <li>adamicadar: the sum of 1/log(d) over the common neighbors, where d is
+ * the degree of the common neighbor</li>
+ * </ul>
+ *
+ * Run it with:
+ *
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.similarity.SimilarityJoin\$SendDegree  \
+ *   -mc  ml.grafos.okapi.graphs.similarity.SimilarityJoin\$MasterCompute  \
+ *   -eif ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat  \
+ *   -eip $INPUT_EDGES \
+ *   -vof ml.grafos.okapi.graphs.similarity.SimilarityJoin\$SimilarVerticesOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS \
+ *   -ca similarity.join.k=10
+ * </pre>
+ *
+ * The output has one line per similar pair: the vertex, the similar vertex
+ * and the similarity, most similar first.
+ *
+ * @author dl
+ *
+ */
+public class SimilarityJoin {
+
+  /** Similarity measure, jaccard or adamicadar */
+  public static final String MEASURE = "similarity.join.measure";
+
+  /** Default similarity measure */
+  public static final String MEASURE_DEFAULT = "jaccard";
+
+  /** Number of similar vertices kept per vertex */
+  public static final String K = "similarity.join.k";
+
+  /** Default number of similar vertices kept per vertex */
+  public static final int K_DEFAULT = 10;
+
+  /** Vertices with more neighbors than this do not generate candidates */
+  public static final String MAX_FANOUT = "similarity.join.max.fanout";
+
+  /** Default maximum degree of a vertex that generates candidates */
+  public static final int MAX_FANOUT_DEFAULT = 1000;
+
+  /**
+   * Implements the first step of the similarity join. Every vertex sends its
+   * ID and degree to all its neighbors, so that the common neighbors know the
+   * degree of the candidates.
+   *
+   * @author dl
+   *
+   */
+  public static class SendDegree extends BasicComputation<LongWritable,
+    SimilarVerticesWritable, NullWritable, IdDegreeWritable> {
+
+    IdDegreeWritable msg = new IdDegreeWritable();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVerticesWritable, NullWritable> vertex,
+        Iterable<IdDegreeWritable> messages) throws IOException {
+      msg.set(vertex.getId().get(), vertex.getNumEdges());
+      sendMessageToAllEdges(vertex, msg);
+    }
+  }
+
+  /**
+   * Implements the second step of the similarity join. Every vertex that is
+   * not a hub sends the IDs and degrees of its neighbors, together with its
+   * own contribution to the similarity, to each of its neighbors.
+   *
+   * @author dl
+   *
+   */
+  public static class SendCandidates extends AbstractComputation<LongWritable,
+    SimilarVerticesWritable, NullWritable, IdDegreeWritable,
+    CandidateListWritable> {
+
+    boolean adamicAdar;
+    int maxFanout;
+    CandidateListWritable msg = new CandidateListWritable();
+
+    @Override
+    public void preSuperstep() {
+      adamicAdar = isAdamicAdar(getConf().get(MEASURE, MEASURE_DEFAULT));
+      maxFanout = getConf().getInt(MAX_FANOUT, MAX_FANOUT_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVerticesWritable, NullWritable> vertex,
+        Iterable<IdDegreeWritable> messages) throws IOException {
+      int degree = vertex.getNumEdges();
+      if (degree >= 2 && degree <= maxFanout) {
+        msg.clear(adamicAdar ? 1.0/Math.log(degree) : 1.0);
+        for (IdDegreeWritable neighbor : messages) {
+          msg.add(neighbor.getId(), neighbor.getDegree());
+        }
+        sendMessageToAllEdges(vertex, msg);
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Implements the last step of the similarity join. Every vertex sums the
+   * contributions of the common neighbors of each candidate, skipping itself
+   * and the vertices it is already connected to, and keeps the K candidates
+   * with the highest similarity.
+   *
+   * @author dl
+   *
+   */
+  public static class ScoreCandidates extends BasicComputation<LongWritable,
+    SimilarVerticesWritable, NullWritable, CandidateListWritable> {
+
+    boolean adamicAdar;
+    int k;
+    LongArrayList buffer = new LongArrayList();
+    SortedLongArrayWritable neighbors = new SortedLongArrayWritable();
+    Long2DoubleOpenHashMap scores = new Long2DoubleOpenHashMap();
+    Long2IntOpenHashMap degrees = new Long2IntOpenHashMap();
+
+    @Override
+    public void preSuperstep() {
+      adamicAdar = isAdamicAdar(getConf().get(MEASURE, MEASURE_DEFAULT));
+      k = getConf().getInt(K, K_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVerticesWritable, NullWritable> vertex,
+        Iterable<CandidateListWritable> messages) throws IOException {
+      long id = vertex.getId().get();
+      buffer.clear();
+      for (Edge<LongWritable, NullWritable> e : vertex.getEdges()) {
+        buffer.add(e.getTargetVertexId().get());
+      }
+      neighbors.set(buffer.elements(), buffer.size());
+
+      scores.clear();
+      degrees.clear();
+      for (CandidateListWritable msg : messages) {
+        for (int i = 0; i < msg.size(); i++) {
+          long candidate = msg.getId(i);
+          if (candidate == id || neighbors.contains(candidate)) {
+            continue;
+          }
+          scores.addTo(candidate, msg.getWeight());
+          degrees.put(candidate, msg.getDegree(i));
+        }
+      }
+
+      SimilarVerticesWritable similar = new SimilarVerticesWritable(k);
+      int degree = vertex.getNumEdges();
+      for (Long2DoubleMap.Entry entry : scores.long2DoubleEntrySet()) {
+        long candidate = entry.getLongKey();
+        double score = entry.getDoubleValue();
+        if (!adamicAdar) {
+          // score is the number of common neighbors
+          score = score/(degree + degrees.get(candidate) - score);
+        }
+        similar.offer(candidate, score);
+      }
+      similar.sort();
+      vertex.setValue(similar);
+      vertex.voteToHalt();
+    }
+  }
+
+  static boolean isAdamicAdar(String measure) {
+    if (measure.equalsIgnoreCase("adamicadar")) {
+      return true;
+    } else if (measure.equalsIgnoreCase("jaccard")) {
+      return false;
+    }
+    throw new IllegalArgumentException("Unknown similarity measure " +
+        measure);
+  }
+
+  /**
+   * This is the message sent by a common neighbor. It carries the IDs and
+   * degrees of the neighbors of the sender, along with the contribution of
+   * the sender to the similarity of any pair of them. The arrays are reused
+   * when the message is read.
+   *
+   * @author dl
+   *
+   */
+  public static class CandidateListWritable implements Writable {
+
+    private double weight;
+    private int size;
+    private long[] ids = new long[0];
+    private int[] degrees = new int[0];
+
+    public double getWeight() {
+      return weight;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public long getId(int i) {
+      return ids[i];
+    }
+
+    public int getDegree(int i) {
+      return degrees[i];
+    }
+
+    public void clear(double weight) {
+      this.weight = weight;
+      size = 0;
+    }
+
+    public void add(long id, int degree) {
+      ensureCapacity(size + 1);
+      ids[size] = id;
+      degrees[size] = degree;
+      size++;
+    }
+
+    private void ensureCapacity(int n) {
+      if (ids.length < n) {
+        int capacity = Math.max(n, 2 * ids.length);
+        long[] newIds = new long[capacity];
+        int[] newDegrees = new int[capacity];
+        System.arraycopy(ids, 0, newIds, 0, size);
+        System.arraycopy(degrees, 0, newDegrees, 0, size);
+        ids = newIds;
+        degrees = newDegrees;
+      }
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeDouble(weight);
+      output.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        output.writeLong(ids[i]);
+        output.writeInt(degrees[i]);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      weight = input.readDouble();
+      size = 0;
+      int n = input.readInt();
+      ensureCapacity(n);
+      for (int i = 0; i < n; i++) {
+        ids[i] = input.readLong();
+        degrees[i] = input.readInt();
+      }
+      size = n;
+    }
+  }
+
+  /**
+   * The value of a vertex: the IDs of the most similar vertices along with
+   * their similarity. While candidates are offered, it is a min-heap bounded
+   * to K entries, so the least similar entry is replaced first. After
+   * {@link #sort()} the entries are ordered from the most similar.
+   *
+   * @author dl
+   *
+   */
+  public static class SimilarVerticesWritable implements Writable {
+
+    private int size;
+    private long[] ids;
+    private double[] scores;
+
+    public SimilarVerticesWritable() {
+      this(0);
+    }
+
+    public SimilarVerticesWritable(int k) {
+      ids = new long[k];
+      scores = new double[k];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public long getId(int i) {
+      return ids[i];
+    }
+
+    public double getScore(int i) {
+      return scores[i];
+    }
+
+    /**
+     * Adds a vertex if there are fewer than K entries, or if it is more
+     * similar than the least similar entry, which it then replaces.
+     */
+    public void offer(long id, double score) {
+      if (size < ids.length) {
+        ids[size] = id;
+        scores[size] = score;
+        siftUp(size++);
+      } else if (size > 0 && worse(ids[0], scores[0], id, score)) {
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0, size);
+      }
+    }
+
+    /**
+     * Orders the entries from the most similar, ties broken by ID.
+     */
+    public void sort() {
+      for (int end = size - 1; end > 0; end--) {
+        swap(0, end);
+        siftDown(0, end);
+      }
+    }
+
+    /** @return true if entry a is less similar than entry b */
+    private static boolean worse(long idA, double scoreA, long idB,
+        double scoreB) {
+      return scoreA < scoreB || (scoreA == scoreB && idA > idB);
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (!worse(ids[i], scores[i], ids[parent], scores[parent])) {
+          break;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i, int end) {
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= end) {
+          break;
+        }
+        if (child + 1 < end &&
+            worse(ids[child + 1], scores[child + 1], ids[child], scores[child])) {
+          child++;
+        }
+        if (!worse(ids[child], scores[child], ids[i], scores[i])) {
+          break;
+        }
+        swap(i, child);
+        i = child;
+      }
+    }
+
+    private void swap(int a, int b) {
+      long id = ids[a];
+      ids[a] = ids[b];
+      ids[b] = id;
+      double score = scores[a];
+      scores[a] = scores[b];
+      scores[b] = score;
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeInt(ids.length);
+      output.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        output.writeLong(ids[i]);
+        output.writeDouble(scores[i]);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      int capacity = input.readInt();
+      if (ids.length != capacity) {
+        ids = new long[capacity];
+        scores = new double[capacity];
+      }
+      size = input.readInt();
+      for (int i = 0; i < size; i++) {
+        ids[i] = input.readLong();
+        scores[i] = input.readDouble();
+      }
+    }
+  }
+
+  /**
+   * Writes one line per similar pair:
+   *
+   * <SrcVertexId><tab><SimilarVertexId><tab><Similarity>
+   *
+   * Vertices without similar vertices are not written.
+   *
+   * @author dl
+   *
+   */
+  public static class SimilarVerticesOutputFormat extends
+    TextVertexOutputFormat<LongWritable, SimilarVerticesWritable, NullWritable> {
+    /** Split delimiter */
+    public static final String LINE_TOKENIZE_VALUE = "output.delimiter";
+    /** Default split delimiter */
+    public static final String LINE_TOKENIZE_VALUE_DEFAULT = "\t";
+
+    @Override
+    public TextVertexWriter createVertexWriter(TaskAttemptContext context) {
+      return new SimilarVerticesVertexWriter();
+    }
+
+    /**
+     * Vertex writer associated with {@link SimilarVerticesOutputFormat}.
+     */
+    protected class SimilarVerticesVertexWriter extends
+      TextVertexWriterToEachLine {
+      /** Cached split delimeter */
+      private String delimiter;
+
+      @Override
+      public void initialize(TaskAttemptContext context) throws IOException,
+          InterruptedException {
+        super.initialize(context);
+        delimiter =
+            getConf().get(LINE_TOKENIZE_VALUE, LINE_TOKENIZE_VALUE_DEFAULT);
+      }
+
+      @Override
+      protected Text convertVertexToLine(
+          Vertex<LongWritable, SimilarVerticesWritable, NullWritable> vertex)
+              throws IOException {
+        SimilarVerticesWritable similar = vertex.getValue();
+        if (similar == null || similar.size() == 0) {
+          return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < similar.size(); i++) {
+          if (i > 0) {
+            sb.append('\n');
+          }
+          sb.append(vertex.getId().get());
+          sb.append(delimiter).append(similar.getId(i));
+          sb.append(delimiter).append(similar.getScore(i));
+        }
+        return new Text(sb.toString());
+      }
+    }
+  }
+
+  /**
+   * Coordinates the execution of the algorithm.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+
+    @Override
+    public final void compute() {
+      long superstep = getSuperstep();
+      if (superstep == 0) {
+        setComputation(SendDegree.class);
+      } else if (superstep == 1) {
+        setComputation(SendCandidates.class);
+      } else {
+        setComputation(ScoreCandidates.class);
+      }
+    }
+  }
+}
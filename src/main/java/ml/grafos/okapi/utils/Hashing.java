@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.utils;
+
+/**
+ * Utility class that derives well-mixed random values from a seed and a key
+ * such as a vertex id.
+ * 
+ * Consecutive seeds of java.util.Random give first draws that differ very
+ * little, so seeding a generator with seed+id selects contiguous runs of ids.
+ * Mixing the key first avoids that.
+ * 
+ * @author dl
+ *
+ */
+public class Hashing {
+  /** The increment of the SplitMix64 generator. */
+  public static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /**
+   * Mixes the bits of a long, the finalizer of the SplitMix64 generator.
+   * 
+   * @param x
+   * @return the mixed value
+   */
+  public static long mix(long x) {
+    x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+    x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+    return x ^ (x >>> 31);
+  }
+
+  /**
+   * Mixes a key into a seed, so that nearby keys give unrelated values.
+   * 
+   * @param seed
+   * @param key
+   * @return the mixed value
+   */
+  public static long mix(long seed, long key) {
+    return mix(seed + mix(key + GOLDEN_GAMMA));
+  }
+
+  /**
+   * @param hash A mixed value
+   * @return a float uniformly distributed in [0,1), from the top 24 bits
+   */
+  public static float toUnitFloat(long hash) {
+    return (hash >>> 40) * 0x1.0p-24f;
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a vertex is one of the sources of an algorithm, such as
+ * the sources of the multi-source shortest paths or the seeds of the
+ * personalized PageRank.
+ * 
+ * If the fraction is positive, every vertex is selected with that
+ * probability. With a positive random seed, the draw of a vertex only 
+ * depends on the seed and its id, so the selection is repeatable. Otherwise,
+ * the vertices whose ids are in the list, separated by ':', are selected.
+ * 
+ * @author dl
+ *
+ */
+public class SourceSelector {
+  private static final Pattern SEPARATOR = Pattern.compile("[:]");
+
+  private final float fraction;
+  private final long seed;
+  private final long[] sources;
+  private final Random random = new Random();
+
+  /**
+   * @param fraction Fraction of vertices to select, or non-positive to use
+   *        the list
+   * @param seed Random seed, or non-positive to draw a random one
+   * @param sourcesList The ids to select, separated by ':'
+   */
+  public SourceSelector(float fraction, long seed, String sourcesList) {
+    this.fraction = fraction;
+    this.seed = seed;
+    String[] ids = SEPARATOR.split(sourcesList);
+    sources = new long[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      sources[i] = Long.parseLong(ids[i]);
+    }
+    Arrays.sort(sources);
+  }
+
+  /**
+   * @param id The id of a vertex
+   * @return true if the vertex is selected
+   */
+  public boolean isSelected(long id) {
+    if (fraction > 0) {
+      float draw = seed > 0 ? 
+          Hashing.toUnitFloat(Hashing.mix(seed, id)) : random.nextFloat();
+      return draw < fraction;
+    }
+    return Arrays.binarySearch(sources, id) >= 0;
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.giraph.io.EdgeReader;
+import org.apache.giraph.io.formats.GiraphFileInputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.junit.Test;
+
+public class CfLongIdFloatBinaryInputFormatTest {
+
+  @Test
+  public void testSplitsCoverAllRecords() throws Exception {
+    String[] ratings = {
+        "1 2 5.0",
+        "1\t3\t4.000  ",
+        "",
+        "3000000000 2 1.5",
+        "4 5000000000 2.0",
+        "5 6 3.0"
+    };
+
+    File dir = File.createTempFile("okapi", "binary");
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+    File text = new File(dir, "ratings.txt");
+    File binary = new File(dir, "ratings.bin");
+    text.deleteOnExit();
+    binary.deleteOnExit();
+    FileWriter writer = new FileWriter(text);
+    for (String line : ratings) {
+      writer.write(line + "\n");
+    }
+    writer.close();
+
+    Configuration conf = new Configuration();
+    conf.setInt(CfLongIdFloatBinaryInputFormat.BLOCK_RECORDS, 2);
+    long records = CfRatingsTextToBinary.convert(conf,
+        new Path(text.getAbsolutePath()), new Path(binary.getAbsolutePath()));
+    assertEquals(5, records);
+    assertEquals(CfLongIdFloatBinaryInputFormat.HEADER_SIZE +
+        5 * CfLongIdFloatBinaryInputFormat.RECORD_SIZE, binary.length());
+
+    TaskAttemptContext context = mock(TaskAttemptContext.class);
+    when(context.getConfiguration()).thenReturn(conf);
+
+    // Split boundaries that do not fall on record boundaries
+    long[] boundaries = {0, 7, 45, 46, binary.length()};
+    List<String> read = new ArrayList<String>();
+    for (int i = 0; i < boundaries.length - 1; i++) {
+      FileSplit split = new FileSplit(new Path(binary.getAbsolutePath()),
+          boundaries[i], boundaries[i + 1] - boundaries[i], new String[0]);
+      EdgeReader<CfLongId, FloatWritable> reader =
+          new CfLongIdFloatBinaryInputFormat().createEdgeReader(split, context);
+      reader.initialize(split, context);
+      while (reader.nextEdge()) {
+        read.add(reader.getCurrentSourceId() + "|" +
+            reader.getCurrentEdge().getTargetVertexId() + "|" +
+            reader.getCurrentEdge().getValue().get());
+      }
+      assertEquals(1f, reader.getProgress(), 0f);
+      assertFalse(reader.nextEdge());
+      reader.close();
+    }
+
+    assertEquals(5, read.size());
+    assertEquals("1 0|2 1|5.0", read.get(0));
+    assertEquals("1 0|3 1|4.0", read.get(1));
+    assertEquals("3000000000 0|2 1|1.5", read.get(2));
+    assertEquals("4 0|5000000000 1|2.0", read.get(3));
+    assertEquals("5 0|6 1|3.0", read.get(4));
+  }
+
+  /**
+   * The splits of an input directory cover its visible files, and skip the
+   * hidden ones.
+   */
+  @Test
+  public void testSplitsOfInputDirectory() throws Exception {
+    File dir = File.createTempFile("okapi", "binary");
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+    File text = File.createTempFile("okapi", "ratings.txt");
+    text.deleteOnExit();
+    FileWriter writer = new FileWriter(text);
+    writer.write("1 2 5.0\n1 3 4.0\n");
+    writer.close();
+    Configuration conf = new Configuration();
+    File binary = new File(dir, "ratings.bin");
+    File hidden = new File(dir, "_SUCCESS");
+    binary.deleteOnExit();
+    hidden.deleteOnExit();
+    CfRatingsTextToBinary.convert(conf, new Path(text.getAbsolutePath()),
+        new Path(binary.getAbsolutePath()));
+    hidden.createNewFile();
+
+    GiraphFileInputFormat.addEdgeInputPath(conf,
+        new Path(dir.getAbsolutePath()));
+    JobContext context = mock(JobContext.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    List<InputSplit> splits =
+        new CfLongIdFloatBinaryInputFormat().getSplits(context, 1);
+
+    long length = 0;
+    for (InputSplit split : splits) {
+      FileSplit fileSplit = (FileSplit) split;
+      assertEquals(binary.getName(), fileSplit.getPath().getName());
+      assertEquals(length, fileSplit.getStart());
+      length += fileSplit.getLength();
+    }
+    assertEquals(binary.length(), length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsTextInput() throws Exception {
+    File text = File.createTempFile("okapi", "ratings.txt");
+    text.deleteOnExit();
+    FileWriter writer = new FileWriter(text);
+    writer.write("1 2 5.0\n1 3 4.0\n");
+    writer.close();
+
+    Configuration conf = new Configuration();
+    TaskAttemptContext context = mock(TaskAttemptContext.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    FileSplit split = new FileSplit(new Path(text.getAbsolutePath()), 0,
+        text.length(), new String[0]);
+    new CfLongIdFloatBinaryInputFormat().createEdgeReader(split, context)
+        .initialize(split, context);
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.jblas.FloatMatrix;
+import org.junit.Test;
+
+public class CfModelBinaryReaderTest {
+
+  private File writePart(Object[][] rows) throws IOException {
+    File part = File.createTempFile("okapi", ".okm");
+    part.deleteOnExit();
+    File spill = File.createTempFile("okapi", ".spill");
+    CfModelBinaryWriter writer =
+        new CfModelBinaryWriter(new FileOutputStream(part), spill);
+    for (Object[] row : rows) {
+      writer.write((CfLongId) row[0], new FloatMatrix((float[]) row[1]));
+    }
+    writer.close();
+    assertFalse(spill.exists());
+    return part;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File part1 = writePart(new Object[][] {
+        {new CfLongId((byte)1, 30), new float[] {0.1f, 0.2f}},
+        {new CfLongId((byte)0, 7), new float[] {1.0f, 2.0f}},
+        {new CfLongId((byte)1, 10), new float[] {0.5f, 0.5f}},
+        {new CfLongId((byte)-1, 0), new float[] {9f, 9f}},
+        {new CfLongId((byte)0, 3), new float[] {-1.0f, 0.0f}}
+    });
+    File part2 = writePart(new Object[][] {
+        {new CfLongId((byte)1, 20), new float[] {2.0f, 1.0f}},
+        {new CfLongId((byte)0, 5000000000L), new float[] {0.0f, 1.0f}}
+    });
+
+    CfModelBinaryReader reader = new CfModelBinaryReader(part1, part2);
+    assertEquals(2, reader.getDimension());
+    assertEquals(3, reader.getNumUsers());
+    assertEquals(3, reader.getNumItems());
+
+    float[] factors = new float[2];
+    assertTrue(reader.getUserFactors(7, factors));
+    assertArrayEquals(new float[] {1.0f, 2.0f}, factors, 0f);
+    assertTrue(reader.getUserFactors(5000000000L, factors));
+    assertArrayEquals(new float[] {0.0f, 1.0f}, factors, 0f);
+    assertTrue(reader.getItemFactors(20, factors));
+    assertArrayEquals(new float[] {2.0f, 1.0f}, factors, 0f);
+    assertFalse(reader.getUserFactors(30, factors));
+    assertFalse(reader.getItemFactors(7, factors));
+
+    assertEquals(1.5f, reader.score(7, 10), 1e-6f);
+    assertTrue(Float.isNaN(reader.score(7, 11)));
+
+    long[] ids = new long[2];
+    float[] scores = new float[2];
+    assertEquals(2, reader.topItems(7, 2, ids, scores));
+    assertArrayEquals(new long[] {20, 10}, ids);
+    assertArrayEquals(new float[] {4.0f, 1.5f}, scores, 1e-6f);
+
+    ids = new long[5];
+    scores = new float[5];
+    assertEquals(3, reader.topItems(3, 5, ids, scores));
+    assertEquals(30, ids[0]);
+    assertEquals(20, ids[2]);
+    assertEquals(-1, reader.topItems(30, 5, ids, scores));
+    reader.close();
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testDimensionMismatch() throws IOException {
+    writePart(new Object[][] {
+        {new CfLongId((byte)0, 1), new float[] {1.0f, 2.0f}},
+        {new CfLongId((byte)1, 1), new float[] {1.0f}}
+    });
+  }
+}
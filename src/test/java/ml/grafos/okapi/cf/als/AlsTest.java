@@ -15,10 +15,14 @@
  */
 package ml.grafos.okapi.cf.als;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat;
+import ml.grafos.okapi.cf.eval.CfModelInputFormat;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
@@ -31,8 +35,6 @@ public class AlsTest {
 
   @Test
   public void testUpdateValue() {
-    Als als = new Als();
-    
     float lambda = 0.01f;
 
     //user = (0.1, 0.2, 0.3)
@@ -56,7 +58,7 @@ public class AlsTest {
     FloatMatrix mat_R = 
         new FloatMatrix(4,1, new float[]{1.0f, 2.0f, 3.0f, 4.0f});
 
-    als.updateValue(user, mat_M, mat_R, lambda);
+    Als.updateValue(user, mat_M, mat_R, lambda);
     
     Assert.assertArrayEquals(user.data, 
         new float[] {2.598314f, 4.297752f, 4.311797f}, 0.00001f);
@@ -86,4 +88,58 @@ public class AlsTest {
     }
     Assert.assertEquals(4, res.size()); 
   }
+
+  /**
+   * Warm-starts from a model that lacks user 3 and item 3. The run stops
+   * before the first update, so the vertices of the model must keep their
+   * factors, and only the new ones get small random factors.
+   * @throws Exception
+   */
+  @Test
+  public void testWarmStart() throws Exception {
+    String[] model = {
+        "1 0\t[0.100000; 0.200000]",
+        "2 0\t[0.300000; 0.100000]",
+        "1 1\t[0.200000; 0.200000]",
+        "2 1\t[0.100000; 0.400000]"
+    };
+    String[] graph = { 
+        "1 1 1.0",
+        "1 2 2.0",
+        "2 1 3.0",
+        "2 2 4.0",
+        "3 3 5.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Als.InitUsersComputation.class);
+    conf.setMasterComputeClass(Als.MasterCompute.class);
+    conf.setVertexInputFormatClass(CfModelInputFormat.class);
+    conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
+    conf.setFloat(Als.LAMBDA, 0.01f);
+    conf.setInt(Als.VECTOR_SIZE, 2);
+    // Supersteps 0 and 1 initialize the users and the items, and the master
+    // halts before the first update.
+    conf.setInt(Als.ITERATIONS, 1);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    Map<String, FloatMatrixWritable> factors = 
+        new HashMap<String, FloatMatrixWritable>();
+    for (String string : InternalVertexRunner.run(conf, model, graph)) {
+      String[] tokens = string.split("\t");
+      factors.put(tokens[0], CfModelInputFormat.parseFactors(tokens[1], 2));
+    }
+    Assert.assertEquals(6, factors.size());
+
+    for (String line : model) {
+      String[] tokens = line.split("\t");
+      Assert.assertArrayEquals(
+          CfModelInputFormat.parseFactors(tokens[1], 2).data,
+          factors.get(tokens[0]).data, 0.000001f);
+    }
+    for (String id : new String[] {"3 0", "3 1"}) {
+      for (float factor : factors.get(id).data) {
+        Assert.assertTrue(factor >= 0f && factor < 0.01f);
+      }
+    }
+  }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf.foldin;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat;
+import ml.grafos.okapi.cf.als.Als;
+import ml.grafos.okapi.cf.eval.CfModelInputFormat;
+import ml.grafos.okapi.cf.sgd.Sgd;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.jblas.FloatMatrix;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FoldInTest {
+
+  private List<String> run(GiraphConfiguration conf, String[] model,
+      String[] ratings) throws Exception {
+    conf.setComputationClass(FoldIn.SendRatingsComputation.class);
+    conf.setMasterComputeClass(FoldIn.MasterCompute.class);
+    conf.setVertexInputFormatClass(CfModelInputFormat.class);
+    conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
+    conf.setVertexOutputFormatClass(FoldIn.FoldInOutputFormat.class);
+    conf.setFloat(Als.LAMBDA, 0.01f);
+    conf.setInt(Als.VECTOR_SIZE, 2);
+    Iterable<String> results = InternalVertexRunner.run(conf, model, ratings);
+    List<String> res = new LinkedList<String>();
+    for (String string : results) {
+      res.add(string);
+    }
+    return res;
+  }
+
+  /**
+   * Folds in a new user against two frozen items and checks the result
+   * against a direct ALS step.
+   */
+  @Test
+  public void testFoldInUserWithAls() throws Exception {
+    String[] model = {
+        "1 0\t[0.500000; 0.500000]",
+        "1 1\t[0.200000; 0.100000]",
+        "2 1\t[0.100000; 0.400000]"
+    };
+    String[] ratings = {
+        "7 1 1.0",
+        "7 2 3.0"
+    };
+
+    List<String> res = run(new GiraphConfiguration(), model, ratings);
+    Assert.assertEquals(1, res.size());
+    String[] tokens = res.get(0).split("\t");
+    Assert.assertEquals("7 0", tokens[0]);
+
+    FloatMatrix mat_M = new FloatMatrix(2, 2,
+        new float[] {0.2f, 0.1f, 0.1f, 0.4f});
+    FloatMatrix mat_R = new FloatMatrix(2, 1, new float[] {1.0f, 3.0f});
+    FloatMatrix expected = new FloatMatrix(2, 1);
+    Als.updateValue(expected, mat_M, mat_R, 0.01f);
+    FloatMatrixWritable actual = CfModelInputFormat.parseFactors(tokens[1], 2);
+    Assert.assertArrayEquals(expected.data, actual.data, 0.0001f);
+  }
+
+  /**
+   * Folds in a new item with SGD, ignoring the user that is not part of the
+   * frozen model.
+   */
+  @Test
+  public void testFoldInItemWithSgd() throws Exception {
+    String[] model = {
+        "1 0\t[0.500000; 0.500000]",
+        "2 0\t[0.100000; 0.400000]",
+        "1 1\t[0.200000; 0.100000]"
+    };
+    String[] ratings = {
+        "1 5 4.0",
+        "2 5 2.0",
+        "3 5 1.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.set(FoldIn.SIDE, "item");
+    conf.set(FoldIn.METHOD, "sgd");
+    conf.setFloat(Sgd.GAMMA, 0.05f);
+    List<String> res = run(conf, model, ratings);
+    Assert.assertEquals(1, res.size());
+    String[] tokens = res.get(0).split("\t");
+    Assert.assertEquals("5 1", tokens[0]);
+    FloatMatrixWritable actual = CfModelInputFormat.parseFactors(tokens[1], 2);
+
+    // The factors start below 0.01 and all the ratings are above the
+    // predictions, so every step pushes both factors up
+    Assert.assertTrue(actual.get(0) > 0.1f);
+    Assert.assertTrue(actual.get(1) > 0.1f);
+    // The user with the higher rating gets the higher prediction
+    FloatMatrix user1 = new FloatMatrix(new float[] {0.5f, 0.5f});
+    FloatMatrix user2 = new FloatMatrix(new float[] {0.1f, 0.4f});
+    Assert.assertTrue(actual.dot(user1) > actual.dot(user2));
+  }
+
+  /**
+   * A user of the model whose new ratings all point at items outside the
+   * model is not updated, so it is not written either.
+   */
+  @Test
+  public void testSkipUserWithUnknownItems() throws Exception {
+    String[] model = {
+        "1 0\t[0.500000; 0.500000]",
+        "1 1\t[0.200000; 0.100000]"
+    };
+    String[] ratings = {
+        "1 9 2.0",
+        "7 1 1.0"
+    };
+
+    List<String> res = run(new GiraphConfiguration(), model, ratings);
+    Assert.assertEquals(1, res.size());
+    Assert.assertEquals("7 0", res.get(0).split("\t")[0]);
+  }
+}
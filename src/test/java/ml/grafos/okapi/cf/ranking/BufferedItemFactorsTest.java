@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.cf.ranking;
+
+import org.jblas.FloatMatrix;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferedItemFactorsTest {
+
+    @Test
+    public void testScoresAndUpdates() {
+        FloatMatrix u = new FloatMatrix(new float[] {1.0f, 2.0f});
+        FloatMatrix v1 = new FloatMatrix(new float[] {0.5f, 0.5f});
+        FloatMatrix v2 = new FloatMatrix(new float[] {-1.0f, 0.25f});
+        FloatMatrix v3 = new FloatMatrix(new float[] {2.0f, 0.0f});
+
+        BufferedItemFactors items = new BufferedItemFactors();
+        //load twice, the second buffer must not see anything of the first
+        items.reset(new FloatMatrix(new float[] {9f, 9f}));
+        items.add(v3, true);
+        items.computeScores();
+        items.userWeights()[0] = 5;
+
+        items.reset(u);
+        items.add(v1, true);
+        items.add(v2, false);
+        items.add(v3, true);
+        items.computeScores();
+        Assert.assertEquals(3, items.size());
+        Assert.assertEquals(2, items.numRelevant());
+        Assert.assertFalse(items.isRelevant(1));
+        Assert.assertEquals(1.5f, items.score(0), 1e-6f);
+        Assert.assertEquals(-0.5f, items.score(1), 1e-6f);
+        Assert.assertEquals(2.0f, items.score(2), 1e-6f);
+
+        items.userWeights()[0] = 1.0f;
+        items.userWeights()[2] = -0.5f;
+        FloatMatrix expected = v1.mul(1.0f).add(v3.mul(-0.5f)).add(0.1f)
+                .mul(0.5f).sub(u.mul(0.01f)).mul(0.2f);
+        Assert.assertArrayEquals(expected.data,
+                items.userUpdate(0.5f, 0.1f, 0.01f, 0.2f).data, 1e-6f);
+
+        items.itemWeights()[1] = 3.0f;
+        expected = u.mul(3.0f).sub(v2.mul(0.01f)).mul(0.2f);
+        Assert.assertArrayEquals(expected.data,
+                items.itemUpdate(1, 0.01f, 0.2f).data, 1e-6f);
+    }
+
+    @Test
+    public void testGrow() {
+        BufferedItemFactors items = new BufferedItemFactors();
+        items.reset(new FloatMatrix(new float[] {1.0f, 1.0f, 1.0f}));
+        for (int i = 0; i < 100; i++) {
+            items.add(new FloatMatrix(new float[] {i, 0, 1}), i % 2 == 0);
+        }
+        items.computeScores();
+        Assert.assertEquals(100, items.size());
+        Assert.assertEquals(50, items.numRelevant());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i + 1, items.score(i), 1e-6f);
+            Assert.assertEquals(i % 2 == 0, items.isRelevant(i));
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDimensionMismatch() {
+        BufferedItemFactors items = new BufferedItemFactors();
+        items.reset(new FloatMatrix(new float[] {1.0f, 1.0f}));
+        items.add(new FloatMatrix(new float[] {1.0f}), true);
+    }
+}
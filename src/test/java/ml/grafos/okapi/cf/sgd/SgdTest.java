@@ -17,12 +17,15 @@ package ml.grafos.okapi.cf.sgd;
 
 import static org.junit.Assert.assertArrayEquals;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat;
+import ml.grafos.okapi.cf.eval.CfModelInputFormat;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.conf.GiraphConfiguration;
@@ -45,14 +48,12 @@ public class SgdTest {
     float minRating = 0f;
     float maxRating = 5f;
 
-    Sgd sgd = new Sgd();
-    
     //v = (0.1, 0.2, 0.3)
     FloatMatrix v = new FloatMatrix(3, 1, new float[]{0.1f, 0.2f, 0.3f});
     //u = (0.2, 0.1, 0.4)
     FloatMatrix u = new FloatMatrix(3, 1, new float[]{0.2f, 0.1f, 0.4f});
 
-    sgd.updateValue(v, u, rating, minRating, maxRating, lambda, gamma);
+    Sgd.updateValue(v, u, rating, minRating, maxRating, lambda, gamma);
 
     assertArrayEquals(v.data, 
         new float[]{0.100835f, 0.20041f, 0.301665f}, 0.000001f);
@@ -89,6 +90,61 @@ public class SgdTest {
     Assert.assertEquals(4, res.size());
   }
 
+  /**
+   * Warm-starts from a model that lacks user 3 and item 3, which must be
+   * initialized from scratch. The run stops before the first update, so the
+   * vertices of the model must keep their factors, and only the new ones get
+   * small random factors.
+   * @throws Exception
+   */
+  @Test
+  public void testWarmStart() throws Exception {
+    String[] model = {
+        "1 0\t[0.100000; 0.200000]",
+        "2 0\t[0.300000; 0.100000]",
+        "1 1\t[0.200000; 0.200000]",
+        "2 1\t[0.100000; 0.400000]"
+    };
+    String[] graph = { 
+        "1 1 1.0",
+        "1 2 2.0",
+        "2 1 3.0",
+        "2 2 4.0",
+        "3 3 5.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Sgd.InitUsersComputation.class);
+    conf.setMasterComputeClass(Sgd.MasterCompute.class);
+    conf.setVertexInputFormatClass(CfModelInputFormat.class);
+    conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
+    conf.setFloat(Sgd.GAMMA, 0.005f);
+    conf.setFloat(Sgd.LAMBDA, 0.01f);
+    conf.setInt(Sgd.VECTOR_SIZE, 2);
+    // Supersteps 0 and 1 initialize the users and the items, and the master
+    // halts before the first update.
+    conf.setInt(Sgd.ITERATIONS, 1);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    Map<String, FloatMatrixWritable> factors = 
+        new HashMap<String, FloatMatrixWritable>();
+    for (String string : InternalVertexRunner.run(conf, model, graph)) {
+      String[] tokens = string.split("\t");
+      factors.put(tokens[0], CfModelInputFormat.parseFactors(tokens[1], 2));
+    }
+    Assert.assertEquals(6, factors.size());
+
+    for (String line : model) {
+      String[] tokens = line.split("\t");
+      assertArrayEquals(CfModelInputFormat.parseFactors(tokens[1], 2).data,
+          factors.get(tokens[0]).data, 0.000001f);
+    }
+    for (String id : new String[] {"3 0", "3 1"}) {
+      for (float factor : factors.get(id).data) {
+        Assert.assertTrue(factor >= 0f && factor < 0.01f);
+      }
+    }
+  }
+
   //FIXME enable!
   //@Ignore
 //  public void testInMemoryRun() throws Exception {
@@ -24,16 +24,25 @@ import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
+import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat;
+import ml.grafos.okapi.cf.eval.CfModelInputFormat;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.io.formats.TextVertexOutputFormat;
 import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.jblas.FloatMatrix;
 import org.junit.Test;
 
@@ -166,4 +175,98 @@ public class SvdppTest {
     Assert.assertEquals(4, res.size());
     
   }
+
+  /**
+   * Warm-starts from a model that lacks user 3 and item 3. The run stops
+   * before the first update, so the vertices of the model must keep their
+   * latent vectors, while the baselines and the item weights, which the
+   * model does not hold, are initialized as in a cold start.
+   * @throws Exception
+   */
+  @Test
+  public void testWarmStart() throws Exception {
+    String[] model = {
+        "1 0\t[0.100000; 0.200000]",
+        "2 0\t[0.300000; 0.100000]",
+        "1 1\t[0.200000; 0.200000]",
+        "2 1\t[0.100000; 0.400000]"
+    };
+    String[] graph = { 
+        "1 1 1.0",
+        "1 2 2.0",
+        "2 1 3.0",
+        "2 2 4.0",
+        "3 3 5.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Svdpp.InitUsersComputation.class);
+    conf.setMasterComputeClass(Svdpp.MasterCompute.class);
+    conf.setVertexInputFormatClass(Svdpp.SvdppModelInputFormat.class);
+    conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
+    conf.setInt(Svdpp.VECTOR_SIZE, 2);
+    // Supersteps 0 and 1 initialize the users and the items, and the master
+    // halts before the first update.
+    conf.setInt(Svdpp.ITERATIONS, 1);
+    conf.setVertexOutputFormatClass(SvdppValueOutputFormat.class);
+    Map<String, String[]> values = new HashMap<String, String[]>();
+    for (String string : InternalVertexRunner.run(conf, model, graph)) {
+      String[] tokens = string.split("\t");
+      values.put(tokens[0], tokens);
+    }
+    Assert.assertEquals(6, values.size());
+
+    for (String line : model) {
+      String[] tokens = line.split("\t");
+      assertArrayEquals(CfModelInputFormat.parseFactors(tokens[1], 2).data,
+          CfModelInputFormat.parseFactors(values.get(tokens[0])[2], 2).data,
+          0.000001f);
+    }
+    for (String id : new String[] {"3 0", "3 1"}) {
+      for (float factor : 
+          CfModelInputFormat.parseFactors(values.get(id)[2], 2).data) {
+        Assert.assertTrue(factor >= 0f && factor < 0.01f);
+      }
+    }
+    for (String[] tokens : values.values()) {
+      // The model loads every baseline as 0
+      float baseline = Float.parseFloat(tokens[1]);
+      Assert.assertTrue(baseline > 0f && baseline < 1f);
+      FloatMatrixWritable weight = 
+          CfModelInputFormat.parseFactors(tokens[3], -1);
+      if (tokens[0].endsWith(" 0")) {
+        Assert.assertEquals(0, weight.length);
+      } else {
+        Assert.assertEquals(2, weight.length);
+        for (float w : weight.data) {
+          Assert.assertTrue(w >= 0f && w < 0.01f);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the id, the baseline, the latent vector and the weight vector of
+   * every vertex, separated by tabs.
+   */
+  public static class SvdppValueOutputFormat extends 
+  TextVertexOutputFormat<CfLongId, Svdpp.SvdppValue, FloatWritable> {
+
+    @Override
+    public TextVertexWriter createVertexWriter(TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      return new SvdppValueWriter();
+    }
+
+    protected class SvdppValueWriter extends TextVertexWriterToEachLine {
+      @Override
+      protected Text convertVertexToLine(
+          Vertex<CfLongId, Svdpp.SvdppValue, FloatWritable> vertex)
+          throws IOException {
+        Svdpp.SvdppValue value = vertex.getValue();
+        return new Text(vertex.getId() + "\t" + value.getBaseline() + "\t" +
+            value.getFactors() + "\t" + value.getWeight());
+      }
+    }
+  }
 }
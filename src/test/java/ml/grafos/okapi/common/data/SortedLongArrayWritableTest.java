@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SortedLongArrayWritableTest {
+
+  private static SortedLongArrayWritable of(long... values) {
+    SortedLongArrayWritable set = new SortedLongArrayWritable();
+    set.set(values, values.length);
+    return set;
+  }
+
+  @Test
+  public void testSetSortsAndRemovesDuplicates() {
+    SortedLongArrayWritable set = of(5, -3, 5, 1000000000000L, 0);
+    Assert.assertEquals(4, set.size());
+    Assert.assertEquals("[-3, 0, 5, 1000000000000]", set.toString());
+    Assert.assertTrue(set.contains(5));
+    Assert.assertFalse(set.contains(4));
+  }
+
+  @Test
+  public void testSerializationReusesInstance() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    of(-7, 1, 2, 3, 1L << 40).write(out);
+    of(42).write(out);
+    out.close();
+
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    SortedLongArrayWritable set = new SortedLongArrayWritable();
+    set.readFields(in);
+    Assert.assertEquals("[-7, 1, 2, 3, 1099511627776]", set.toString());
+    set.readFields(in);
+    Assert.assertEquals("[42]", set.toString());
+  }
+
+  @Test
+  public void testIntersectionSize() {
+    Assert.assertEquals(2, SortedLongArrayWritable.intersectionSize(
+        of(1, 3, 5, 7), of(2, 3, 4, 7, 8)));
+    Assert.assertEquals(0, SortedLongArrayWritable.intersectionSize(
+        of(), of(1, 2)));
+
+    // Compare the galloping path against a brute-force count.
+    Random random = new Random(42);
+    long[] large = new long[5000];
+    for (int i = 0; i < large.length; i++) {
+      large[i] = random.nextInt(20000);
+    }
+    long[] small = new long[40];
+    for (int i = 0; i < small.length; i++) {
+      small[i] = random.nextInt(20000);
+    }
+    SortedLongArrayWritable a = of(small);
+    SortedLongArrayWritable b = of(large);
+    int expected = 0;
+    for (int i = 0; i < a.size(); i++) {
+      if (b.contains(a.get(i))) {
+        expected++;
+      }
+    }
+    Assert.assertEquals(expected, SortedLongArrayWritable.intersectionSize(a, b));
+    Assert.assertEquals(expected, SortedLongArrayWritable.intersectionSize(b, a));
+  }
+
+  @Test
+  public void testIntersection() {
+    LongArrayList out = new LongArrayList();
+    out.add(-1);
+    Assert.assertEquals(2, SortedLongArrayWritable.intersection(
+        of(1, 3, 5, 7), of(2, 3, 4, 7, 8), out));
+    Assert.assertEquals(3, out.size());
+    Assert.assertEquals(3, out.getLong(1));
+    Assert.assertEquals(7, out.getLong(2));
+  }
+
+  @Test
+  public void testAddAll() {
+    SortedLongArrayWritable set = of(1, 4, 9);
+    set.addAll(of(0, 4, 5, 12));
+    Assert.assertEquals("[0, 1, 4, 5, 9, 12]", set.toString());
+    set.addAll(of());
+    Assert.assertEquals(6, set.size());
+  }
+}
@@ -17,8 +17,10 @@ package ml.grafos.okapi.graphs;
 
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
@@ -48,7 +50,7 @@ public class ClusteringCoefficientTest {
     };
 
     GiraphConfiguration conf = new GiraphConfiguration();
-    conf.setComputationClass(ClusteringCoefficient.SendFriendsList.class);
+    conf.setComputationClass(ClusteringCoefficient.SendIdAndDegree.class);
     conf.setMasterComputeClass(ClusteringCoefficient.MasterCompute.class);
     conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
     conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
@@ -64,8 +66,52 @@ public class ClusteringCoefficientTest {
     for (String string : results) {
       res.add(string);
       System.out.println(string);
+      String[] output = string.split("\t");
+      if (Long.parseLong(output[0]) == 3) {
+        // two triangles out of six pairs of neighbors
+        Assert.assertEquals(1.0/3.0, Double.parseDouble(output[1]), 0.0001);
+      } else {
+        Assert.assertEquals(1.0, Double.parseDouble(output[1]), 0.0001);
+      }
     }
     Assert.assertEquals(5, res.size());
   }
 
+  private Map<Long, Double> run(String[] graph, boolean directed)
+      throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(ClusteringCoefficient.SendIdAndDegree.class);
+    conf.setMasterComputeClass(ClusteringCoefficient.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.setBoolean(ClusteringCoefficient.DIRECTED, directed);
+    Map<Long, Double> coefficients = new HashMap<Long, Double>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] output = line.split("\t");
+      coefficients.put(Long.parseLong(output[0]), 
+          Double.parseDouble(output[1]));
+    }
+    return coefficients;
+  }
+
+  @Test
+  public void testDirected() throws Exception {
+    // The neighbors of 1 are 2 and 3, linked in both directions. The 
+    // neighbors of 3 are 1 and 2, linked by 1->2 only. Vertex 4 has no
+    // out-edges.
+    String[] graph = { "1 2", "1 3", "2 3", "3 1", "3 2", "2 4" };
+    Map<Long, Double> coefficients = run(graph, true);
+    Assert.assertEquals(4, coefficients.size());
+    Assert.assertEquals(1.0, coefficients.get(1L), 0.0001);
+    Assert.assertEquals(0.0, coefficients.get(2L), 0.0001);
+    Assert.assertEquals(0.5, coefficients.get(3L), 0.0001);
+    Assert.assertEquals(0.0, coefficients.get(4L), 0.0001);
+  }
+
+  @Test
+  public void testDirectedOnUndirectedGraph() throws Exception {
+    String[] graph = { "1 2", "2 1", "1 3", "3 1", "2 3", "3 2", 
+        "3 4", "4 3", "3 5", "5 3", "4 5", "5 4" };
+    Assert.assertEquals(run(graph, false), run(graph, true));
+  }
 }
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.io.formats.LongLongNullTextInputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConnectedComponentsTest {
+
+  static final String[] GRAPH = {
+      "1 2 3",
+      "2 1 3",
+      "3 1 2 4",
+      "4 3",
+      "5 6",
+      "6 5 7",
+      "7 6",
+      "8"
+  };
+
+  private Map<Long, Long> run(boolean combine) throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    if (combine) {
+      conf.setMessageCombinerClass(ConnectedComponents.MinCombiner.class);
+    }
+    return run(conf, GRAPH);
+  }
+
+  private Map<Long, Long> run(GiraphConfiguration conf, String[] graph)
+      throws Exception {
+    conf.setComputationClass(ConnectedComponents.class);
+    conf.setVertexInputFormatClass(LongLongNullTextInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    Map<Long, Long> components = new HashMap<Long, Long>();
+    for (String line : InternalVertexRunner.run(conf, graph)) {
+      String[] tokens = line.split("\t");
+      components.put(Long.parseLong(tokens[0]), Long.parseLong(tokens[1]));
+    }
+    return components;
+  }
+
+  @Test
+  public void testComponents() throws Exception {
+    Map<Long, Long> components = run(false);
+    Assert.assertEquals(8, components.size());
+    for (long id = 1; id <= 4; id++) {
+      Assert.assertEquals(1L, (long)components.get(id));
+    }
+    for (long id = 5; id <= 7; id++) {
+      Assert.assertEquals(5L, (long)components.get(id));
+    }
+    Assert.assertEquals(8L, (long)components.get(8L));
+  }
+
+  @Test
+  public void testCombinerKeepsComponents() throws Exception {
+    Assert.assertEquals(run(false), run(true));
+  }
+
+  private GiraphConfiguration pointerJumpingConf() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setMasterComputeClass(ConnectedComponents.MasterCompute.class);
+    conf.setBoolean(ConnectedComponents.POINTER_JUMPING, true);
+    return conf;
+  }
+
+  @Test
+  public void testPointerJumping() throws Exception {
+    Assert.assertEquals(run(false), run(pointerJumpingConf(), GRAPH));
+  }
+
+  @Test
+  public void testPointerJumpingOnChain() throws Exception {
+    // a path with shuffled ids
+    int n = 200;
+    List<Long> ids = new ArrayList<Long>();
+    for (long id = 1; id <= n; id++) {
+      ids.add(id);
+    }
+    Collections.shuffle(ids, new Random(42));
+    String[] chain = new String[n];
+    for (int i = 0; i < n; i++) {
+      StringBuilder line = new StringBuilder().append(ids.get(i));
+      if (i > 0) {
+        line.append(' ').append(ids.get(i - 1));
+      }
+      if (i < n - 1) {
+        line.append(' ').append(ids.get(i + 1));
+      }
+      chain[i] = line.toString();
+    }
+    // Label propagation needs as many supersteps as the diameter, 199. 
+    // Pointer jumping takes O(log n) rounds of a few supersteps each, about
+    // 45 on shuffled chains of this length, so the cap only stops it if it
+    // does not converge in fewer supersteps than the diameter.
+    GiraphConfiguration conf = pointerJumpingConf();
+    conf.setMaxNumberOfSupersteps(80);
+    Map<Long, Long> components = run(conf, chain);
+    Assert.assertEquals(n, components.size());
+    for (long component : components.values()) {
+      Assert.assertEquals(1L, component);
+    }
+    Assert.assertEquals(run(new GiraphConfiguration(), chain), components);
+  }
+
+  @Test
+  public void testLocalUnionFind() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setMasterComputeClass(ConnectedComponents.MasterCompute.class);
+    conf.setWorkerContextClass(ConnectedComponents.LocalComponents.class);
+    conf.setBoolean(ConnectedComponents.LOCAL_UNION_FIND, true);
+    Assert.assertEquals(run(false), run(conf, GRAPH));
+  }
+
+  private static List<Edge<LongWritable, NullWritable>> edges(
+      long... targets) {
+    List<Edge<LongWritable, NullWritable>> edges = 
+        new ArrayList<Edge<LongWritable, NullWritable>>();
+    for (long target : targets) {
+      edges.add(EdgeFactory.create(new LongWritable(target)));
+    }
+    return edges;
+  }
+
+  /**
+   * The test runner has a single worker, so this splits the chain 
+   * 5-1-2-6-3-4 by hand: the first worker has 5, 1 and 2, the second one 
+   * has 6, 3 and 4, and 2-6 is the only cut edge.
+   */
+  @Test
+  public void testLocalComponentsAcrossWorkers() {
+    ConnectedComponents.LocalComponents first = 
+        new ConnectedComponents.LocalComponents();
+    ConnectedComponents.LocalComponents second = 
+        new ConnectedComponents.LocalComponents();
+    for (long id : new long[] {5, 1, 2}) {
+      first.addLocal(id);
+    }
+    for (long id : new long[] {6, 3, 4}) {
+      second.addLocal(id);
+    }
+    first.union(5, edges(1));
+    first.union(1, edges(5, 2));
+    first.union(2, edges(1, 6));
+    second.union(6, edges(2, 3));
+    second.union(3, edges(6, 4));
+    second.union(4, edges(3));
+    first.flatten();
+    second.flatten();
+
+    Assert.assertTrue(first.isLocal(2));
+    Assert.assertFalse(first.isLocal(6));
+    Assert.assertFalse(second.isLocal(2));
+    int firstSet = first.getSet(5);
+    Assert.assertEquals(firstSet, first.getSet(1));
+    Assert.assertEquals(firstSet, first.getSet(2));
+    int secondSet = second.getSet(4);
+    Assert.assertEquals(secondSet, second.getSet(3));
+    Assert.assertEquals(secondSet, second.getSet(6));
+
+    // Each set includes the remote end of the cut edge.
+    Assert.assertEquals(1L, first.getLabel(firstSet));
+    Assert.assertEquals(2L, second.getLabel(secondSet));
+
+    // Vertex 2 sends label 1 over the cut edge, which lowers the whole set 
+    // of vertex 6 on the second worker. A larger label changes nothing.
+    second.lowerLabel(second.getSet(6), first.getLabel(first.getSet(2)));
+    Assert.assertEquals(1L, second.getLabel(second.getSet(4)));
+    second.lowerLabel(secondSet, 3L);
+    Assert.assertEquals(1L, second.getLabel(secondSet));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testLocalComponentsUnknownVertex() {
+    ConnectedComponents.LocalComponents components = 
+        new ConnectedComponents.LocalComponents();
+    components.addLocal(1);
+    components.union(1, edges(2));
+    components.flatten();
+    components.getSet(3);
+  }
+}
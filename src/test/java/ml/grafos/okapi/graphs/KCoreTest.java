@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KCoreTest {
+
+  /**
+   * A 4-clique on 1-4, vertex 5 attached to 1 and 2, and a path 5-6-7.
+   */
+  static final String[] GRAPH = {
+      "1 2", "2 1", "1 3", "3 1", "1 4", "4 1",
+      "2 3", "3 2", "2 4", "4 2", "3 4", "4 3",
+      "5 1", "1 5", "5 2", "2 5",
+      "5 6", "6 5", "6 7", "7 6"
+  };
+
+  @Test
+  public void testCoreness() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(KCore.Coreness.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+
+    Map<Long, Integer> cores = new HashMap<Long, Integer>();
+    for (String line : InternalVertexRunner.run(conf, null, GRAPH)) {
+      String[] tokens = line.split("\t");
+      cores.put(Long.parseLong(tokens[0]), Integer.parseInt(tokens[1]));
+    }
+    Assert.assertEquals(7, cores.size());
+    for (long id = 1; id <= 4; id++) {
+      Assert.assertEquals(3, (int)cores.get(id));
+    }
+    Assert.assertEquals(2, (int)cores.get(5L));
+    Assert.assertEquals(1, (int)cores.get(6L));
+    Assert.assertEquals(1, (int)cores.get(7L));
+  }
+
+  private Map<Long, Set<Long>> runPeeling(int k) throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(KCore.KCorePeeling.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(KCore.KCoreOutputFormat.class);
+    conf.setInt(KCore.K_VALUE, k);
+
+    Map<Long, Set<Long>> core = new HashMap<Long, Set<Long>>();
+    for (String line : InternalVertexRunner.run(conf, null, GRAPH)) {
+      String[] tokens = line.split("\t");
+      Set<Long> neighbors = new HashSet<Long>();
+      for (int i = 1; i < tokens.length; i++) {
+        if (!tokens[i].isEmpty()) {
+          neighbors.add(Long.parseLong(tokens[i]));
+        }
+      }
+      core.put(Long.parseLong(tokens[0]), neighbors);
+    }
+    return core;
+  }
+
+  private static Set<Long> setOf(Long... ids) {
+    return new HashSet<Long>(Arrays.asList(ids));
+  }
+
+  @Test
+  public void testPeeling() throws Exception {
+    Map<Long, Set<Long>> core = runPeeling(2);
+    Assert.assertEquals(5, core.size());
+    Assert.assertEquals(setOf(2L, 3L, 4L, 5L), core.get(1L));
+    Assert.assertEquals(setOf(1L, 3L, 4L, 5L), core.get(2L));
+    Assert.assertEquals(setOf(1L, 2L), core.get(5L));
+
+    core = runPeeling(3);
+    Assert.assertEquals(4, core.size());
+    Assert.assertEquals(setOf(2L, 3L, 4L), core.get(1L));
+    Assert.assertEquals(setOf(1L, 2L, 3L), core.get(4L));
+
+    Assert.assertTrue(runPeeling(4).isEmpty());
+  }
+}
@@ -17,16 +17,22 @@ package ml.grafos.okapi.graphs;
 
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.Assert;
 import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.graphs.MultipleSourceShortestPaths.DistanceUpdates;
 import ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat;
 
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
 import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.LongWritable;
 import org.junit.Test;
 
 public class MultipleSourceShortestPathsTest {
@@ -71,4 +77,133 @@ public class MultipleSourceShortestPathsTest {
     Assert.assertEquals(5, res.size());
   }
 
+  @Test
+  public void testSourcesList() throws Exception {
+    String[] graph = { 
+        "1 2 1.0",
+        "2 1 1.0",
+        "1 3 1.0",
+        "3 1 1.0",
+        "2 3 2.0",
+        "3 2 2.0",
+        "3 4 2.0",
+        "4 3 2.0",
+        "3 5 1.0",
+        "5 3 1.0",
+        "4 5 1.0",
+        "5 4 1.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(MultipleSourceShortestPaths.InitSources.class);
+    conf.setMasterComputeClass(MultipleSourceShortestPaths.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongFloatTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.set(MultipleSourceShortestPaths.SOURCES_LIST, "1:4");
+
+    // vertex -> {distance from 1, distance from 4}, the sources get the
+    // indices 0 and 1 in the order of their IDs
+    Map<Long, float[]> expected = new HashMap<Long, float[]>();
+    expected.put(1L, new float[] {0, 3});
+    expected.put(2L, new float[] {1, 4});
+    expected.put(3L, new float[] {1, 2});
+    expected.put(4L, new float[] {3, 0});
+    expected.put(5L, new float[] {2, 1});
+
+    Pattern entry = Pattern.compile("\\((\\d+),([0-9.]+)\\)");
+    int vertices = 0;
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      vertices++;
+      String[] tokens = line.split("\t");
+      float[] distances = expected.get(Long.parseLong(tokens[0]));
+      Map<Long, Float> actual = new HashMap<Long, Float>();
+      Matcher m = entry.matcher(tokens[1]);
+      while (m.find()) {
+        actual.put(Long.parseLong(m.group(1)), Float.parseFloat(m.group(2)));
+      }
+      Assert.assertEquals(2, actual.size());
+      assertEquals(distances[0], actual.get(0L), 0.0001f);
+      assertEquals(distances[1], actual.get(1L), 0.0001f);
+    }
+    Assert.assertEquals(5, vertices);
+  }
+
+  private Map<Long, String> runOnGrid(boolean bfs) throws Exception {
+    // 10x10 grid with unit weights
+    List<String> edges = new LinkedList<String>();
+    for (int row = 0; row < 10; row++) {
+      for (int col = 0; col < 10; col++) {
+        long id = row * 10 + col + 1;
+        if (col < 9) {
+          edges.add(id + " " + (id + 1) + " 1.0");
+          edges.add((id + 1) + " " + id + " 1.0");
+        }
+        if (row < 9) {
+          edges.add(id + " " + (id + 10) + " 1.0");
+          edges.add((id + 10) + " " + id + " 1.0");
+        }
+      }
+    }
+    // more than 64 sources, so that the bitsets take two words
+    StringBuilder sources = new StringBuilder("1");
+    for (int id = 2; id <= 70; id++) {
+      sources.append(':').append(id);
+    }
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(MultipleSourceShortestPaths.InitSources.class);
+    conf.setMasterComputeClass(MultipleSourceShortestPaths.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongFloatTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.set(MultipleSourceShortestPaths.SOURCES_LIST, sources.toString());
+    conf.setBoolean(MultipleSourceShortestPaths.BIT_PARALLEL_BFS, bfs);
+
+    Map<Long, String> res = new HashMap<Long, String>();
+    for (String line : InternalVertexRunner.run(conf, null, 
+        edges.toArray(new String[edges.size()]))) {
+      String[] tokens = line.split("\t");
+      res.put(Long.parseLong(tokens[0]), tokens[1]);
+    }
+    return res;
+  }
+
+  @Test
+  public void testBitParallelBfs() throws Exception {
+    Map<Long, String> bfs = runOnGrid(true);
+    Assert.assertEquals(100, bfs.size());
+    Assert.assertEquals(runOnGrid(false), bfs);
+    // vertex 100 is at (9,9), source 70 (index 69) at (6,9)
+    Assert.assertTrue(bfs.get(100L).contains("(69,3.0)"));
+  }
+
+  @Test
+  public void testMinDistanceCombiner() {
+    MultipleSourceShortestPaths.MinDistanceCombiner combiner = 
+        new MultipleSourceShortestPaths.MinDistanceCombiner();
+    DistanceUpdates original = combiner.createInitialMessage();
+
+    DistanceUpdates msg = new DistanceUpdates();
+    msg.add(0, 3);
+    msg.add(1, 2);
+    combiner.combine(new LongWritable(7), original, msg);
+
+    msg.clear();
+    msg.add(0, 5);
+    msg.add(1, 1);
+    msg.add(2, 4);
+    combiner.combine(new LongWritable(7), original, msg);
+
+    msg.clear();
+    msg.add(1, 7);
+    msg.add(3, 2);
+    combiner.combine(new LongWritable(7), original, msg);
+
+    // the merged message stays sorted by source index
+    Assert.assertEquals(4, original.size());
+    float[] expected = {3, 1, 4, 2};
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertEquals(i, original.getSourceIndex(i));
+      assertEquals(expected[i], original.getDistance(i), 0);
+    }
+  }
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class PersonalizedPageRankTest {
+
+  static final String[] GRAPH = {
+      "1 2 1.0",
+      "1 3 1.0",
+      "2 3 1.0",
+      "3 1 1.0",
+      "3 6 1.0",
+      "4 3 1.0",
+      "4 1 1.0",
+      "4 5 1.0",
+      "5 4 1.0"
+  };
+
+  private List<String[]> pairsOf(List<String[]> res, long seed) {
+    List<String[]> pairs = new LinkedList<String[]>();
+    for (String[] pair : res) {
+      if (Long.parseLong(pair[0]) == seed) {
+        pairs.add(pair);
+      }
+    }
+    return pairs;
+  }
+
+  private void assertTop(List<String[]> pairs, long[] ids, double[] ppr) {
+    assertEquals(ids.length, pairs.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(ids[i], Long.parseLong(pairs.get(i)[1]));
+      assertEquals(ppr[i], Double.parseDouble(pairs.get(i)[2]), 0.01);
+    }
+  }
+
+  @Test
+  public void testTopVertices() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(PersonalizedPageRank.LaunchWalks.class);
+    conf.setMasterComputeClass(PersonalizedPageRank.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongFloatTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(
+        PersonalizedPageRank.TopVerticesOutputFormat.class);
+    conf.set(PersonalizedPageRank.SEEDS_LIST, "1:4");
+    conf.setInt(PersonalizedPageRank.NUM_WALKS, 20000);
+    conf.setInt(PersonalizedPageRank.K, 3);
+    Parameters.RANDOM_SEED.set(conf, 7);
+
+    List<String[]> res = new LinkedList<String[]>();
+    for (String line : InternalVertexRunner.run(conf, null, GRAPH)) {
+      res.add(line.split("\t"));
+    }
+    assertEquals(6, res.size());
+
+    // exact values of the walks truncated at 20 steps
+    assertTop(pairsOf(res, 1), new long[] {1, 3, 2},
+        new double[] {0.2253, 0.1771, 0.0957});
+    assertTop(pairsOf(res, 4), new long[] {4, 3, 1},
+        new double[] {0.1976, 0.1501, 0.1198});
+  }
+}
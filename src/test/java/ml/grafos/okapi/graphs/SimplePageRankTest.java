@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimplePageRankTest {
+
+  static final String[] GRAPH = {
+      "1 2 1.0",
+      "1 3 1.0",
+      "2 3 1.0",
+      "3 1 1.0",
+      "4 3 1.0",
+      "4 1 1.0",
+      "5 4 1.0"
+  };
+
+  /** Vertex 6 has no out-edges */
+  static final String[] DANGLING_GRAPH = {
+      "1 2 1.0",
+      "1 3 1.0",
+      "2 3 1.0",
+      "3 1 1.0",
+      "4 3 1.0",
+      "4 1 1.0",
+      "5 4 1.0",
+      "5 6 1.0"
+  };
+
+  private Map<Long, Double> run(boolean combine) throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(SimplePageRank.class);
+    conf.setInt(SimplePageRank.MAX_SUPERSTEPS, 10);
+    if (combine) {
+      conf.setMessageCombinerClass(SimplePageRank.SumCombiner.class);
+    }
+    return run(conf, GRAPH);
+  }
+
+  private Map<Long, Double> run(GiraphConfiguration conf, String[] graph)
+      throws Exception {
+    conf.setEdgeInputFormatClass(LongFloatTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    Map<Long, Double> ranks = new HashMap<Long, Double>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] tokens = line.split("\t");
+      ranks.put(Long.parseLong(tokens[0]), Double.parseDouble(tokens[1]));
+    }
+    return ranks;
+  }
+
+  @Test
+  public void testCombinerKeepsRanks() throws Exception {
+    Map<Long, Double> expected = run(false);
+    Map<Long, Double> actual = run(true);
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<Long, Double> e : expected.entrySet()) {
+      Assert.assertEquals(e.getValue(), actual.get(e.getKey()), 1e-9);
+    }
+  }
+
+  private GiraphConfiguration convergenceConf() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setMasterComputeClass(SimplePageRank.MasterCompute.class);
+    conf.setMessageCombinerClass(SimplePageRank.SumCombiner.class);
+    conf.setInt(SimplePageRank.MAX_SUPERSTEPS, 500);
+    conf.setFloat(SimplePageRank.TOLERANCE, 1e-9f);
+    return conf;
+  }
+
+  @Test
+  public void testDanglingRankAndTolerance() throws Exception {
+    GiraphConfiguration conf = convergenceConf();
+    conf.setComputationClass(SimplePageRank.class);
+    Map<Long, Double> ranks = run(conf, DANGLING_GRAPH);
+
+    double sum = 0;
+    for (double rank : ranks.values()) {
+      sum += rank;
+    }
+    Assert.assertEquals(1.0, sum, 1e-6);
+    Assert.assertEquals(0.348745, ranks.get(1L), 1e-4);
+    Assert.assertEquals(0.179540, ranks.get(2L), 1e-4);
+    Assert.assertEquals(0.351119, ranks.get(3L), 1e-4);
+    Assert.assertEquals(0.044636, ranks.get(4L), 1e-4);
+    Assert.assertEquals(0.031323, ranks.get(5L), 1e-4);
+    Assert.assertEquals(0.044636, ranks.get(6L), 1e-4);
+  }
+
+  @Test
+  public void testDeltaPageRank() throws Exception {
+    GiraphConfiguration conf = convergenceConf();
+    conf.setComputationClass(SimplePageRank.class);
+    Map<Long, Double> expected = run(conf, DANGLING_GRAPH);
+
+    conf = convergenceConf();
+    conf.setComputationClass(SimplePageRank.DeltaPageRank.class);
+    conf.setFloat(SimplePageRank.DELTA_THRESHOLD, 1e-6f);
+    Map<Long, Double> actual = run(conf, DANGLING_GRAPH);
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<Long, Double> e : expected.entrySet()) {
+      Assert.assertEquals(e.getValue(), actual.get(e.getKey()), 1e-5);
+    }
+  }
+}
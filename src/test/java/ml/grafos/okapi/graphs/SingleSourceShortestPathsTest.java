@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleSourceShortestPathsTest {
+
+  static final String[] GRAPH = {
+      "1 2 1.0", "2 1 1.0",
+      "1 3 4.0", "3 1 4.0",
+      "2 3 1.0", "3 2 1.0",
+      "3 4 5.0", "4 3 5.0",
+      "2 4 7.0", "4 2 7.0",
+      "4 5 1.0", "5 4 1.0",
+      "6 7 1.0", "7 6 1.0"
+  };
+
+  /** Vertices 3, 4 and 5 have no out-edges, 5 is at distance 0 */
+  static final String[] SINKS = {
+      "1 2 0.0", "2 3 1.5", "1 4 3.0", "1 5 0.0"
+  };
+
+  private Map<Long, Double> run(GiraphConfiguration conf) throws Exception {
+    return run(conf, GRAPH);
+  }
+
+  private Map<Long, Double> run(GiraphConfiguration conf, String[] graph)
+      throws Exception {
+    conf.setEdgeInputFormatClass(LongFloatTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    Map<Long, Double> distances = new HashMap<Long, Double>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] tokens = line.split("\t");
+      distances.put(Long.parseLong(tokens[0]), 
+          Double.parseDouble(tokens[1]));
+    }
+    return distances;
+  }
+
+  private void assertDistances(Map<Long, Double> distances) {
+    Assert.assertEquals(7, distances.size());
+    Assert.assertEquals(0.0, distances.get(1L), 1e-9);
+    Assert.assertEquals(1.0, distances.get(2L), 1e-9);
+    Assert.assertEquals(2.0, distances.get(3L), 1e-9);
+    Assert.assertEquals(7.0, distances.get(4L), 1e-9);
+    Assert.assertEquals(8.0, distances.get(5L), 1e-9);
+    Assert.assertEquals(Double.MAX_VALUE, distances.get(6L), 1e-9);
+    Assert.assertEquals(Double.MAX_VALUE, distances.get(7L), 1e-9);
+  }
+
+  @Test
+  public void testBellmanFord() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(SingleSourceShortestPaths.class);
+    assertDistances(run(conf));
+  }
+
+  private GiraphConfiguration deltaSteppingConf(float delta) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(SingleSourceShortestPaths.DeltaStepping.class);
+    conf.setMasterComputeClass(
+        SingleSourceShortestPaths.DeltaSteppingMasterCompute.class);
+    GiraphConstants.VERTEX_VALUE_FACTORY_CLASS.set(conf,
+        SingleSourceShortestPaths.UnreachedValueFactory.class);
+    conf.setFloat(SingleSourceShortestPaths.DELTA, delta);
+    return conf;
+  }
+
+  @Test
+  public void testDeltaStepping() throws Exception {
+    for (float delta : new float[] {0.5f, 2f, 100f}) {
+      assertDistances(run(deltaSteppingConf(delta)));
+    }
+  }
+
+  /**
+   * The sinks are created by messages, and the one reached over a
+   * zero-weight edge must keep its distance of 0.
+   */
+  @Test
+  public void testDeltaSteppingSinks() throws Exception {
+    for (float delta : new float[] {0.5f, 2f, 100f}) {
+      Map<Long, Double> distances = run(deltaSteppingConf(delta), SINKS);
+      Assert.assertEquals(5, distances.size());
+      Assert.assertEquals(0.0, distances.get(1L), 1e-9);
+      Assert.assertEquals(0.0, distances.get(2L), 1e-9);
+      Assert.assertEquals(1.5, distances.get(3L), 1e-9);
+      Assert.assertEquals(3.0, distances.get(4L), 1e-9);
+      Assert.assertEquals(0.0, distances.get(5L), 1e-9);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.io.formats.LongDoubleTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SybilRankTest {
+
+  static final int N = 5;
+  static final double[][] WEIGHTS = new double[N + 1][N + 1];
+  static final String[] EDGES;
+
+  static {
+    double[][] edges = {
+        {1, 2, 1.0}, {1, 3, 2.0}, {2, 3, 1.0}, {3, 4, 0.5}, {4, 5, 3.0},
+        {2, 5, 1.0}
+    };
+    EDGES = new String[2 * edges.length];
+    for (int i = 0; i < edges.length; i++) {
+      int u = (int)edges[i][0];
+      int v = (int)edges[i][1];
+      WEIGHTS[u][v] = edges[i][2];
+      WEIGHTS[v][u] = edges[i][2];
+      EDGES[2 * i] = u + " " + v + " " + edges[i][2];
+      EDGES[2 * i + 1] = v + " " + u + " " + edges[i][2];
+    }
+  }
+
+  /**
+   * Runs the power iterations directly on the weight matrix.
+   */
+  private static double[] expectedRanks(int iterations) {
+    double[] degree = new double[N + 1];
+    for (int u = 1; u <= N; u++) {
+      for (int v = 1; v <= N; v++) {
+        degree[u] += WEIGHTS[u][v];
+      }
+    }
+    double[] rank = new double[N + 1];
+    rank[1] = N;
+    for (int i = 0; i < iterations; i++) {
+      double[] next = new double[N + 1];
+      for (int u = 1; u <= N; u++) {
+        for (int v = 1; v <= N; v++) {
+          next[v] += rank[u] * WEIGHTS[u][v] / degree[u];
+        }
+      }
+      rank = next;
+    }
+    for (int u = 1; u <= N; u++) {
+      rank[u] /= degree[u];
+    }
+    return rank;
+  }
+
+  /**
+   * @return the first power iteration whose L1 rank change is within the
+   * tolerance
+   */
+  private static int iterationsToTolerance(double tolerance) {
+    for (int i = 1; ; i++) {
+      double[] previous = expectedRanks(i - 1);
+      double[] current = expectedRanks(i);
+      double residual = 0;
+      for (int u = 1; u <= N; u++) {
+        double degree = 0;
+        for (int v = 1; v <= N; v++) {
+          degree += WEIGHTS[u][v];
+        }
+        residual += Math.abs(current[u] - previous[u]) * degree;
+      }
+      if (residual <= tolerance) {
+        return i;
+      }
+    }
+  }
+
+  private Map<Long, Double> run(GiraphConfiguration conf) throws Exception {
+    conf.setComputationClass(SybilRank.SybilRankComputation.class);
+    conf.setMasterComputeClass(SybilRank.SybilRankMasterCompute.class);
+    conf.setVertexInputFormatClass(
+        SybilRank.SybilRankVertexValueInputFormat.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+
+    Map<Long, Double> ranks = new HashMap<Long, Double>();
+    for (String line : InternalVertexRunner.run(conf, new String[] {"1"},
+        EDGES)) {
+      String[] tokens = line.split("\t");
+      ranks.put(Long.parseLong(tokens[0]), Double.parseDouble(tokens[1]));
+    }
+    return ranks;
+  }
+
+  @Test
+  public void testRanks() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setInt(SybilRank.ITERATION_MULTIPLIER, 3);
+    Map<Long, Double> ranks = run(conf);
+
+    // 3*log10(5) rounds up to 3 power iterations
+    double[] expected = expectedRanks(3);
+    Assert.assertEquals(N, ranks.size());
+    for (int u = 1; u <= N; u++) {
+      Assert.assertEquals(expected[u], ranks.get((long)u), 1e-9);
+    }
+  }
+
+  @Test
+  public void testTolerance() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    // 30*log10(5) rounds up to 21 power iterations
+    conf.setInt(SybilRank.ITERATION_MULTIPLIER, 30);
+    conf.setFloat(SybilRank.TOLERANCE, 1f);
+    Map<Long, Double> ranks = run(conf);
+
+    int iterations = iterationsToTolerance(1.0);
+    Assert.assertTrue(iterations < 21);
+    double[] expected = expectedRanks(iterations);
+    for (int u = 1; u <= N; u++) {
+      Assert.assertEquals(expected[u], ranks.get((long)u), 1e-9);
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.giraph.master.MasterCompute;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TrianglesTest {
+
+  /**
+   * Vertex 1 is a hub with the lowest ID. The triangles are 1-2-3, 1-3-4,
+   * 1-4-5, 1-5-6, 1-2-6 and 2-6-7.
+   */
+  private static final String[] EDGES = {
+    "1 2", "1 3", "1 4", "1 5", "1 6",
+    "2 3", "3 4", "4 5", "5 6", "2 6",
+    "6 7", "7 2"
+  };
+
+  private static String[] undirected(String[] edges) {
+    String[] graph = new String[2 * edges.length];
+    for (int i = 0; i < edges.length; i++) {
+      String[] tokens = edges[i].split(" ");
+      graph[2 * i] = tokens[0] + " " + tokens[1];
+      graph[2 * i + 1] = tokens[1] + " " + tokens[0];
+    }
+    return graph;
+  }
+
+  private Iterable<String> run(Class<? extends MasterCompute> master,
+      boolean orderByDegree, boolean intersect) throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Triangles.Initialize.class);
+    conf.setMasterComputeClass(master);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(Triangles.TriangleOutputFormat.class);
+    conf.setBoolean(Triangles.ORDER_BY_DEGREE, orderByDegree);
+    conf.setBoolean(Triangles.INTERSECT, intersect);
+    return InternalVertexRunner.run(conf, null, undirected(EDGES));
+  }
+
+  private long countTriangles(boolean orderByDegree, boolean intersect)
+      throws Exception {
+    long total = 0;
+    for (String line : run(Triangles.TriangleCount.class, orderByDegree,
+        intersect)) {
+      total += Long.parseLong(line.split("\t")[1]);
+    }
+    return total;
+  }
+
+  private long findTriangles(boolean orderByDegree) throws Exception {
+    Pattern pair = Pattern.compile("\\[\\d+, \\d+\\]");
+    long total = 0;
+    for (String line : run(Triangles.TriangleFind.class, orderByDegree,
+        false)) {
+      Matcher m = pair.matcher(line.split("\t")[1]);
+      while (m.find()) {
+        total++;
+      }
+    }
+    return total;
+  }
+
+  @Test
+  public void testCount() throws Exception {
+    Assert.assertEquals(6, countTriangles(true, false));
+    Assert.assertEquals(6, countTriangles(false, false));
+  }
+
+  @Test
+  public void testCountByIntersection() throws Exception {
+    Assert.assertEquals(6, countTriangles(true, true));
+  }
+
+  /**
+   * Keeps the unique triangles counter and the aggregated count of the last
+   * run.
+   */
+  public static class TriangleCountWithCounter 
+      extends Triangles.TriangleCount {
+    static long counted;
+    static long aggregated;
+
+    @Override
+    public void compute() {
+      super.compute();
+      if (getSuperstep() == 4) {
+        counted = counter(this, Triangles.COUNTER_TRIANGLES);
+        aggregated = this.<LongWritable>getAggregatedValue(
+            Triangles.TRIANGLES_AGGREGATOR).get();
+      }
+    }
+  }
+
+  @Test
+  public void testCountWithoutVertexOutput() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Triangles.Initialize.class);
+    conf.setMasterComputeClass(TriangleCountWithCounter.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(Triangles.TriangleOutputFormat.class);
+    conf.setBoolean(Triangles.OUTPUT_VERTICES, false);
+    TriangleCountWithCounter.counted = 0;
+    TriangleCountWithCounter.aggregated = 0;
+    Assert.assertFalse(InternalVertexRunner.run(conf, null, 
+        undirected(EDGES)).iterator().hasNext());
+    Assert.assertEquals(6, TriangleCountWithCounter.aggregated);
+    Assert.assertEquals(6, TriangleCountWithCounter.counted);
+  }
+
+  @Test
+  public void testFind() throws Exception {
+    Assert.assertEquals(6, findTriangles(true));
+    Assert.assertEquals(6, findTriangles(false));
+  }
+
+  /**
+   * Keeps the sampled and closed wedge counters of the last run.
+   */
+  public static class ApproximateTriangleCountWithCounters 
+      extends Triangles.ApproximateTriangleCount {
+    static long sampled;
+    static long closed;
+
+    @Override
+    public void compute() {
+      super.compute();
+      if (getSuperstep() == 3) {
+        sampled = counter(this, Triangles.COUNTER_SAMPLED);
+        closed = counter(this, Triangles.COUNTER_CLOSED);
+      }
+    }
+  }
+
+  private static long counter(DefaultMasterCompute master, String name) {
+    return master.getContext().getCounter(Triangles.COUNTER_GROUP, name)
+        .getValue();
+  }
+
+  private GiraphConfiguration estimateConf(float rate) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Triangles.SampleWedges.class);
+    conf.setMasterComputeClass(ApproximateTriangleCountWithCounters.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(Triangles.TriangleOutputFormat.class);
+    conf.setFloat(Triangles.SAMPLE_RATE, rate);
+    return conf;
+  }
+
+  private double estimateVertexTriangles(float rate) throws Exception {
+    double total = 0;
+    for (String line : InternalVertexRunner.run(estimateConf(rate), null,
+        undirected(EDGES))) {
+      total += Double.parseDouble(line.split("\t")[1]);
+    }
+    return total;
+  }
+
+  @Test
+  public void testApproximateCount() throws Exception {
+    // Checking every wedge is exact, every triangle is seen by 3 vertices.
+    Assert.assertEquals(18, estimateVertexTriangles(1.0f), 1e-9);
+    Assert.assertTrue(estimateVertexTriangles(0.3f) >= 0);
+  }
+
+  @Test
+  public void testSampledAndClosedWedges() throws Exception {
+    // The degrees are 5, 4, 3, 3, 3, 4 and 2, so there are 32 wedges, and
+    // each of the 6 triangles closes 3 of them.
+    estimateVertexTriangles(1.0f);
+    Assert.assertEquals(32, ApproximateTriangleCountWithCounters.sampled);
+    Assert.assertEquals(18, ApproximateTriangleCountWithCounters.closed);
+
+    // Each vertex samples ceil(rate * wedges) of its wedges. Vertex 7 has a
+    // single wedge, which is closed, so at least one is always closed.
+    estimateVertexTriangles(0.5f);
+    Assert.assertEquals(5 + 3 + 2 + 2 + 2 + 3 + 1,
+        ApproximateTriangleCountWithCounters.sampled);
+    Assert.assertTrue(ApproximateTriangleCountWithCounters.closed > 0);
+    Assert.assertTrue(ApproximateTriangleCountWithCounters.closed <=
+        ApproximateTriangleCountWithCounters.sampled);
+  }
+
+  @Test
+  public void testApproximateOutput() throws Exception {
+    // Vertex 8 hangs off vertex 7 and belongs to no triangle.
+    String[] edges = new String[EDGES.length + 1];
+    System.arraycopy(EDGES, 0, edges, 0, EDGES.length);
+    edges[EDGES.length] = "7 8";
+    int lines = 0;
+    for (String line : InternalVertexRunner.run(estimateConf(1.0f), null,
+        undirected(edges))) {
+      Assert.assertFalse(line.startsWith("8\t"));
+      lines++;
+    }
+    Assert.assertEquals(7, lines);
+
+    GiraphConfiguration conf = estimateConf(1.0f);
+    conf.setBoolean(Triangles.OUTPUT_VERTICES, false);
+    Assert.assertFalse(InternalVertexRunner.run(conf, null, 
+        undirected(edges)).iterator().hasNext());
+    Assert.assertEquals(18, ApproximateTriangleCountWithCounters.closed);
+  }
+}
@@ -164,4 +164,61 @@ public class AdamicAdarTest {
     }
   }
 
+  @Test
+  public void testPairsSimilarity() {
+    String[] graph = { 
+        "1 2 0.0",
+        "2 1 0.0",
+        "1 3 0.0",
+        "3 1 0.0",
+        "1 4 0.0",
+        "4 1 0.0",
+        "2 4 0.0",
+        "4 2 0.0",
+        "2 5 0.0",
+        "5 2 0.0",
+        "3 4 0.0",
+        "4 3 0.0",
+        "4 5 0.0",
+        "5 4 0.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(AdamicAdar.ComputeLogOfInverseDegree.class);
+    conf.setMasterComputeClass(AdamicAdar.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+    conf.setOutEdgesClass(HashMapEdges.class);
+    conf.setBoolean(AdamicAdar.ADAMICADAR_PAIRS, true);
+
+    Iterable<String> results;
+    try {
+      results = InternalVertexRunner.run(conf, null, graph);
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Exception occurred");
+      return;
+    }
+    int vertices = 0;
+    for (String string : results) {
+      vertices++;
+      String[] output = string.split("[\t ]");
+      if (Integer.parseInt(output[0]) == 1) {
+        assertEquals(-1.098612, Double.parseDouble(output[1]), delta);
+        assertEquals(2, Integer.parseInt(output[2]));
+        assertEquals(-1.386294, Double.parseDouble(output[3]), delta);
+        assertEquals(-1.386294, Double.parseDouble(output[5]), delta);
+        assertEquals(-1.791759, Double.parseDouble(output[7]), delta);
+      }
+      if (Integer.parseInt(output[0]) == 4) {
+        assertEquals(-1.386294, Double.parseDouble(output[1]), delta);
+        assertEquals(-1.791759, Double.parseDouble(output[3]), delta);
+        assertEquals(-1.791759, Double.parseDouble(output[5]), delta);
+        assertEquals(-1.098612, Double.parseDouble(output[7]), delta);
+        assertEquals(-1.098612, Double.parseDouble(output[9]), delta);
+      }
+    }
+    assertEquals(5, vertices);
+  }
+
 }
\ No newline at end of file
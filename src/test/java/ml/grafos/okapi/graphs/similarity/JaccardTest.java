@@ -17,8 +17,10 @@ package ml.grafos.okapi.graphs.similarity;
 
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import ml.grafos.okapi.io.formats.LongDoubleTextEdgeInputFormat;
 import org.apache.giraph.conf.GiraphConfiguration;
@@ -164,4 +166,67 @@ public class JaccardTest {
       }
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testMinHashSimilarity() {
+    String[] graph = { 
+        "1 2 0.0",
+        "1 3 0.0",
+        "1 4 0.0",
+        "2 1 0.0",
+        "2 4 0.0",
+        "2 5 0.0",
+        "3 1 0.0",
+        "3 4 0.0",
+        "4 1 0.0",
+        "4 2 0.0",
+        "4 3 0.0",
+        "4 5 0.0",
+        "5 2 0.0",
+        "5 4 0.0",
+        "5 6 0.0",
+        "6 5 0.0"
+    };
+    // Exact similarities, keyed by source*10+target
+    Map<Integer, Double> exact = new HashMap<Integer, Double>();
+    exact.put(12, 0.2);
+    exact.put(13, 0.25);
+    exact.put(14, 0.4);
+    exact.put(24, 0.4);
+    exact.put(25, 0.2);
+    exact.put(34, 0.2);
+    exact.put(45, 1.0/6.0);
+    exact.put(56, 0.0);
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Jaccard.SendFriendsMinHash.class);
+    conf.setMasterComputeClass(Jaccard.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+    conf.setOutEdgesClass(HashMapEdges.class);
+    conf.setBoolean(Jaccard.JACCARD_MINHASH, true);
+    conf.setInt(Jaccard.MINHASH_SLOTS, 256);
+
+    Iterable<String> results;
+    try {
+      results = InternalVertexRunner.run(conf, null, graph);
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Exception occurred");
+      return;
+    }
+    int edges = 0;
+    for (String string : results) {
+      String[] output = string.split("[\t ]");
+      int src = Integer.parseInt(output[0]);
+      for (int i = 2; i < output.length; i += 2) {
+        int dst = Integer.parseInt(output[i]);
+        int key = Math.min(src, dst)*10 + Math.max(src, dst);
+        // The standard error with 256 slots is at most 1/32
+        assertEquals(exact.get(key), Double.parseDouble(output[i+1]), 0.06);
+        edges++;
+      }
+    }
+    assertEquals(16, edges);
+  }
+}
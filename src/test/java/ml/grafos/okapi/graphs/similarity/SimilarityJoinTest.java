@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs.similarity;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class SimilarityJoinTest {
+
+  final double delta = 0.0001;
+
+  static final String[] GRAPH = {
+      "1 2", "1 3", "1 4",
+      "2 1", "2 4", "2 5",
+      "3 1", "3 4",
+      "4 1", "4 2", "4 3", "4 5",
+      "5 2", "5 4", "5 6",
+      "6 5"
+  };
+
+  private List<String[]> run(GiraphConfiguration conf) throws Exception {
+    conf.setComputationClass(SimilarityJoin.SendDegree.class);
+    conf.setMasterComputeClass(SimilarityJoin.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(
+        SimilarityJoin.SimilarVerticesOutputFormat.class);
+    List<String[]> res = new LinkedList<String[]>();
+    for (String line : InternalVertexRunner.run(conf, null, GRAPH)) {
+      res.add(line.split("\t"));
+    }
+    return res;
+  }
+
+  private List<String[]> pairsOf(List<String[]> res, long vertex) {
+    List<String[]> pairs = new LinkedList<String[]>();
+    for (String[] pair : res) {
+      if (Long.parseLong(pair[0]) == vertex) {
+        pairs.add(pair);
+      }
+    }
+    return pairs;
+  }
+
+  @Test
+  public void testJaccard() throws Exception {
+    List<String[]> res = run(new GiraphConfiguration());
+    // 1-5, 2-3, 3-5, 2-6, 4-6 in both directions
+    assertEquals(10, res.size());
+
+    List<String[]> pairs = pairsOf(res, 3);
+    assertEquals(2, pairs.size());
+    assertEquals(2, Long.parseLong(pairs.get(0)[1]));
+    assertEquals(2.0/3.0, Double.parseDouble(pairs.get(0)[2]), delta);
+    assertEquals(5, Long.parseLong(pairs.get(1)[1]));
+    assertEquals(0.25, Double.parseDouble(pairs.get(1)[2]), delta);
+
+    pairs = pairsOf(res, 1);
+    assertEquals(1, pairs.size());
+    assertEquals(5, Long.parseLong(pairs.get(0)[1]));
+    assertEquals(0.5, Double.parseDouble(pairs.get(0)[2]), delta);
+  }
+
+  @Test
+  public void testTopK() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setInt(SimilarityJoin.K, 1);
+    List<String[]> res = run(conf);
+    assertEquals(6, res.size());
+
+    List<String[]> pairs = pairsOf(res, 6);
+    assertEquals(1, pairs.size());
+    assertEquals(2, Long.parseLong(pairs.get(0)[1]));
+    assertEquals(1.0/3.0, Double.parseDouble(pairs.get(0)[2]), delta);
+  }
+
+  @Test
+  public void testHubPruning() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setInt(SimilarityJoin.MAX_FANOUT, 3);
+    List<String[]> res = run(conf);
+
+    // vertex 4 is a hub, so 3 and 5 are not candidates anymore
+    List<String[]> pairs = pairsOf(res, 3);
+    assertEquals(1, pairs.size());
+    assertEquals(2, Long.parseLong(pairs.get(0)[1]));
+    assertEquals(0.25, Double.parseDouble(pairs.get(0)[2]), delta);
+  }
+
+  @Test
+  public void testAdamicAdar() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.set(SimilarityJoin.MEASURE, "adamicadar");
+    List<String[]> res = run(conf);
+
+    List<String[]> pairs = pairsOf(res, 3);
+    assertEquals(2, pairs.size());
+    assertEquals(2, Long.parseLong(pairs.get(0)[1]));
+    assertEquals(1/Math.log(3) + 1/Math.log(4),
+        Double.parseDouble(pairs.get(0)[2]), delta);
+    assertEquals(5, Long.parseLong(pairs.get(1)[1]));
+    assertEquals(1/Math.log(4), Double.parseDouble(pairs.get(1)[2]), delta);
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SourceSelectorTest {
+
+  @Test
+  public void testList() {
+    SourceSelector selector = new SourceSelector(-1f, 42, "7:3:11");
+    for (long id = 1; id <= 20; id++) {
+      Assert.assertEquals(id == 3 || id == 7 || id == 11, 
+          selector.isSelected(id));
+    }
+  }
+
+  @Test
+  public void testSeededFraction() {
+    SourceSelector selector = new SourceSelector(0.1f, 42, "1");
+    SourceSelector same = new SourceSelector(0.1f, 42, "1");
+    int selected = 0;
+    int firstHalf = 0;
+    for (long id = 1; id <= 3000; id++) {
+      boolean isSelected = selector.isSelected(id);
+      Assert.assertEquals(isSelected, same.isSelected(id));
+      if (isSelected) {
+        selected++;
+        if (id <= 1500) {
+          firstHalf++;
+        }
+      }
+    }
+    // Consecutive ids must not be selected in runs.
+    Assert.assertTrue(selected > 200 && selected < 400);
+    Assert.assertTrue(firstHalf > 100 && firstHalf < 200);
+  }
+}